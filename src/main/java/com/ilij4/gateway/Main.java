@@ -1,6 +1,7 @@
 package com.ilij4.gateway;
 
 import com.ilij4.gateway.api.HttpVerticle;
+import com.ilij4.gateway.services.GatewayServices;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
@@ -16,13 +17,77 @@ public class Main {
                 .put("PORT", Integer.parseInt(getEnv("PORT", getEnv("TLS_ENABLED", "false").equalsIgnoreCase("true") ? "8443" : "8080")))
                 .put("RPC_URL", getEnv("RPC_URL", ""))
                 .put("RPC_TIMEOUT_MS", Integer.parseInt(getEnv("RPC_TIMEOUT_MS", "10000")))
+                .put("CB_FAILURE_RATE_PCT", Integer.parseInt(getEnv("CB_FAILURE_RATE_PCT", "50")))
+                .put("CB_SLOW_CALL_MS", Long.parseLong(getEnv("CB_SLOW_CALL_MS", "5000")))
+                .put("CB_SLOW_CALL_RATE_PCT", Integer.parseInt(getEnv("CB_SLOW_CALL_RATE_PCT", "80")))
+                .put("CB_MIN_CALLS", Integer.parseInt(getEnv("CB_MIN_CALLS", "20")))
+                .put("CB_WINDOW_SECONDS", Integer.parseInt(getEnv("CB_WINDOW_SECONDS", "10")))
+                .put("CB_OPEN_MS", Long.parseLong(getEnv("CB_OPEN_MS", "5000")))
+                .put("CB_HALF_OPEN_PROBES", Integer.parseInt(getEnv("CB_HALF_OPEN_PROBES", "3")))
+                .put("HEDGE_PERCENTILE", Integer.parseInt(getEnv("HEDGE_PERCENTILE", "0")))
+                .put("HEDGE_MIN_DELAY_MS", Long.parseLong(getEnv("HEDGE_MIN_DELAY_MS", "5")))
+                .put("HEDGE_BUDGET_PCT", Integer.parseInt(getEnv("HEDGE_BUDGET_PCT", "5")))
+                .put("HEDGE_METHODS", getEnv("HEDGE_METHODS", ""))
+                .put("RPC_DEADLINE_MS", Long.parseLong(getEnv("RPC_DEADLINE_MS", "20000")))
+                .put("RPC_MAX_RETRIES", Integer.parseInt(getEnv("RPC_MAX_RETRIES", "3")))
+                .put("RPC_METHOD_POLICIES", getEnv("RPC_METHOD_POLICIES", ""))
+                .put("RETRY_BUDGET_PCT", Integer.parseInt(getEnv("RETRY_BUDGET_PCT", "20")))
+                .put("RETRY_BUDGET_RESERVE", Integer.parseInt(getEnv("RETRY_BUDGET_RESERVE", "100")))
+                .put("RPC_WS_URL", getEnv("RPC_WS_URL", ""))
+                .put("WS_QUEUE_SIZE", Integer.parseInt(getEnv("WS_QUEUE_SIZE", "1024")))
+                .put("WS_MAX_SUBSCRIPTIONS", Integer.parseInt(getEnv("WS_MAX_SUBSCRIPTIONS", "100")))
+                .put("WS_MAX_IN_FLIGHT", Integer.parseInt(getEnv("WS_MAX_IN_FLIGHT", "100")))
+                .put("HTTP2_ENABLED", getEnv("HTTP2_ENABLED", "true"))
+                .put("HTTP2_MAX_STREAMS", Long.parseLong(getEnv("HTTP2_MAX_STREAMS", "100")))
+                .put("UPSTREAM_HTTP2", getEnv("UPSTREAM_HTTP2", "false"))
+                .put("UPSTREAM_POOL_SIZE", Integer.parseInt(getEnv("UPSTREAM_POOL_SIZE", "32")))
+                .put("UPSTREAM_HTTP2_CONNECTIONS", Integer.parseInt(getEnv("UPSTREAM_HTTP2_CONNECTIONS", "1")))
+                .put("UPSTREAM_HTTP2_STREAMS", Integer.parseInt(getEnv("UPSTREAM_HTTP2_STREAMS", "0"))) // 0 = node's limit
+                .put("HEAD_POLL_MS", Long.parseLong(getEnv("HEAD_POLL_MS", "0"))) // 0 = off
+                .put("HEAD_CACHE_MAX_ENTRIES", Integer.parseInt(getEnv("HEAD_CACHE_MAX_ENTRIES", "10000")))
+                .put("COMPRESSION_MIN_BYTES", Integer.parseInt(getEnv("COMPRESSION_MIN_BYTES", "1024"))) // 0 = off
+                .put("COMPRESSION_LEVEL", Integer.parseInt(getEnv("COMPRESSION_LEVEL", "6")))
+                .put("UPSTREAM_COMPRESSION", getEnv("UPSTREAM_COMPRESSION", "true"))
+                .put("CONCURRENCY_LIMIT_MAX", Integer.parseInt(getEnv("CONCURRENCY_LIMIT_MAX", "1000"))) // 0 = unbounded
+                .put("CONCURRENCY_LIMIT_MIN", Integer.parseInt(getEnv("CONCURRENCY_LIMIT_MIN", "20")))
+                .put("CONCURRENCY_QUEUE_SIZE", Integer.parseInt(getEnv("CONCURRENCY_QUEUE_SIZE", "100")))
+                .put("CONCURRENCY_QUEUE_MS", Long.parseLong(getEnv("CONCURRENCY_QUEUE_MS", "50")))
+                .put("UPSTREAM_GROUPS", getEnv("UPSTREAM_GROUPS", "")) // name=url,url;name=url
+                .put("ROUTE_RULES", getEnv("ROUTE_RULES", ""))
+                .put("BULKHEAD_LIMITS", getEnv("BULKHEAD_LIMITS", ""))
+                .put("LOGS_CHUNK_BLOCKS", Long.parseLong(getEnv("LOGS_CHUNK_BLOCKS", "2000"))) // 0 = off
+                .put("LOGS_PARALLELISM", Integer.parseInt(getEnv("LOGS_PARALLELISM", "4")))
                 .put("MAX_BODY_BYTES", Long.parseLong(getEnv("MAX_BODY_BYTES", "10485760"))) // 10MB
+                .put("CACHE_MAX_BYTES", Long.parseLong(getEnv("CACHE_MAX_BYTES", "67108864"))) // 64MB, 0 disables
+                .put("DISK_CACHE_DIR", getEnv("DISK_CACHE_DIR", "")) // empty = memory only
+                .put("DISK_CACHE_MAX_BYTES", Long.parseLong(getEnv("DISK_CACHE_MAX_BYTES", "1073741824"))) // 1GB
+                .put("MAX_BATCH_SIZE", Integer.parseInt(getEnv("MAX_BATCH_SIZE", "1000")))
+                .put("BATCH_CHUNK_SIZE", Integer.parseInt(getEnv("BATCH_CHUNK_SIZE", "50")))
+                .put("MICROBATCH_WINDOW_MS", Long.parseLong(getEnv("MICROBATCH_WINDOW_MS", "0"))) // 0 = off
+                .put("MICROBATCH_MAX_SIZE", Integer.parseInt(getEnv("MICROBATCH_MAX_SIZE", "20")))
+                .put("STREAM_METHODS", getEnv("STREAM_METHODS", "eth_getLogs,debug_trace,trace_"))
+                .put("STREAM_MIN_BYTES", Long.parseLong(getEnv("STREAM_MIN_BYTES", "65536")))
+                .put("ACCESS_LOG_FORMAT", getEnv("ACCESS_LOG_FORMAT", "compact")) // compact | json | off
+                .put("ACCESS_LOG_SAMPLE", Double.parseDouble(getEnv("ACCESS_LOG_SAMPLE", "1.0")))
+                .put("ACCESS_LOG_BUFFER", Integer.parseInt(getEnv("ACCESS_LOG_BUFFER", "8192")))
+                .put("RATE_LIMIT_CU_PER_SEC", Long.parseLong(getEnv("RATE_LIMIT_CU_PER_SEC", "0"))) // 0 = off
+                .put("RATE_LIMIT_BURST_CU", Long.parseLong(getEnv("RATE_LIMIT_BURST_CU", "0"))) // 0 = 2 x rate
+                .put("RATE_LIMIT_WEIGHTS", getEnv("RATE_LIMIT_WEIGHTS", ""))
+                .put("RATE_LIMIT_DEFAULT_WEIGHT", Integer.parseInt(getEnv("RATE_LIMIT_DEFAULT_WEIGHT", "10")))
+                .put("RATE_LIMIT_MAX_SUBJECTS", Long.parseLong(getEnv("RATE_LIMIT_MAX_SUBJECTS", "100000")))
                 .put("JWT_SECRET", getEnv("JWT_SECRET", ""))
                 .put("JWT_ISS", getEnv("JWT_ISS", ""))
                 .put("JWT_AUD", getEnv("JWT_AUD", ""))
+                .put("JWT_CACHE_SIZE", Long.parseLong(getEnv("JWT_CACHE_SIZE", "10000"))) // 0 disables
                 .put("TOKEN_API_KEY", getEnv("TOKEN_API_KEY", "test-apikey"));
 
-        vertx.deployVerticle(new HttpVerticle(), new DeploymentOptions().setConfig(cfg));
+        int instances = Integer.parseInt(getEnv("INSTANCES", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        var services = GatewayServices.create(vertx, cfg);
+        Runtime.getRuntime().addShutdownHook(new Thread(services::close));
+
+        // one HttpVerticle per event loop, all on the same port and the same shared state
+        vertx.deployVerticle(() -> new HttpVerticle(services),
+                new DeploymentOptions().setConfig(cfg).setInstances(instances));
     }
 
     private static String getEnv(String key, String def) {
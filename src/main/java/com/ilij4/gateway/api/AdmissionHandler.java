@@ -0,0 +1,50 @@
+package com.ilij4.gateway.api;
+
+import com.ilij4.gateway.rpc.RpcCall;
+import com.ilij4.gateway.services.ConcurrencyLimiter;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Admits /rpc requests through the {@link ConcurrencyLimiter}. Runs before {@link RpcBodyHandler},
+ * so a request that has to wait or is refused has not had its body buffered; the upload stays
+ * paused meanwhile. Refused requests get 503 + Retry-After. The permit is given back when the
+ * response ends, with the request's duration as the latency sample.
+ */
+public class AdmissionHandler implements Handler<RoutingContext> {
+    private final ConcurrencyLimiter limiter;
+
+    public AdmissionHandler(ConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void handle(RoutingContext ctx) {
+        HttpServerRequest req = ctx.request();
+        boolean paused = !req.isEnded();
+        if (paused) req.pause();
+        limiter.acquire(() -> {
+            if (ctx.response().closed()) { // the client gave up while queued
+                limiter.release();
+                return;
+            }
+            long start = System.nanoTime();
+            ctx.addEndHandler(ar -> {
+                if (ar.succeeded()) limiter.release(System.nanoTime() - start, ctx.response().getStatusCode() < 500);
+                else limiter.release();
+            });
+            if (paused) req.resume();
+            ctx.next();
+        }, () -> {
+            if (ctx.response().closed()) return;
+            var res = ctx.response()
+                    .setStatusCode(503)
+                    .putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
+                    .putHeader(HttpHeaders.RETRY_AFTER, "1");
+            if (!req.isEnded()) res.putHeader(HttpHeaders.CONNECTION, "close"); // the upload is not read
+            res.end(RpcCall.error(null, -32005, "server overloaded, retry later"));
+        });
+    }
+}
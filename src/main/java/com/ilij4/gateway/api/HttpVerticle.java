@@ -1,12 +1,24 @@
 package com.ilij4.gateway.api;
 
 import com.ilij4.gateway.config.ConfigKeys;
+import com.ilij4.gateway.services.GatewayServices;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Promise;
+import io.vertx.core.http.Http2Settings;
 import io.vertx.core.http.HttpServerOptions;
 import io.vertx.core.net.PfxOptions;
 
 public class HttpVerticle extends AbstractVerticle {
+    private final GatewayServices services; // null: build a private set in start()
+
+    public HttpVerticle() {
+        this(null);
+    }
+
+    /** For multi-instance deployments: every instance shares the same {@code services}. */
+    public HttpVerticle(GatewayServices services) {
+        this.services = services;
+    }
 
     @Override
     public void start(Promise<Void> startPromise) {
@@ -15,22 +27,39 @@ public class HttpVerticle extends AbstractVerticle {
         boolean tls = "true".equalsIgnoreCase(cfg.getString(ConfigKeys.TLS_ENABLED, "false"));
         int port = cfg.getInteger(ConfigKeys.PORT, tls ? 8443 : 8080);
 
+        boolean http2 = !"false".equalsIgnoreCase(cfg.getString(ConfigKeys.HTTP2_ENABLED, "true"));
+
         HttpServerOptions options = new HttpServerOptions()
                 .setHost("0.0.0.0")
-                .setPort(port);
+                .setPort(port)
+                .setHttp2ClearTextEnabled(http2) // prior knowledge or Upgrade: h2c
+                .setInitialSettings(new Http2Settings()
+                        .setMaxConcurrentStreams(cfg.getLong(ConfigKeys.HTTP2_MAX_STREAMS, 100L)));
+
+        int compressMinBytes = cfg.getInteger(ConfigKeys.COMPRESSION_MIN_BYTES, 1024);
+        if (compressMinBytes > 0) {
+            // for what JsonRpcHandler does not compress itself (streamed answers, /metrics);
+            // a response that already has a Content-Encoding is left alone
+            options.setCompressionSupported(true)
+                    .setCompressionLevel(cfg.getInteger(ConfigKeys.COMPRESSION_LEVEL, 6))
+                    .setCompressionContentSizeThreshold(compressMinBytes);
+        }
 
         if (tls) {
             String p12 = cfg.getString(ConfigKeys.TLS_P12_PATH);
             String pwd = cfg.getString(ConfigKeys.TLS_P12_PASSWORD);
             options.setSsl(true)
+                    .setUseAlpn(http2) // offers h2 and http/1.1
                     .setKeyCertOptions(new PfxOptions().setPath(p12).setPassword(pwd));
         }
 
-        var router = Routes.create(vertx, cfg);
+        var router = Routes.create(vertx, cfg, services != null ? services : GatewayServices.create(vertx, cfg));
 
         vertx.createHttpServer(options)
                 .requestHandler(router)
-                .listen();
+                .listen()
+                .<Void>mapEmpty()
+                .onComplete(startPromise);
     }
 
 }
@@ -1,105 +1,273 @@
 package com.ilij4.gateway.api;
 
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.JsonToken;
+import com.ilij4.gateway.rpc.ChainHeadTracker;
+import com.ilij4.gateway.rpc.LogRangeSplitter;
+import com.ilij4.gateway.rpc.MethodPolicies;
+import com.ilij4.gateway.rpc.MethodRouter;
+import com.ilij4.gateway.rpc.MicroBatcher;
+import com.ilij4.gateway.rpc.ParsedRequest;
+import com.ilij4.gateway.rpc.ResponseCache;
+import com.ilij4.gateway.rpc.RpcCall;
 import com.ilij4.gateway.rpc.RpcClient;
 import com.ilij4.gateway.rpc.RpcRequest;
+import com.ilij4.gateway.rpc.SingleFlight;
+import com.ilij4.gateway.services.Compressor;
+import com.ilij4.gateway.services.GatewayServices;
 import com.ilij4.gateway.services.MetricsService;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.RoutingContext;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Supplier;
 
 
 public class JsonRpcHandler implements Handler<RoutingContext> {
-    private final RpcClient rpcClient;
+    private final MethodRouter routes;
     private final MetricsService metrics;
-    private final JsonFactory factory = new JsonFactory();
+    private final ResponseCache cache; // null when disabled
+    private final ChainHeadTracker head; // null when disabled
+    private final Compressor compressor; // null when disabled
+    private final SingleFlight flights;
+    private final MicroBatcher microBatcher; // null when disabled
+    private final LogRangeSplitter logs; // null when disabled
+    private final List<String> streamMethods; // method-name prefixes proxied without buffering
 
-    private final int MAX_RETRIES = 3;
-    private final int MAX_TIMEOUT = 20_000;
+    private final MethodPolicies policies;
 
+    /** Clients may ask for a shorter deadline than the method's policy, never a longer one. */
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout-Ms";
 
-    public JsonRpcHandler(RpcClient upstream, MetricsService metrics) {
-        this.rpcClient = upstream;
-        this.metrics = metrics;
+    public JsonRpcHandler(GatewayServices services, List<String> streamMethods) {
+        this.routes = services.routes();
+        this.metrics = services.metrics();
+        this.cache = services.cache();
+        this.head = services.head();
+        this.compressor = services.compressor();
+        this.flights = services.flights();
+        this.microBatcher = services.microBatcher();
+        this.logs = services.logs();
+        this.streamMethods = streamMethods;
+        this.policies = services.methodPolicies();
     }
 
     @Override
     public void handle(RoutingContext ctx) {
-        Buffer body = ctx.body().buffer();
-        if (body == null || body.length() == 0) {
-            badRequest(ctx, "-32600", "invalid request: empty body");
-            return;
+        ParsedRequest parsed = ctx.get(ParsedRequest.KEY);
+        ctx.response().putHeader(HttpHeaders.CONTENT_TYPE, "application/json");
+
+        for (String method : parsed.methods()) {
+            if (method != null) metrics.inc(method);
         }
 
-        ctx.response().putHeader(HttpHeaders.CONTENT_TYPE, "application/json");
+        Buffer body = parsed.body();
+        long start = System.nanoTime();
+        metrics.requestStarted(body.length());
+        String single = parsed.singleMethod();
+        ctx.addEndHandler(v -> {
+            metrics.requestEnded(ctx.response().bytesWritten());
+            if (single != null) metrics.observe(single, System.nanoTime() - start); // batch entries are timed one by one
+        });
 
-        try {
-            countMethods(body.getBytes());
-        } catch (IOException e) {
-            badRequest(ctx, "-32700", "parse error");
-            return;
+        var policy = policies.of(parsed.methods());
+        var limits = new Limits(start + deadlineMs(ctx, policy) * 1_000_000, policy.maxRetries());
+        LogRangeSplitter.Plan split;
+        if (parsed.batch()) {
+            handleBatch(ctx, body, parsed.calls(), start, limits);
+        } else if (logs != null && (split = logs.plan(parsed.single())) != null) {
+            handleSplitLogs(ctx, split, limits);
+        } else if (streams(single)) {
+            handleStreaming(ctx, body, single, limits);
+        } else {
+            handleSingle(ctx, body, parsed.single(), limits);
+        }
+    }
+
+    /** Deadline and retry limit for one client request, shared by everything it sends upstream. */
+    private record Limits(long deadlineNanos, int maxRetries) {}
+
+    private static long deadlineMs(RoutingContext ctx, MethodPolicies.Policy policy) {
+        String requested = ctx.request().getHeader(TIMEOUT_HEADER);
+        if (requested != null) {
+            try {
+                long ms = Long.parseLong(requested.trim());
+                if (ms > 0) return Math.min(ms, policy.deadlineMs());
+            } catch (NumberFormatException ignored) {
+                // not a number: the policy applies
+            }
         }
+        return policy.deadlineMs();
+    }
 
+    private void handleSingle(RoutingContext ctx, Buffer body, RpcCall call, Limits limits) {
         var req = RpcRequest.of(body)
-                .timeoutMs(MAX_TIMEOUT)
-                .maxRetries(MAX_RETRIES)
+                .deadlineNanos(limits.deadlineNanos())
+                .maxRetries(limits.maxRetries())
+                .method(call != null ? call.method() : null)
                 .build();
 
-        rpcClient.forward(req).onSuccess(resp -> ctx.response().setStatusCode(200).end(resp)).onFailure(err -> {
-            if (err instanceof RpcClient.UpstreamException ue) {
-                ctx.response().setStatusCode(mapGatewayStatus(ue.status())).end(ue.body() != null ? ue.body() : "");
-            } else {
-                var errObj = jsonRpcError(-32000, "rpc error: " + err.getMessage());
-                ctx.response().setStatusCode(504).end(errObj.encode());
+        if (call != null && cache != null && compressor != null
+                && "gzip".equals(Compressor.negotiate(ctx.request().getHeader(HttpHeaders.ACCEPT_ENCODING)))) {
+            Buffer gzipped = cache.lookupGzip(call);
+            if (gzipped != null) {
+                ctx.response()
+                        .putHeader(HttpHeaders.CONTENT_ENCODING, "gzip")
+                        .putHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                        .setStatusCode(200)
+                        .end(gzipped);
+                return;
             }
+        }
+
+        Future<Buffer> resp;
+        if (call == null) {
+            resp = routes.of(null).client().forward(req);
+        } else {
+            resp = resolve(call, () -> {
+                var route = routes.of(call.method());
+                return microBatcher != null && route == routes.fallback() // the micro-batcher sends on the default route
+                        ? microBatcher.submit(call, limits.deadlineNanos(), limits.maxRetries())
+                        : route.client().forward(req);
+            });
+        }
+        resp.onSuccess(b -> send(ctx, b)).onFailure(err -> fail(ctx, err));
+    }
+
+    private void handleStreaming(RoutingContext ctx, Buffer body, String method, Limits limits) {
+        var req = RpcRequest.of(body)
+                .deadlineNanos(limits.deadlineNanos())
+                .maxRetries(limits.maxRetries())
+                .build();
+        routes.of(method).client().forwardStreaming(req, ctx.response()).onFailure(err -> {
+            // once bytes went out the stream was reset; before that, map like any other failure
+            if (!ctx.response().headWritten()) fail(ctx, err);
         });
     }
 
-    private void countMethods(byte[] bytes) throws IOException {
-        try (JsonParser p = factory.createParser(bytes)) {
-            JsonToken t = p.nextToken();
-            if (t == JsonToken.START_ARRAY) {
-                while (p.nextToken() == JsonToken.START_OBJECT) {
-                    scanOneObjectForMethod(p);
-                }
-            } else if (t == JsonToken.START_OBJECT) {
-                scanOneObjectForMethod(p);
-            }
+    private void handleSplitLogs(RoutingContext ctx, LogRangeSplitter.Plan plan, Limits limits) {
+        logs.forward(plan, routes.of(plan.call().method()).client(), limits.deadlineNanos(), limits.maxRetries(), ctx.response())
+                .onFailure(err -> {
+                    if (!ctx.response().headWritten()) fail(ctx, err);
+                });
+    }
+
+    private boolean streams(String method) {
+        if (method == null) return false;
+        for (String prefix : streamMethods) {
+            if (method.startsWith(prefix)) return true;
         }
+        return false;
     }
 
-    private void scanOneObjectForMethod(JsonParser p) throws IOException {
-        String method = null;
-        int depth = 1;
-        while (depth > 0) {
-            JsonToken t = p.nextToken();
-            if (t == JsonToken.FIELD_NAME) {
-                String name = p.currentName();
-                if ("method".equals(name)) {
-                    p.nextToken();
-                    if (p.currentToken().isScalarValue()) {
-                        method = p.getValueAsString();
-                    }
+    private void handleBatch(RoutingContext ctx, Buffer body, List<RpcCall> calls, long start, Limits limits) {
+        if (calls == null) {
+            // something the gateway does not model (notifications, junk entries): let the node answer it as-is
+            handleSingle(ctx, body, null, limits);
+            return;
+        }
+
+        // cache hits and shared flights resolve locally, the rest goes out as concurrent upstream sub-batches
+        var leaders = new ArrayList<RpcCall>();
+        var leaderResults = new ArrayList<Promise<Buffer>>();
+        var results = new ArrayList<Future<Buffer>>(calls.size());
+        for (RpcCall call : calls) {
+            results.add(resolve(call, () -> {
+                Promise<Buffer> p = Promise.promise();
+                leaders.add(call);
+                leaderResults.add(p);
+                return p.future();
+            }));
+        }
+
+        // a mixed batch is split by route; each part goes out on its own group's connections
+        var byRoute = new LinkedHashMap<MethodRouter.Route, List<Integer>>();
+        for (int i = 0; i < leaders.size(); i++) {
+            byRoute.computeIfAbsent(routes.of(leaders.get(i).method()), r -> new ArrayList<>()).add(i);
+        }
+        for (var part : byRoute.entrySet()) {
+            List<Integer> idx = part.getValue();
+            var sent = part.getKey().batches().forward(idx.stream().map(leaders::get).toList(),
+                    limits.deadlineNanos(), limits.maxRetries());
+            for (int i = 0; i < sent.size(); i++) sent.get(i).onComplete(leaderResults.get(idx.get(i)));
+        }
+        for (int i = 0; i < calls.size(); i++) {
+            String method = calls.get(i).method();
+            results.get(i).onComplete(ar -> metrics.observe(method, System.nanoTime() - start));
+        }
+
+        Future.join(results).onComplete(done -> {
+            Throwable firstErr = null;
+            int failed = 0;
+            for (Future<Buffer> f : results) {
+                if (f.failed()) {
+                    failed++;
+                    if (firstErr == null) firstErr = f.cause();
                 }
-            } else if (t == JsonToken.START_OBJECT) {
-                depth++;
-            } else if (t == JsonToken.END_OBJECT) {
-                depth--;
-            } else if (t == null) break;
+            }
+            if (failed == results.size()) {
+                fail(ctx, firstErr); // nothing usable: same status mapping as a single call
+                return;
+            }
+
+            Buffer out = Buffer.buffer(256).appendString("[");
+            for (int i = 0; i < results.size(); i++) {
+                if (i > 0) out.appendString(",");
+                Future<Buffer> f = results.get(i);
+                out.appendBuffer(f.succeeded()
+                        ? f.result()
+                        : RpcCall.error(calls.get(i).id(), -32000, "upstream error: " + f.cause().getMessage()));
+            }
+            send(ctx, out.appendString("]"));
+        });
+    }
+
+    /**
+     * Cache, then the head tracker (local answers and per-head results), then shared in-flight call,
+     * then {@code upstream}; successful leaders fill the caches.
+     */
+    private Future<Buffer> resolve(RpcCall call, Supplier<Future<Buffer>> upstream) {
+        boolean cacheable = cache != null && cache.policy().mayCache(call.method());
+        if (cacheable) {
+            Buffer hit = cache.lookup(call);
+            if (hit != null) return Future.succeededFuture(hit);
         }
+        Supplier<Future<Buffer>> shared = () -> flights.execute(call, () -> {
+            Future<Buffer> f = upstream.get();
+            if (cacheable) f.onSuccess(b -> cache.store(call, b));
+            return f;
+        });
+        return head != null ? head.execute(call, shared) : shared.get();
+    }
 
-        if (method != null && !method.isBlank()) metrics.inc(method);
+    /** 200 with {@code body}, compressed when it is large enough and the client accepts it. */
+    private void send(RoutingContext ctx, Buffer body) {
+        if (compressor != null) {
+            ctx.response().putHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            String encoding = body.length() >= compressor.minBytes()
+                    ? Compressor.negotiate(ctx.request().getHeader(HttpHeaders.ACCEPT_ENCODING)) : null;
+            if (encoding != null) {
+                body = compressor.compress(body, encoding);
+                ctx.response().putHeader(HttpHeaders.CONTENT_ENCODING, encoding);
+            }
+        }
+        ctx.response().setStatusCode(200).end(body);
     }
 
-    private void badRequest(RoutingContext ctx, String code, String message) {
-        var err = jsonRpcError(Integer.parseInt(code), message);
-        ctx.response().setStatusCode(400).end(err.encode());
+    private void fail(RoutingContext ctx, Throwable err) {
+        if (err instanceof RpcClient.CircuitOpenException || err instanceof RpcClient.BulkheadFullException) {
+            ctx.response().setStatusCode(503).end(((RpcClient.UpstreamException) err).body()); // ours, not the node's: no 502 mapping
+        } else if (err instanceof RpcClient.UpstreamException ue) {
+            ctx.response().setStatusCode(mapGatewayStatus(ue.status())).end(ue.body() != null ? ue.body() : "");
+        } else {
+            var errObj = jsonRpcError(-32000, "rpc error: " + err.getMessage());
+            ctx.response().setStatusCode(504).end(errObj.encode());
+        }
     }
 
     private JsonObject jsonRpcError(int code, String message) {
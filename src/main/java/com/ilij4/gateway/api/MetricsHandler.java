@@ -15,6 +15,13 @@ public class MetricsHandler implements Handler<RoutingContext> {
 
     @Override
     public void handle(RoutingContext ctx) {
+        if (wantsPrometheus(ctx)) {
+            ctx.response()
+                    .putHeader("Content-Type", "text/plain; version=0.0.4; charset=utf-8")
+                    .end(metrics.asPrometheus());
+            return;
+        }
+
         JsonObject methods = metrics.asJson();
 
         ctx.response()
@@ -22,4 +29,12 @@ public class MetricsHandler implements Handler<RoutingContext> {
                 .end(methods.encode());
     }
 
+    // ?format=prometheus, or a scraper asking for text (Prometheus sends text/plain / openmetrics)
+    private static boolean wantsPrometheus(RoutingContext ctx) {
+        String format = ctx.request().getParam("format");
+        if (format != null) return format.equalsIgnoreCase("prometheus");
+        String accept = ctx.request().getHeader("Accept");
+        return accept != null && !accept.contains("application/json")
+                && (accept.contains("text/plain") || accept.contains("openmetrics"));
+    }
 }
@@ -0,0 +1,44 @@
+package com.ilij4.gateway.api;
+
+import com.ilij4.gateway.rpc.ParsedRequest;
+import com.ilij4.gateway.rpc.RpcCall;
+import com.ilij4.gateway.services.ComputeUnits;
+import com.ilij4.gateway.services.RateLimiter;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Charges each /rpc request to its JWT {@code sub}, in compute units (a batch costs the sum of
+ * its entries). Runs after {@link RpcBodyHandler}; over-limit requests get 429 + Retry-After.
+ */
+public class RateLimitHandler implements Handler<RoutingContext> {
+    private final RateLimiter limiter;
+    private final ComputeUnits units;
+
+    public RateLimitHandler(RateLimiter limiter, ComputeUnits units) {
+        this.limiter = limiter;
+        this.units = units;
+    }
+
+    @Override
+    public void handle(RoutingContext ctx) {
+        ParsedRequest parsed = ctx.get(ParsedRequest.KEY);
+        String sub = ctx.user() != null ? ctx.user().principal().getString("sub") : null;
+        long waitNanos = limiter.tryAcquire(sub != null ? sub : "", units.of(parsed.methods()));
+        if (waitNanos == 0) {
+            ctx.next();
+            return;
+        }
+
+        RpcCall single = parsed.single();
+        long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+        ctx.response()
+                .setStatusCode(429)
+                .putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
+                .putHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter))
+                .end(RpcCall.error(single != null ? single.id() : null, -32005, "rate limit exceeded"));
+    }
+}
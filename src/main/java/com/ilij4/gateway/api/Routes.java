@@ -1,24 +1,26 @@
 package com.ilij4.gateway.api;
 
 import com.ilij4.gateway.config.ConfigKeys;
-import com.ilij4.gateway.log.AccessLogger;
-import com.ilij4.gateway.rpc.RpcClient;
-import com.ilij4.gateway.services.MetricsService;
+import com.ilij4.gateway.services.GatewayServices;
 import io.vertx.core.Vertx;
-import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.auth.JWTOptions;
 import io.vertx.ext.auth.PubSecKeyOptions;
 import io.vertx.ext.auth.jwt.JWTAuth;
 import io.vertx.ext.auth.jwt.JWTAuthOptions;
 import io.vertx.ext.web.Router;
-import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
 import io.vertx.ext.web.handler.CorsHandler;
-import io.vertx.ext.web.handler.JWTAuthHandler;
+
+import java.util.Arrays;
+import java.util.List;
 
 public class Routes {
     public static Router create(Vertx vertx, JsonObject cfg) {
+        return create(vertx, cfg, GatewayServices.create(vertx, cfg));
+    }
+
+    public static Router create(Vertx vertx, JsonObject cfg, GatewayServices services) {
         var jwtSecret = cfg.getString(ConfigKeys.JWT_SECRET, null);
         var jwtIss    = cfg.getString(ConfigKeys.JWT_ISS, null);
         var jwtAud    = cfg.getString(ConfigKeys.JWT_AUD, null);
@@ -27,9 +29,9 @@ public class Routes {
         Router router = Router.router(vertx);
 
         long maxBody = cfg.getLong(ConfigKeys.MAX_BODY_BYTES, 10 * 1024 * 1024L);
-        router.route().handler(BodyHandler.create().setBodyLimit(maxBody));
+        int maxBatch = cfg.getInteger(ConfigKeys.MAX_BATCH_SIZE, 1000);
 
-        router.route().handler(AccessLogger.create());
+        if (services.accessLog() != null) router.route().handler(services.accessLog().handler());
          router.route().handler(CorsHandler.create()
            .addOrigin("*") // or restrict
            .allowedHeader("Content-Type")
@@ -47,6 +49,7 @@ public class Routes {
                         .setBuffer(jwtSecret)));
 
         router.post("/auth/token")
+                .handler(BodyHandler.create().setBodyLimit(maxBody))
                 .handler(new ApiKeyAuthHandler(tokenApiKey))
                 .handler(ctx -> {
                     var sub = ctx.body().asJsonObject() != null ? ctx.body().asJsonObject().getString("sub", "client") : "client";
@@ -61,58 +64,38 @@ public class Routes {
                             .end(new JsonObject().put("token", token).encode());
                 });
 
-        var metrics = new MetricsService();
-
-        router.get("/metrics")
-                .handler(JWTAuthHandler.create(jwt))
-                .handler(ctx -> {
-                    if (!claimsOk(ctx, jwtIss, jwtAud)) return; // sends 401 if invalid
-                    ctx.next();
-                }).handler(new MetricsHandler(metrics));
+        var metrics = services.metrics();
 
-        var rpcClient = new RpcClient(vertx, cfg.getString(ConfigKeys.RPC_URL),
-                cfg.getInteger(ConfigKeys.RPC_TIMEOUT_MS, 10_000));
+        var auth = new CachedJwtAuthHandler(jwt, services.tokens(), jwtIss, jwtAud); // sends 401 if invalid
 
-        router.post("/rpc")
-                .handler(JWTAuthHandler.create(jwt))
-                .handler(ctx -> {
-                    if (!claimsOk(ctx, jwtIss, jwtAud)) return;
-                    ctx.next();
-                }).handler(new JsonRpcHandler(rpcClient, metrics));
+        router.get("/metrics")
+                .handler(auth)
+                .handler(new MetricsHandler(metrics));
+
+        var rpc = router.post("/rpc").handler(auth);
+        if (services.admission() != null) rpc.handler(new AdmissionHandler(services.admission()));
+        rpc.handler(new RpcBodyHandler(maxBody, maxBatch));
+        if (services.limiter() != null) rpc.handler(new RateLimitHandler(services.limiter(), services.computeUnits()));
+        rpc.handler(new JsonRpcHandler(services,
+                        csv(cfg.getString(ConfigKeys.STREAM_METHODS, "eth_getLogs,debug_trace,trace_"))));
+
+        if (services.subscriptions() != null) {
+            router.get("/ws")
+                    .handler(auth)
+                    .handler(new WebSocketHandler(services,
+                            cfg.getInteger(ConfigKeys.WS_QUEUE_SIZE, 1024),
+                            cfg.getInteger(ConfigKeys.WS_MAX_SUBSCRIPTIONS, 100),
+                            cfg.getInteger(ConfigKeys.WS_MAX_IN_FLIGHT, 100),
+                            maxBatch));
+        }
 
         return router;
     }
 
-    private static boolean claimsOk(RoutingContext ctx, String requiredIss, String requiredAud) {
-        if (ctx.user() == null) {
-            ctx.response().setStatusCode(401).end("unauthorized");
-            return false;
-        }
-
-        JsonObject claims = ctx.user().principal();
-
-        if (requiredIss != null && !requiredIss.isBlank()) {
-            String iss = claims.getString("iss");
-            if (!requiredIss.equals(iss)) {
-                ctx.response().setStatusCode(401).end("invalid issuer");
-                return false;
-            }
-        }
-
-        if (requiredAud != null && !requiredAud.isBlank()) {
-            Object audVal = claims.getValue("aud");
-            boolean ok = false;
-            if (audVal instanceof String s) {
-                ok = requiredAud.equals(s);
-            } else if (audVal instanceof JsonArray arr) {
-                ok = arr.contains(requiredAud);
-            }
-            if (!ok) {
-                ctx.response().setStatusCode(401).end("invalid audience");
-                return false;
-            }
-        }
-
-        return true;
+    private static List<String> csv(String value) {
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(v -> !v.isEmpty())
+                .toList();
     }
 }
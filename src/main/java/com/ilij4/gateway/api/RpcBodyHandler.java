@@ -0,0 +1,73 @@
+package com.ilij4.gateway.api;
+
+import com.ilij4.gateway.rpc.ParsedRequest;
+import com.ilij4.gateway.rpc.RpcRequestParser;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Replaces {@code BodyHandler} on {@code /rpc}: parses the body while it arrives and stores a
+ * {@link ParsedRequest} in the context. Oversized or malformed input is refused mid-upload.
+ */
+public class RpcBodyHandler implements Handler<RoutingContext> {
+    private final long maxBytes;
+    private final int maxBatchSize;
+
+    public RpcBodyHandler(long maxBytes, int maxBatchSize) {
+        this.maxBytes = maxBytes;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @Override
+    public void handle(RoutingContext ctx) {
+        HttpServerRequest req = ctx.request();
+        if (declaredLength(req) > maxBytes) {
+            reject(ctx, 413, -32600, "invalid request: body larger than " + maxBytes + " bytes");
+            return;
+        }
+
+        var parser = new RpcRequestParser(maxBytes, maxBatchSize);
+        req.handler(chunk -> {
+            if (ctx.response().ended()) return;
+            try {
+                parser.feed(chunk);
+            } catch (RpcRequestParser.RejectedException e) {
+                reject(ctx, e.status(), e.code(), e.getMessage());
+            }
+        });
+        req.endHandler(v -> {
+            if (ctx.response().ended()) return;
+            try {
+                ctx.put(ParsedRequest.KEY, parser.finish());
+                ctx.next();
+            } catch (RpcRequestParser.RejectedException e) {
+                reject(ctx, e.status(), e.code(), e.getMessage());
+            }
+        });
+        req.exceptionHandler(ctx::fail);
+        req.resume();
+    }
+
+    private static long declaredLength(HttpServerRequest req) {
+        String len = req.getHeader(HttpHeaders.CONTENT_LENGTH);
+        try {
+            return len != null ? Long.parseLong(len) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void reject(RoutingContext ctx, int status, int code, String message) {
+        var err = new JsonObject()
+                .put("jsonrpc", "2.0")
+                .put("id", null)
+                .put("error", new JsonObject().put("code", code).put("message", message));
+        var res = ctx.response().setStatusCode(status).putHeader(HttpHeaders.CONTENT_TYPE, "application/json");
+        // the rest of the upload is not read
+        if (!ctx.request().isEnded()) res.putHeader(HttpHeaders.CONNECTION, "close");
+        res.end(err.encode());
+    }
+}
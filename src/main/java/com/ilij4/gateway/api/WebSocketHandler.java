@@ -0,0 +1,42 @@
+package com.ilij4.gateway.api;
+
+import com.ilij4.gateway.services.GatewayServices;
+import com.ilij4.gateway.ws.WsSession;
+import io.vertx.core.Handler;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Upgrades an authenticated request on {@code /ws} and hands the socket to a {@link WsSession},
+ * held to the rate limit of the token's subject and to the same admission control as /rpc.
+ */
+public class WebSocketHandler implements Handler<RoutingContext> {
+    private final GatewayServices services;
+    private final int maxQueued;
+    private final int maxSubscriptions;
+    private final int maxInFlight;
+    private final int maxBatchSize;
+
+    public WebSocketHandler(GatewayServices services, int maxQueued, int maxSubscriptions, int maxInFlight, int maxBatchSize) {
+        this.services = services;
+        this.maxQueued = maxQueued;
+        this.maxSubscriptions = maxSubscriptions;
+        this.maxInFlight = maxInFlight;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @Override
+    public void handle(RoutingContext ctx) {
+        if (!ctx.request().canUpgradeToWebSocket()) {
+            ctx.response().setStatusCode(400).end("websocket upgrade expected");
+            return;
+        }
+        String sub = ctx.user() != null ? ctx.user().principal().getString("sub") : null;
+        ctx.request().toWebSocket()
+                .onSuccess(ws -> new WsSession(ws, services.subscriptions(), services.routes(),
+                        services.methodPolicies(), services.metrics(), maxQueued, maxSubscriptions, maxInFlight, maxBatchSize)
+                        .rateLimit(sub, services.limiter(), services.computeUnits())
+                        .admission(services.admission())
+                        .start())
+                .onFailure(ctx::fail);
+    }
+}
@@ -8,9 +8,67 @@ public class ConfigKeys {
     public static final String PORT = "PORT";
     public static final String RPC_URL = "RPC_URL";
     public static final String RPC_TIMEOUT_MS = "RPC_TIMEOUT_MS";
+    public static final String CB_FAILURE_RATE_PCT = "CB_FAILURE_RATE_PCT";
+    public static final String CB_SLOW_CALL_MS = "CB_SLOW_CALL_MS";
+    public static final String CB_SLOW_CALL_RATE_PCT = "CB_SLOW_CALL_RATE_PCT";
+    public static final String CB_MIN_CALLS = "CB_MIN_CALLS";
+    public static final String CB_WINDOW_SECONDS = "CB_WINDOW_SECONDS";
+    public static final String CB_OPEN_MS = "CB_OPEN_MS";
+    public static final String CB_HALF_OPEN_PROBES = "CB_HALF_OPEN_PROBES";
+    public static final String HEDGE_PERCENTILE = "HEDGE_PERCENTILE";
+    public static final String HEDGE_MIN_DELAY_MS = "HEDGE_MIN_DELAY_MS";
+    public static final String HEDGE_BUDGET_PCT = "HEDGE_BUDGET_PCT";
+    public static final String HEDGE_METHODS = "HEDGE_METHODS";
+    public static final String RPC_DEADLINE_MS = "RPC_DEADLINE_MS";
+    public static final String RPC_MAX_RETRIES = "RPC_MAX_RETRIES";
+    public static final String RPC_METHOD_POLICIES = "RPC_METHOD_POLICIES";
+    public static final String RETRY_BUDGET_PCT = "RETRY_BUDGET_PCT";
+    public static final String RETRY_BUDGET_RESERVE = "RETRY_BUDGET_RESERVE";
+    public static final String RPC_WS_URL = "RPC_WS_URL";
+    public static final String WS_QUEUE_SIZE = "WS_QUEUE_SIZE";
+    public static final String WS_MAX_SUBSCRIPTIONS = "WS_MAX_SUBSCRIPTIONS";
+    public static final String WS_MAX_IN_FLIGHT = "WS_MAX_IN_FLIGHT";
+    public static final String HTTP2_ENABLED = "HTTP2_ENABLED";
+    public static final String HTTP2_MAX_STREAMS = "HTTP2_MAX_STREAMS";
+    public static final String UPSTREAM_HTTP2 = "UPSTREAM_HTTP2";
+    public static final String UPSTREAM_POOL_SIZE = "UPSTREAM_POOL_SIZE";
+    public static final String UPSTREAM_HTTP2_CONNECTIONS = "UPSTREAM_HTTP2_CONNECTIONS";
+    public static final String UPSTREAM_HTTP2_STREAMS = "UPSTREAM_HTTP2_STREAMS";
+    public static final String HEAD_POLL_MS = "HEAD_POLL_MS";
+    public static final String HEAD_CACHE_MAX_ENTRIES = "HEAD_CACHE_MAX_ENTRIES";
+    public static final String COMPRESSION_MIN_BYTES = "COMPRESSION_MIN_BYTES";
+    public static final String COMPRESSION_LEVEL = "COMPRESSION_LEVEL";
+    public static final String UPSTREAM_COMPRESSION = "UPSTREAM_COMPRESSION";
+    public static final String CONCURRENCY_LIMIT_MAX = "CONCURRENCY_LIMIT_MAX";
+    public static final String CONCURRENCY_LIMIT_MIN = "CONCURRENCY_LIMIT_MIN";
+    public static final String CONCURRENCY_QUEUE_SIZE = "CONCURRENCY_QUEUE_SIZE";
+    public static final String CONCURRENCY_QUEUE_MS = "CONCURRENCY_QUEUE_MS";
+    public static final String UPSTREAM_GROUPS = "UPSTREAM_GROUPS";
+    public static final String ROUTE_RULES = "ROUTE_RULES";
+    public static final String BULKHEAD_LIMITS = "BULKHEAD_LIMITS";
+    public static final String LOGS_CHUNK_BLOCKS = "LOGS_CHUNK_BLOCKS";
+    public static final String LOGS_PARALLELISM = "LOGS_PARALLELISM";
     public static final String MAX_BODY_BYTES = "MAX_BODY_BYTES";
+    public static final String CACHE_MAX_BYTES = "CACHE_MAX_BYTES";
+    public static final String DISK_CACHE_DIR = "DISK_CACHE_DIR";
+    public static final String DISK_CACHE_MAX_BYTES = "DISK_CACHE_MAX_BYTES";
+    public static final String MAX_BATCH_SIZE = "MAX_BATCH_SIZE";
+    public static final String BATCH_CHUNK_SIZE = "BATCH_CHUNK_SIZE";
+    public static final String MICROBATCH_WINDOW_MS = "MICROBATCH_WINDOW_MS";
+    public static final String MICROBATCH_MAX_SIZE = "MICROBATCH_MAX_SIZE";
+    public static final String STREAM_METHODS = "STREAM_METHODS";
+    public static final String STREAM_MIN_BYTES = "STREAM_MIN_BYTES";
+    public static final String ACCESS_LOG_FORMAT = "ACCESS_LOG_FORMAT";
+    public static final String ACCESS_LOG_SAMPLE = "ACCESS_LOG_SAMPLE";
+    public static final String ACCESS_LOG_BUFFER = "ACCESS_LOG_BUFFER";
+    public static final String RATE_LIMIT_CU_PER_SEC = "RATE_LIMIT_CU_PER_SEC";
+    public static final String RATE_LIMIT_BURST_CU = "RATE_LIMIT_BURST_CU";
+    public static final String RATE_LIMIT_WEIGHTS = "RATE_LIMIT_WEIGHTS";
+    public static final String RATE_LIMIT_DEFAULT_WEIGHT = "RATE_LIMIT_DEFAULT_WEIGHT";
+    public static final String RATE_LIMIT_MAX_SUBJECTS = "RATE_LIMIT_MAX_SUBJECTS";
     public static final String JWT_SECRET = "JWT_SECRET";
     public static final String JWT_ISS    = "JWT_ISS";
     public static final String JWT_AUD    = "JWT_AUD";
+    public static final String JWT_CACHE_SIZE = "JWT_CACHE_SIZE";
     public static final String TOKEN_API_KEY = "TOKEN_API_KEY";
 }
@@ -0,0 +1,18 @@
+package com.ilij4.gateway.log;
+
+/** One access-log line before formatting. Instances live in the ring and are reused. */
+final class AccessEvent {
+    long seq;          // ring position, set by claim()
+    long timestampMs;
+    String method;
+    String path;
+    int status;
+    long bytes;
+    long durationNanos;
+    String userAgent;
+    String remoteIp;
+
+    void clear() {
+        method = path = userAgent = remoteIp = null;
+    }
+}
@@ -0,0 +1,68 @@
+package com.ilij4.gateway.log;
+
+import java.util.Locale;
+
+/** Line layouts for {@link AccessLogger}. */
+public enum AccessLogFormat {
+    /** {@code POST /rpc 200 123B 4ms ua="curl/8.0" ip=10.0.0.1} */
+    COMPACT {
+        @Override
+        void append(StringBuilder sb, AccessEvent e) {
+            sb.append(e.method).append(' ').append(e.path).append(' ')
+                    .append(e.status).append(' ')
+                    .append(e.bytes).append("B ")
+                    .append(e.durationNanos / 1_000_000).append("ms ua=\"")
+                    .append(e.userAgent).append("\" ip=")
+                    .append(e.remoteIp != null ? e.remoteIp : "-")
+                    .append('\n');
+        }
+    },
+    /** One JSON object per line. */
+    JSON {
+        @Override
+        void append(StringBuilder sb, AccessEvent e) {
+            sb.append("{\"ts\":").append(e.timestampMs);
+            sb.append(",\"method\":"); string(sb, e.method);
+            sb.append(",\"path\":"); string(sb, e.path);
+            sb.append(",\"status\":").append(e.status);
+            sb.append(",\"bytes\":").append(e.bytes);
+            sb.append(",\"us\":").append(e.durationNanos / 1_000);
+            sb.append(",\"ua\":"); string(sb, e.userAgent);
+            sb.append(",\"ip\":"); string(sb, e.remoteIp);
+            sb.append("}\n");
+        }
+    };
+
+    abstract void append(StringBuilder sb, AccessEvent e);
+
+    /** Parses {@code compact} / {@code json}; anything else is rejected. */
+    public static AccessLogFormat parse(String value) {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+
+    private static void string(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+}
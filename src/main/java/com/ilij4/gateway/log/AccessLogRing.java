@@ -0,0 +1,67 @@
+package com.ilij4.gateway.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded multi-producer / single-consumer ring of preallocated {@link AccessEvent}s.
+ * Producers (event loops) claim a slot with one CAS, fill it and publish it; a full ring
+ * refuses instead of waiting. Slot sequence numbers follow Vyukov's bounded queue.
+ */
+final class AccessLogRing {
+    private final AccessEvent[] slots;
+    private final AtomicLongArray sequence;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // consumer thread only
+
+    AccessLogRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AccessEvent[size];
+        this.sequence = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots[i] = new AccessEvent();
+            sequence.set(i, i);
+        }
+    }
+
+    int capacity() { return slots.length; }
+
+    /** A free slot to fill and {@link #publish}, or null when the ring is full. */
+    AccessEvent claim() {
+        long pos = tail.get();
+        while (true) {
+            int idx = (int) (pos & mask);
+            long diff = sequence.get(idx) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    AccessEvent e = slots[idx];
+                    e.seq = pos;
+                    return e;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return null; // consumer has not freed this slot yet
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    void publish(AccessEvent e) {
+        sequence.set((int) (e.seq & mask), e.seq + 1);
+    }
+
+    /** Next published event, or null. The slot is reused after {@link #release}. */
+    AccessEvent poll() {
+        int idx = (int) (head & mask);
+        return sequence.get(idx) == head + 1 ? slots[idx] : null;
+    }
+
+    void release(AccessEvent e) {
+        e.clear();
+        sequence.set((int) (head & mask), head + slots.length);
+        head++;
+    }
+}
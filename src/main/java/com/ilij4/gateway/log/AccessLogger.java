@@ -1,27 +1,146 @@
 package com.ilij4.gateway.log;
 
+import com.ilij4.gateway.services.MetricsService;
 import io.vertx.core.Handler;
 import io.vertx.ext.web.RoutingContext;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log that never blocks the event loop. The request path only copies a few references
+ * into a preallocated ring slot; a background thread formats and writes lines in batches.
+ * When the ring is full the line is dropped and counted. Sampling applies per line; 5xx
+ * responses are always kept.
+ */
 public class AccessLogger {
-    private AccessLogger() {}
+    private static final int MAX_BATCH = 512;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AccessLogRing ring;
+    private final AccessLogFormat format;
+    private final double sampleRate;
+    private final OutputStream out;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+
+    private volatile boolean running;
+    private Thread writer;
+
+    public AccessLogger(AccessLogFormat format, int capacity, double sampleRate, OutputStream out) {
+        this.ring = new AccessLogRing(capacity);
+        this.format = format;
+        this.sampleRate = Math.max(0, Math.min(1, sampleRate));
+        this.out = out;
+    }
+
+    public synchronized AccessLogger start() {
+        if (writer != null) return this;
+        running = true;
+        writer = new Thread(this::run, "gateway-access-log");
+        writer.setDaemon(true);
+        writer.start();
+        return this;
+    }
+
+    /** Stops the writer after it has written everything already queued. */
+    public synchronized void close() {
+        if (writer == null) return;
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
 
-    public static Handler<RoutingContext> create() {
+    public Handler<RoutingContext> handler() {
         return ctx -> {
             long start = System.nanoTime();
             ctx.addBodyEndHandler(v -> {
-                long ms = (System.nanoTime() - start) / 1_000_000;
                 var req = ctx.request();
                 var res = ctx.response();
-                System.out.printf("%s %s %d %dB %dms ua=\"%s\" ip=%s%n",
-                        req.method(), req.path(),
-                        res.getStatusCode(),
-                        res.bytesWritten(),
-                        ms,
-                        req.getHeader("User-Agent"),
-                        req.remoteAddress() != null ? req.remoteAddress().host() : "-");
+                log(req.method().name(), req.path(), res.getStatusCode(), res.bytesWritten(),
+                        System.nanoTime() - start, req.getHeader("User-Agent"),
+                        req.remoteAddress() != null ? req.remoteAddress().host() : null);
             });
             ctx.next();
         };
     }
+
+    /** Queues one line; returns false if it was sampled out or dropped. */
+    public boolean log(String method, String path, int status, long bytes, long durationNanos,
+                       String userAgent, String remoteIp) {
+        if (status < 500 && sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            sampledOut.increment();
+            return false;
+        }
+        AccessEvent e = ring.claim();
+        if (e == null) {
+            dropped.increment();
+            return false;
+        }
+        e.timestampMs = System.currentTimeMillis();
+        e.method = method;
+        e.path = path;
+        e.status = status;
+        e.bytes = bytes;
+        e.durationNanos = durationNanos;
+        e.userAgent = userAgent;
+        e.remoteIp = remoteIp;
+        ring.publish(e);
+        return true;
+    }
+
+    private void run() {
+        var sb = new StringBuilder(16 * 1024);
+        while (true) {
+            boolean stopping = !running; // read before draining so nothing published earlier is missed
+            int n = drain(sb);
+            if (n > 0) {
+                write(sb);
+            } else if (stopping) {
+                return;
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private int drain(StringBuilder sb) {
+        int n = 0;
+        AccessEvent e;
+        while (n < MAX_BATCH && (e = ring.poll()) != null) {
+            format.append(sb, e);
+            ring.release(e);
+            n++;
+        }
+        written.add(n);
+        return n;
+    }
+
+    private void write(StringBuilder sb) {
+        try {
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException ignored) {
+            // nowhere left to report it
+        }
+        sb.setLength(0);
+    }
+
+    public void registerMetrics(MetricsService metrics) {
+        metrics.counter("access_log_written_total", written::sum);
+        metrics.counter("access_log_dropped_total", dropped::sum);
+        metrics.counter("access_log_sampled_out_total", sampledOut::sum);
+    }
 }
@@ -0,0 +1,89 @@
+package com.ilij4.gateway.rpc;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends calls upstream as batches of at most {@code chunkSize} entries, all chunks concurrently,
+ * and hands every call its own response back. A failed chunk only fails its own entries.
+ * Entries go out with their index as id, so duplicate or odd client ids cannot collide.
+ */
+public final class BatchForwarder {
+    private final RpcClient client;
+    private final int chunkSize;
+
+    public BatchForwarder(RpcClient client, int chunkSize) {
+        this.client = client;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    public List<Future<Buffer>> forward(List<RpcCall> calls, Long deadlineNanos, int maxRetries) {
+        if (calls.size() <= chunkSize) return forwardChunk(calls, deadlineNanos, maxRetries);
+
+        var futures = new ArrayList<Future<Buffer>>(calls.size());
+        for (int from = 0; from < calls.size(); from += chunkSize) {
+            var chunk = calls.subList(from, Math.min(from + chunkSize, calls.size()));
+            futures.addAll(forwardChunk(chunk, deadlineNanos, maxRetries));
+        }
+        return futures;
+    }
+
+    private List<Future<Buffer>> forwardChunk(List<RpcCall> calls, Long deadlineNanos, int maxRetries) {
+        var body = new JsonArray();
+        var out = new ArrayList<Promise<Buffer>>(calls.size());
+        var futures = new ArrayList<Future<Buffer>>(calls.size());
+        for (int i = 0; i < calls.size(); i++) {
+            body.add(calls.get(i).toJson(i));
+            Promise<Buffer> p = Promise.promise();
+            out.add(p);
+            futures.add(p.future());
+        }
+
+        var req = RpcRequest.of(body.toBuffer())
+                .deadlineNanos(deadlineNanos)
+                .maxRetries(maxRetries)
+                .build();
+
+        client.forward(req)
+                .onSuccess(resp -> split(resp, calls, out))
+                .onFailure(err -> out.forEach(p -> p.tryFail(err)));
+        return futures;
+    }
+
+    private static void split(Buffer resp, List<RpcCall> calls, List<Promise<Buffer>> out) {
+        Object parsed;
+        try {
+            parsed = Json.decodeValue(resp);
+        } catch (DecodeException e) {
+            parsed = null;
+        }
+
+        if (parsed instanceof JsonArray arr) {
+            for (Object o : arr) {
+                if (o instanceof JsonObject r && r.getValue("id") instanceof Number n) {
+                    int i = n.intValue();
+                    if (i >= 0 && i < calls.size()) {
+                        out.get(i).tryComplete(r.put("id", calls.get(i).id()).toBuffer());
+                    }
+                }
+            }
+        } else if (parsed instanceof JsonObject r) {
+            // the node rejected the batch as a whole with a single error object
+            for (int i = 0; i < calls.size(); i++) {
+                out.get(i).tryComplete(r.copy().put("id", calls.get(i).id()).toBuffer());
+            }
+        }
+
+        for (Promise<Buffer> p : out) {
+            p.tryFail(new RpcClient.UpstreamException(502, "no response for batch entry"));
+        }
+    }
+}
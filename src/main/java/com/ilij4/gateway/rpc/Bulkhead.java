@@ -0,0 +1,39 @@
+package com.ilij4.gateway.rpc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps the requests one {@link RpcClient} has in flight, so a burst on one route cannot take
+ * the connections and memory the others need. Over the cap a request is refused at once
+ * instead of queueing behind the burst.
+ */
+public final class Bulkhead {
+    private final int maxInFlight; // 0 = unbounded, only counted
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected;
+
+    public Bulkhead(int maxInFlight, LongAdder rejected) {
+        this.maxInFlight = maxInFlight;
+        this.rejected = rejected;
+    }
+
+    boolean tryEnter() {
+        while (true) {
+            int n = inFlight.get();
+            if (maxInFlight > 0 && n >= maxInFlight) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(n, n + 1)) return true;
+        }
+    }
+
+    void exit() {
+        inFlight.decrementAndGet();
+    }
+
+    public int inFlight() { return inFlight.get(); }
+
+    public int maxInFlight() { return maxInFlight; }
+}
@@ -0,0 +1,104 @@
+package com.ilij4.gateway.rpc;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides per method whether a JSON-RPC result can never change and is safe to cache.
+ * Anything not listed here is never cached.
+ */
+public final class CachePolicy {
+    private enum Rule {
+        ALWAYS,          // chain constants
+        BY_HASH,         // keyed by a block hash
+        FINALIZED_TX,    // txs and receipts, once their block is finalized (a reorg can still move them before)
+        FINALIZED_BLOCK, // block by explicit number, once finalized
+        PINNED,          // state reads pinned to a block hash (EIP-1898)
+        FINALIZED_RANGE  // log queries over explicit block numbers, once all finalized
+    }
+
+    private static final Map<String, Rule> RULES = Map.ofEntries(
+            Map.entry("eth_chainId", Rule.ALWAYS),
+            Map.entry("net_version", Rule.ALWAYS),
+            Map.entry("eth_getBlockByHash", Rule.BY_HASH),
+            Map.entry("eth_getBlockTransactionCountByHash", Rule.BY_HASH),
+            Map.entry("eth_getTransactionByBlockHashAndIndex", Rule.BY_HASH),
+            Map.entry("eth_getTransactionByHash", Rule.FINALIZED_TX),
+            Map.entry("eth_getTransactionReceipt", Rule.FINALIZED_TX),
+            Map.entry("eth_getBlockByNumber", Rule.FINALIZED_BLOCK),
+            Map.entry("eth_call", Rule.PINNED),
+            Map.entry("eth_getBalance", Rule.PINNED),
+            Map.entry("eth_getCode", Rule.PINNED),
+            Map.entry("eth_getTransactionCount", Rule.PINNED),
+            Map.entry("eth_getStorageAt", Rule.PINNED),
+            Map.entry("eth_getLogs", Rule.FINALIZED_RANGE)
+    );
+
+    private final LongSupplier finalizedBlock;
+
+    /** @param finalizedBlock highest finalized block number, or -1 when unknown */
+    public CachePolicy(LongSupplier finalizedBlock) {
+        this.finalizedBlock = finalizedBlock;
+    }
+
+    public static CachePolicy withoutFinality() {
+        return new CachePolicy(() -> -1L);
+    }
+
+    /** Cheap pre-check on the method name alone, before anything gets parsed. */
+    public boolean mayCache(String method) {
+        return method != null && RULES.containsKey(method);
+    }
+
+    /** Whether the request itself identifies an immutable answer. */
+    public boolean cacheableRequest(RpcCall call) {
+        Rule rule = RULES.get(call.method());
+        if (rule == null) return false;
+        return switch (rule) {
+            case FINALIZED_BLOCK -> {
+                long n = call.params().isEmpty() ? -1 : quantity(call.params().getValue(0));
+                yield n >= 0 && n <= finalizedBlock.getAsLong();
+            }
+            case PINNED -> {
+                int idx = "eth_getStorageAt".equals(call.method()) ? 2 : 1;
+                yield call.params().size() > idx
+                        && call.params().getValue(idx) instanceof JsonObject o
+                        && o.getString("blockHash") != null;
+            }
+            case FINALIZED_RANGE -> {
+                if (call.params().isEmpty() || !(call.params().getValue(0) instanceof JsonObject filter)) yield false;
+                long from = quantity(filter.getValue("fromBlock"));
+                long to = quantity(filter.getValue("toBlock"));
+                yield filter.getValue("blockHash") == null && from >= 0 && from <= to && to <= finalizedBlock.getAsLong();
+            }
+            default -> true;
+        };
+    }
+
+    /** Whether this particular result may be kept. Null results are never cached. */
+    public boolean cacheableResult(RpcCall call, Object result) {
+        if (result == null) return false;
+        Rule rule = RULES.get(call.method());
+        if (rule == null) return false;
+        return switch (rule) {
+            case FINALIZED_TX -> {
+                if (!(result instanceof JsonObject o)) yield false;
+                long n = quantity(o.getValue("blockNumber"));
+                yield n >= 0 && n <= finalizedBlock.getAsLong();
+            }
+            default -> true;
+        };
+    }
+
+    /** Parses a hex quantity such as {@code "0x1b4"}; tags and garbage give -1. */
+    static long quantity(Object v) {
+        if (!(v instanceof String s) || !s.startsWith("0x") || s.length() < 3 || s.length() > 18) return -1;
+        try {
+            return Long.parseLong(s.substring(2), 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
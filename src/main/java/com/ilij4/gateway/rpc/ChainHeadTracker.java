@@ -0,0 +1,253 @@
+package com.ilij4.gateway.rpc;
+
+import com.ilij4.gateway.services.MetricsService;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Follows the chain head by polling {@code eth_getBlockByNumber("latest")} (and, when fed by
+ * {@link #onNewHead}, a {@code newHeads} subscription). While the head is fresh it answers
+ * {@code eth_blockNumber} itself and caches reads that only change with the head ({@code eth_gasPrice},
+ * {@code "latest"}-tagged state reads) for that head alone: a new head, or another block at the same
+ * height after a reorg, starts an empty generation, and answers still in flight for the old one are
+ * dropped. Recent hashes are remembered so an older head reported by a lagging node is not taken for
+ * a reorg. Also tracks the {@code "finalized"} block for {@link CachePolicy}.
+ */
+public final class ChainHeadTracker {
+    private static final Logger log = LoggerFactory.getLogger(ChainHeadTracker.class);
+    private static final int HISTORY = 128;
+
+    private static final Set<String> HEAD_METHODS = Set.of("eth_gasPrice", "eth_maxPriorityFeePerGas", "eth_blobBaseFee");
+    // position of the block tag; an omitted tag means "latest"
+    private static final Map<String, Integer> TAGGED = Map.of(
+            "eth_call", 1, "eth_estimateGas", 1, "eth_getBalance", 1, "eth_getCode", 1,
+            "eth_getTransactionCount", 1, "eth_getStorageAt", 2,
+            "eth_getBlockByNumber", 0, "eth_getBlockTransactionCountByNumber", 0);
+
+    private static final Buffer POLL = Buffer.buffer(
+            "[{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_getBlockByNumber\",\"params\":[\"latest\",false]},"
+            + "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"eth_getBlockByNumber\",\"params\":[\"finalized\",false]}]");
+
+    public record Head(long number, String hash) {}
+
+    /** Results cached for one head; replaced, never cleared, so a late writer cannot fill the next one. */
+    private record Generation(Head head, ConcurrentHashMap<String, Buffer> results) {}
+
+    private final Vertx vertx;
+    private final RpcClient rpcClient;
+    private final long pollMs;
+    private final long staleNanos;
+    private final int maxEntries;
+
+    private volatile Generation current; // null until the first head
+    private volatile long lastSeenNanos;
+    private volatile long finalized = -1;
+    private final AtomicBoolean polling = new AtomicBoolean();
+    private long timerId = -1;
+
+    // guarded by this: hash per height for the last HISTORY blocks
+    private final long[] numbers = new long[HISTORY];
+    private final String[] hashes = new String[HISTORY];
+
+    private final LongAdder heads = new LongAdder();
+    private final LongAdder reorgs = new LongAdder();
+    private final LongAdder pollFailures = new LongAdder();
+    private final LongAdder localAnswers = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /** The head counts as fresh for three poll intervals after it was last confirmed. */
+    public ChainHeadTracker(Vertx vertx, RpcClient rpcClient, long pollMs, int maxEntries) {
+        this.vertx = vertx;
+        this.rpcClient = rpcClient;
+        this.pollMs = pollMs;
+        this.staleNanos = 3 * pollMs * 1_000_000;
+        this.maxEntries = maxEntries;
+        Arrays.fill(numbers, -1);
+    }
+
+    public ChainHeadTracker start() {
+        poll();
+        timerId = vertx.setPeriodic(pollMs, id -> poll());
+        return this;
+    }
+
+    public void stop() {
+        if (timerId >= 0) vertx.cancelTimer(timerId);
+    }
+
+    /** Current head, or null while unknown or not confirmed recently. */
+    public Head head() {
+        Generation gen = fresh();
+        return gen != null ? gen.head() : null;
+    }
+
+    /** Highest finalized block number, or -1 when unknown. */
+    public long finalizedBlock() {
+        return finalized;
+    }
+
+    /**
+     * Answers {@code eth_blockNumber} from the head, serves head-dependent reads cached for the
+     * current head, and otherwise runs {@code upstream}, keeping its answer for the head it started under.
+     */
+    public Future<Buffer> execute(RpcCall call, Supplier<Future<Buffer>> upstream) {
+        Generation gen = fresh();
+        if (gen == null) return upstream.get();
+        if ("eth_blockNumber".equals(call.method())) {
+            localAnswers.increment();
+            return Future.succeededFuture(RpcCall.response(call.id(),
+                    Buffer.buffer("\"0x" + Long.toHexString(gen.head().number()) + "\"")));
+        }
+        if (!headDependent(call)) return upstream.get();
+
+        String key = call.key();
+        Buffer hit = gen.results().get(key);
+        if (hit != null) {
+            hits.increment();
+            return Future.succeededFuture(RpcCall.response(call.id(), hit));
+        }
+        misses.increment();
+        Future<Buffer> f = upstream.get();
+        f.onSuccess(b -> keep(gen, key, b));
+        return f;
+    }
+
+    static boolean headDependent(RpcCall call) {
+        if (HEAD_METHODS.contains(call.method())) return true;
+        Integer idx = TAGGED.get(call.method());
+        if (idx == null) return false;
+        Object tag = call.params().size() > idx ? call.params().getValue(idx) : "latest";
+        return "latest".equals(tag);
+    }
+
+    private void keep(Generation gen, String key, Buffer response) {
+        if (current != gen || gen.results().size() >= maxEntries || gen.results().containsKey(key)) return;
+        JsonObject parsed;
+        try {
+            parsed = response.toJsonObject();
+        } catch (RuntimeException e) {
+            return;
+        }
+        Object result = parsed.getValue("result");
+        if (parsed.containsKey("error") || result == null) return;
+        gen.results().put(key, Buffer.buffer(Json.encode(result)));
+    }
+
+    private Generation fresh() {
+        Generation gen = current;
+        return gen != null && System.nanoTime() - lastSeenNanos < staleNanos ? gen : null;
+    }
+
+    private void poll() {
+        if (!polling.compareAndSet(false, true)) return; // the previous poll is still out
+        var req = RpcRequest.of(POLL)
+                .deadlineNanos(System.nanoTime() + Math.max(pollMs, 1_000) * 1_000_000)
+                .maxRetries(0)
+                .build();
+        rpcClient.forward(req).onComplete(ar -> {
+            polling.set(false);
+            if (ar.failed()) {
+                pollFailures.increment();
+                log.debug("head poll failed: {}", ar.cause().getMessage());
+                return;
+            }
+            try {
+                for (Object o : ar.result().toJsonArray()) {
+                    if (!(o instanceof JsonObject resp) || !(resp.getValue("result") instanceof JsonObject block)) continue;
+                    if (Integer.valueOf(1).equals(resp.getInteger("id"))) onBlock(block);
+                    else finalized = Math.max(finalized, CachePolicy.quantity(block.getValue("number")));
+                }
+            } catch (RuntimeException e) {
+                pollFailures.increment();
+                log.debug("unexpected head poll answer: {}", e.getMessage());
+            }
+        });
+    }
+
+    /** A {@code newHeads} notification result (a block header as JSON). */
+    public void onNewHead(String header) {
+        try {
+            onBlock(new JsonObject(header));
+        } catch (RuntimeException e) {
+            log.debug("unparseable newHeads notification");
+        }
+    }
+
+    private void onBlock(JsonObject block) {
+        long number = CachePolicy.quantity(block.getValue("number"));
+        String hash = block.getString("hash");
+        if (number < 0 || hash == null) return;
+        advance(number, hash.toLowerCase(), block.getString("parentHash", "").toLowerCase());
+    }
+
+    private synchronized void advance(long number, String hash, String parentHash) {
+        Generation gen = current;
+        if (gen != null) {
+            Head cur = gen.head();
+            if (cur.hash().equals(hash)) {
+                lastSeenNanos = System.nanoTime();
+                return;
+            }
+            boolean reorg;
+            if (number <= cur.number()) {
+                String known = hashAt(number);
+                if (known == null || known.equals(hash)) return; // a node behind the others, nothing changed
+                reorg = true;
+            } else {
+                String parent = hashAt(number - 1);
+                reorg = parent != null && !parent.equals(parentHash);
+            }
+            if (reorg) {
+                reorgs.increment();
+                log.info("reorg: head {} {} replaced by {} {}", cur.number(), cur.hash(), number, hash);
+                for (int i = 0; i < HISTORY; i++) {
+                    if (numbers[i] >= number) numbers[i] = -1; // those blocks are no longer canonical
+                }
+            }
+        }
+        int slot = (int) (number % HISTORY);
+        numbers[slot] = number;
+        hashes[slot] = hash;
+        heads.increment();
+        current = new Generation(new Head(number, hash), new ConcurrentHashMap<>());
+        lastSeenNanos = System.nanoTime();
+    }
+
+    private String hashAt(long number) {
+        if (number < 0) return null;
+        int slot = (int) (number % HISTORY);
+        return numbers[slot] == number ? hashes[slot] : null;
+    }
+
+    public void registerMetrics(MetricsService metrics) {
+        metrics.gauge("chain_head_block", () -> {
+            Generation gen = current;
+            return gen != null ? gen.head().number() : -1;
+        });
+        metrics.gauge("chain_finalized_block", () -> finalized);
+        metrics.counter("chain_heads_total", heads::sum);
+        metrics.counter("chain_reorgs_total", reorgs::sum);
+        metrics.counter("chain_head_poll_failures_total", pollFailures::sum);
+        metrics.counter("chain_head_local_answers_total", localAnswers::sum);
+        metrics.counter("head_cache_hits_total", hits::sum);
+        metrics.counter("head_cache_misses_total", misses::sum);
+        metrics.gauge("head_cache_entries", () -> {
+            Generation gen = current;
+            return gen != null ? gen.results().size() : 0;
+        });
+    }
+}
@@ -0,0 +1,136 @@
+package com.ilij4.gateway.rpc;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Per-upstream breaker. CLOSED counts calls, failures and slow calls over a sliding window of
+ * one-second buckets and opens when either rate crosses its threshold. OPEN refuses everything
+ * for {@code openMs}; then HALF_OPEN lets {@code halfOpenProbes} calls through at a time and
+ * closes after that many succeed in a row, or opens again on the first failure.
+ */
+public final class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /** Thresholds; rates are percentages of the calls in the window. */
+    public record Settings(int failureRatePct, long slowCallMs, int slowCallRatePct, int minCalls,
+                           int windowSeconds, long openMs, int halfOpenProbes) {
+        public static final Settings DEFAULTS = new Settings(50, 5_000, 80, 20, 10, 5_000, 3);
+    }
+
+    private static final long BUCKET_NANOS = 1_000_000_000L;
+
+    private final Settings settings;
+    private final Consumer<State> onTransition;
+
+    private final long[] epochs;
+    private final int[] calls;
+    private final int[] failures;
+    private final int[] slow;
+
+    private State state = State.CLOSED;
+    private long openUntilNanos;
+    private int probesInFlight;
+    private int probeSuccesses;
+
+    public CircuitBreaker(Settings settings, Consumer<State> onTransition) {
+        this.settings = settings;
+        this.onTransition = onTransition;
+        int n = Math.max(1, settings.windowSeconds());
+        this.epochs = new long[n];
+        this.calls = new int[n];
+        this.failures = new int[n];
+        this.slow = new int[n];
+        Arrays.fill(epochs, Long.MIN_VALUE);
+    }
+
+    public synchronized State state() { return state; }
+
+    /** Whether {@link #tryAcquire} would succeed now; does not take a permit. */
+    public synchronized boolean allowsRequests() {
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> System.nanoTime() - openUntilNanos >= 0;
+            case HALF_OPEN -> probesInFlight < settings.halfOpenProbes();
+        };
+    }
+
+    /** Takes a permit for one call; every granted permit must be followed by {@link #onResult}. */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && System.nanoTime() - openUntilNanos >= 0) {
+            transition(State.HALF_OPEN);
+            probesInFlight = 0;
+            probeSuccesses = 0;
+        }
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> false;
+            case HALF_OPEN -> {
+                if (probesInFlight >= settings.halfOpenProbes()) yield false;
+                probesInFlight++;
+                yield true;
+            }
+        };
+    }
+
+    public synchronized void onResult(long durationNanos, boolean ok) {
+        switch (state) {
+            case CLOSED -> record(durationNanos, ok);
+            case HALF_OPEN -> {
+                if (probesInFlight > 0) probesInFlight--;
+                if (!ok || durationNanos > settings.slowCallMs() * 1_000_000L) {
+                    open();
+                } else if (++probeSuccesses >= settings.halfOpenProbes()) {
+                    Arrays.fill(epochs, Long.MIN_VALUE); // start over with a clean window
+                    transition(State.CLOSED);
+                }
+            }
+            case OPEN -> { } // late answers from before the trip
+        }
+    }
+
+    /** Gives back a permit whose call ended without a verdict. */
+    public synchronized void onCancel() {
+        if (state == State.HALF_OPEN && probesInFlight > 0) probesInFlight--;
+    }
+
+    private void record(long durationNanos, boolean ok) {
+        long now = System.nanoTime();
+        long epoch = Math.floorDiv(now, BUCKET_NANOS);
+        int i = (int) Math.floorMod(epoch, (long) epochs.length);
+        if (epochs[i] != epoch) {
+            epochs[i] = epoch;
+            calls[i] = failures[i] = slow[i] = 0;
+        }
+        calls[i]++;
+        if (!ok) failures[i]++;
+        if (durationNanos > settings.slowCallMs() * 1_000_000L) slow[i]++;
+
+        long oldest = epoch - epochs.length;
+        int total = 0, failed = 0, slowCalls = 0;
+        for (int b = 0; b < epochs.length; b++) {
+            if (epochs[b] > oldest) {
+                total += calls[b];
+                failed += failures[b];
+                slowCalls += slow[b];
+            }
+        }
+        if (total < settings.minCalls()) return;
+        if (failed * 100L >= (long) settings.failureRatePct() * total
+                || slowCalls * 100L >= (long) settings.slowCallRatePct() * total) {
+            open();
+        }
+    }
+
+    private void open() {
+        openUntilNanos = System.nanoTime() + settings.openMs() * 1_000_000L;
+        probesInFlight = 0;
+        transition(State.OPEN);
+    }
+
+    private void transition(State to) {
+        if (state == to) return;
+        state = to;
+        onTransition.accept(to);
+    }
+}
@@ -0,0 +1,289 @@
+package com.ilij4.gateway.rpc;
+
+import com.ilij4.gateway.services.MetricsService;
+import io.vertx.core.buffer.Buffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Second cache tier on local disk, so a restarted instance starts warm. Records
+ * ({@code [crc32c][keyLen][valueLen][key][value]}) are appended to fixed-size memory-mapped segment
+ * files; a memory-mapped open-addressing index maps a 64-bit key hash to segment and offset.
+ * Lookups only read mapped memory, so the data set stays off-heap and costs the GC nothing.
+ * Every hit re-checks the record's checksum and full key: a torn write or an index slot left
+ * stale by a crash is a miss, never a wrong answer. Over the size cap the oldest segment is
+ * deleted as a whole, and index slots pointing into it are dead from then on.
+ * Keys say nothing about the chain, so the index header records the chain id the data belongs to;
+ * {@link #bind} must be called with the upstream's chain id before the cache is used.
+ * Reads are lock-free; writes are serialised.
+ */
+public final class DiskCache {
+    private static final Logger log = LoggerFactory.getLogger(DiskCache.class);
+
+    private static final int INDEX_MAGIC = 0x52504331; // "RPC1"
+    private static final int INDEX_HEADER = 16;         // [int magic][int slots][long chain id, 0 = unknown]
+    private static final int SLOT = 16;                 // [long hash][int segment][int offset]
+    private static final int MAX_PROBES = 16;
+    private static final int RECORD_HEADER = 12;
+
+    private final Path dir;
+    private final long maxBytes;
+    private final int segmentBytes;
+    private final int slots; // a power of two
+    private final MappedByteBuffer index;
+    private final ConcurrentSkipListMap<Integer, MappedByteBuffer> segments = new ConcurrentSkipListMap<>();
+
+    // guarded by this
+    private int active;
+    private int writePos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder corrupt = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /** Opens (or creates) the cache in {@code dir}; a missing or mismatched index is rebuilt from the segments. */
+    public DiskCache(Path dir, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = (int) Math.max(1 << 20, Math.min(256L << 20, maxBytes / 16));
+        this.slots = Integer.highestOneBit((int) Math.max(1024, Math.min(1 << 24, maxBytes / 256)));
+        Files.createDirectories(dir);
+
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path p : files.filter(p -> p.getFileName().toString().matches("segment-\\d{10}\\.dat")).toList()) {
+                String name = p.getFileName().toString();
+                segments.put(Integer.parseInt(name.substring(8, 18)), map(p, Files.size(p)));
+            }
+        }
+
+        Path indexFile = dir.resolve("index.dat");
+        long indexBytes = INDEX_HEADER + (long) slots * SLOT;
+        boolean reuse = Files.exists(indexFile) && Files.size(indexFile) == indexBytes;
+        this.index = map(indexFile, indexBytes);
+        if (!reuse || index.getInt(0) != INDEX_MAGIC || index.getInt(4) != slots) {
+            for (long pos = 0; pos < indexBytes; pos += 8) index.putLong((int) pos, 0);
+            index.putInt(0, INDEX_MAGIC);
+            index.putInt(4, slots);
+            for (var e : segments.entrySet()) {
+                scan(e.getKey(), e.getValue(), (offset, key) -> insert(hash(key), e.getKey(), offset));
+            }
+            log.info("disk cache index rebuilt from {} segment(s) in {}", segments.size(), dir);
+        }
+
+        if (segments.isEmpty()) {
+            active = 1;
+            segments.put(active, map(segmentPath(active), segmentBytes));
+        } else {
+            active = segments.lastKey();
+            writePos = scan(active, segments.get(active), (offset, key) -> {});
+        }
+        evictOverCap();
+    }
+
+    /**
+     * Ties the files to the chain with id {@code chainId}. Entries written for another chain, or
+     * whose chain is unknown (an index rebuilt from the segments), are deleted first.
+     */
+    public synchronized void bind(long chainId) throws IOException {
+        long stored = index.getLong(8);
+        if (stored == chainId) return;
+        log.warn("disk cache in {} holds data for chain {}, upstream is chain {}: clearing it",
+                dir, stored != 0 ? stored : "unknown", chainId);
+        for (int id : segments.keySet()) Files.deleteIfExists(segmentPath(id));
+        segments.clear();
+        for (int pos = INDEX_HEADER; pos < index.capacity(); pos += 8) index.putLong(pos, 0);
+        active = 1;
+        writePos = 0;
+        segments.put(active, map(segmentPath(active), segmentBytes));
+        index.putLong(8, chainId);
+        index.force();
+    }
+
+    /** The value stored for {@code key}, or null. */
+    public Buffer get(String key) {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        long h = hash(k);
+        int mask = slots - 1;
+        int start = (int) h & mask;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int pos = INDEX_HEADER + ((start + i) & mask) * SLOT;
+            long slotHash = index.getLong(pos);
+            if (slotHash == 0) break; // slots are never emptied, so the probe chain ends here
+            if (slotHash != h) continue;
+            Buffer value = read(index.getInt(pos + 8), index.getInt(pos + 12), k);
+            if (value != null) {
+                hits.increment();
+                return value;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    public synchronized void put(String key, Buffer value) {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        byte[] v = value.getBytes();
+        int len = RECORD_HEADER + k.length + v.length;
+        if (len > segmentBytes) return;
+        MappedByteBuffer seg = segments.get(active);
+        if (writePos + len > seg.capacity()) {
+            try {
+                seg = roll();
+            } catch (IOException e) {
+                log.warn("disk cache: cannot start a new segment: {}", e.getMessage());
+                return;
+            }
+        }
+        int off = writePos;
+        seg.putInt(off + 4, k.length);
+        seg.putInt(off + 8, v.length);
+        seg.put(off + RECORD_HEADER, k);
+        seg.put(off + RECORD_HEADER + k.length, v);
+        seg.putInt(off, crc(seg, off, k.length, v.length)); // last: the record only counts once complete
+        writePos += len;
+        insert(hash(k), active, off);
+    }
+
+    private Buffer read(int segment, int off, byte[] key) {
+        MappedByteBuffer seg = segments.get(segment);
+        if (seg == null || off < 0 || off + RECORD_HEADER > seg.capacity()) return null; // evicted, or a stale slot
+        int keyLen = seg.getInt(off + 4);
+        int valueLen = seg.getInt(off + 8);
+        if (keyLen != key.length || valueLen < 0 || (long) off + RECORD_HEADER + keyLen + valueLen > seg.capacity()) {
+            return null;
+        }
+        byte[] stored = new byte[keyLen];
+        seg.get(off + RECORD_HEADER, stored);
+        if (!Arrays.equals(stored, key)) return null; // the slot was reused for another key
+        if (seg.getInt(off) != crc(seg, off, keyLen, valueLen)) {
+            corrupt.increment();
+            return null;
+        }
+        byte[] value = new byte[valueLen];
+        seg.get(off + RECORD_HEADER + keyLen, value);
+        return Buffer.buffer(value);
+    }
+
+    private interface RecordVisitor {
+        void visit(int offset, byte[] key);
+    }
+
+    /** Visits the valid records of a segment in order; returns where the first invalid one starts. */
+    private int scan(int id, MappedByteBuffer seg, RecordVisitor visitor) {
+        int off = 0;
+        while (off + RECORD_HEADER <= seg.capacity()) {
+            int keyLen = seg.getInt(off + 4);
+            int valueLen = seg.getInt(off + 8);
+            if (keyLen <= 0 || valueLen < 0 || (long) off + RECORD_HEADER + keyLen + valueLen > seg.capacity()
+                    || seg.getInt(off) != crc(seg, off, keyLen, valueLen)) {
+                break; // end of data, or the tail of an interrupted write
+            }
+            byte[] key = new byte[keyLen];
+            seg.get(off + RECORD_HEADER, key);
+            visitor.visit(off, key);
+            off += RECORD_HEADER + keyLen + valueLen;
+        }
+        return off;
+    }
+
+    /** Takes the first free, dead or same-key slot of the probe chain, else overwrites its head. */
+    private void insert(long h, int segment, int off) {
+        int mask = slots - 1;
+        int start = (int) h & mask;
+        int oldest = segments.firstKey();
+        int target = INDEX_HEADER + start * SLOT;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int pos = INDEX_HEADER + ((start + i) & mask) * SLOT;
+            long slotHash = index.getLong(pos);
+            if (slotHash == 0 || slotHash == h || index.getInt(pos + 8) < oldest) {
+                target = pos;
+                break;
+            }
+        }
+        index.putInt(target + 8, segment);
+        index.putInt(target + 12, off);
+        index.putLong(target, h); // readers verify the record, so a half-updated slot is only a miss
+    }
+
+    private MappedByteBuffer roll() throws IOException {
+        active++;
+        writePos = 0;
+        MappedByteBuffer seg = map(segmentPath(active), segmentBytes);
+        segments.put(active, seg);
+        evictOverCap();
+        return seg;
+    }
+
+    private void evictOverCap() {
+        while (segments.size() > 1 && (long) segments.size() * segmentBytes > maxBytes) {
+            Map.Entry<Integer, MappedByteBuffer> oldest = segments.pollFirstEntry();
+            evicted.increment();
+            try {
+                Files.deleteIfExists(segmentPath(oldest.getKey())); // readers still holding the mapping keep it
+            } catch (IOException e) {
+                log.warn("disk cache: cannot delete segment {}: {}", oldest.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    private Path segmentPath(int id) {
+        return dir.resolve(String.format("segment-%010d.dat", id));
+    }
+
+    private static MappedByteBuffer map(Path file, long bytes) throws IOException {
+        try (var raf = new RandomAccessFile(file.toFile(), "rw")) {
+            if (raf.length() != bytes) raf.setLength(bytes); // sparse until written
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        }
+    }
+
+    private static int crc(MappedByteBuffer seg, int off, int keyLen, int valueLen) {
+        var crc = new CRC32C();
+        crc.update(seg.slice(off + 4, 8 + keyLen + valueLen));
+        return (int) crc.getValue();
+    }
+
+    /** FNV-1a; 0 marks an empty slot, so it is never returned. */
+    private static long hash(byte[] key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h != 0 ? h : 1;
+    }
+
+    public void registerMetrics(MetricsService metrics) {
+        metrics.counter("disk_cache_hits_total", hits::sum);
+        metrics.counter("disk_cache_misses_total", misses::sum);
+        metrics.counter("disk_cache_corrupt_total", corrupt::sum);
+        metrics.counter("disk_cache_evicted_segments_total", evicted::sum);
+        metrics.gauge("disk_cache_segments", segments::size);
+        metrics.gauge("disk_cache_bytes", () -> {
+            synchronized (this) {
+                return (long) (segments.size() - 1) * segmentBytes + writePos;
+            }
+        });
+    }
+
+    /** Pushes what is still only in the page cache to disk. */
+    public synchronized void close() {
+        index.force();
+        segments.values().forEach(MappedByteBuffer::force);
+    }
+}
@@ -0,0 +1,105 @@
+package com.ilij4.gateway.rpc;
+
+import com.ilij4.gateway.services.Histogram;
+import com.ilij4.gateway.services.MetricsService;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * When to send a second copy of a read-only call. The delay is the configured percentile of the
+ * method's recent upstream latency, so only the slowest few percent of calls get hedged. A
+ * {@link TrafficBudget} fed by eligible calls caps the extra load at {@code budgetPct}%.
+ */
+public final class HedgePolicy {
+    /** Reads whose answer does not depend on which node served them. */
+    public static final Set<String> DEFAULT_METHODS = Set.of(
+            "eth_chainId", "net_version", "eth_blockNumber", "eth_gasPrice", "eth_maxPriorityFeePerGas",
+            "eth_feeHistory", "eth_call", "eth_estimateGas", "eth_getBalance", "eth_getCode",
+            "eth_getStorageAt", "eth_getTransactionCount", "eth_getBlockByNumber", "eth_getBlockByHash",
+            "eth_getBlockTransactionCountByNumber", "eth_getBlockTransactionCountByHash",
+            "eth_getTransactionByHash", "eth_getTransactionByBlockHashAndIndex",
+            "eth_getTransactionByBlockNumberAndIndex", "eth_getTransactionReceipt", "eth_getBlockReceipts",
+            "eth_getProof");
+
+    // never hedged, whatever the configuration says: a second copy could act twice
+    private static final List<String> STATE_CHANGING = List.of(
+            "eth_send", "eth_sign", "eth_submit", "eth_newFilter", "eth_newBlockFilter",
+            "eth_newPendingTransactionFilter", "eth_uninstallFilter", "personal_", "admin_", "miner_");
+
+    private static final int MIN_SAMPLES = 64;   // delay is recomputed every this many samples
+    private static final int WINDOW = 4096;      // then the histogram starts over, to follow drift
+    private static final long MAX_SAVED_HEDGES = 10;
+
+    private final Set<String> methods;
+    private final double quantile;
+    private final long minDelayMicros;
+    private final TrafficBudget budget;
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    private final LongAdder denied = new LongAdder();
+
+    public HedgePolicy(Collection<String> methods, int percentile, long minDelayMs, int budgetPct) {
+        this.methods = methods.stream().filter(m -> !stateChanging(m)).collect(Collectors.toUnmodifiableSet());
+        this.quantile = percentile / 100d;
+        this.minDelayMicros = minDelayMs * 1_000;
+        this.budget = new TrafficBudget(budgetPct, MAX_SAVED_HEDGES, 0);
+    }
+
+    static boolean stateChanging(String method) {
+        for (String p : STATE_CHANGING) {
+            if (method.startsWith(p)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Registers a call about to go upstream and returns how long to wait before hedging it,
+     * in milliseconds; -1 when it must not be hedged (not a listed read, or too few samples yet).
+     */
+    public long admit(String method) {
+        if (method == null || !methods.contains(method)) return -1;
+        budget.earn();
+        Stats s = stats.get(method);
+        if (s == null || s.delayMicros < 0) return -1;
+        return Math.max(1, (s.delayMicros + 999) / 1_000);
+    }
+
+    /** Takes one hedge out of the budget. */
+    public boolean tryHedge() {
+        if (budget.trySpend()) return true;
+        denied.increment();
+        return false;
+    }
+
+    /** Upstream latency of a successful call. */
+    public void record(String method, long nanos) {
+        if (method == null || !methods.contains(method)) return;
+        stats.computeIfAbsent(method, k -> new Stats()).record(nanos);
+    }
+
+    public void registerMetrics(MetricsService metrics) {
+        metrics.counter("upstream_hedges_denied_total", denied::sum);
+    }
+
+    private final class Stats {
+        private volatile Histogram current = new Histogram();
+        private final AtomicLong samples = new AtomicLong();
+        private volatile long delayMicros = -1;
+
+        void record(long nanos) {
+            Histogram h = current;
+            h.recordNanos(nanos);
+            long n = samples.incrementAndGet();
+            if (n % MIN_SAMPLES != 0) return;
+            delayMicros = Math.max(minDelayMicros, h.quantile(quantile));
+            if (n % WINDOW == 0) current = new Histogram(); // the old delay stands until the next one is known
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.ilij4.gateway.rpc;
+
+import com.ilij4.gateway.services.MetricsService;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves a wide {@code eth_getLogs} range as many narrow queries. The range is cut at multiples of
+ * {@code chunkBlocks}, so the same chunks come up again in other queries; chunks at or below the
+ * finalized block go through the {@link ResponseCache} and are fetched once. At most
+ * {@code parallelism} node calls are in flight; a chunk the node refuses as too big is split in two,
+ * and the halves wait for a slot like any other chunk (at most {@code MAX_BISECTIONS} times).
+ * Results are written in block order (each node answer is already in log-index order), streamed
+ * once they pass {@code streamMinBytes}; a failure after that resets the response.
+ * A range ending at {@code "latest"} is split up to the tracked head, and its last chunk keeps the
+ * tag, so blocks newer than the head are not missed. Each run is confined to the request's event loop.
+ */
+public final class LogRangeSplitter {
+    private static final int MAX_CHUNKS = 1_000;   // wider than that goes to the node as it is
+    private static final int MAX_BISECTIONS = 12;  // a 2000-block chunk down to single blocks, then give up
+
+    /** A query worth splitting: {@code [from, to]}, where an open-ended range still ends in {@code toTag}. */
+    public record Plan(RpcCall call, JsonObject filter, long from, long to, String toTag) {}
+
+    /** The node answered a chunk with a JSON-RPC error. */
+    private static final class ChunkError extends RuntimeException {
+        final JsonObject error;
+
+        ChunkError(JsonObject error) {
+            super(error.getString("message", "eth_getLogs failed"), null, false, false);
+            this.error = error;
+        }
+    }
+
+    private final long chunkBlocks;
+    private final int parallelism;
+    private final long streamMinBytes;
+    private final ChainHeadTracker head; // null: tags other than "earliest" are not split
+    private final ResponseCache cache;   // null: every chunk is fetched
+
+    private final LongAdder split = new LongAdder();
+    private final LongAdder chunks = new LongAdder();
+    private final LongAdder chunkHits = new LongAdder();
+    private final LongAdder bisections = new LongAdder();
+
+    public LogRangeSplitter(long chunkBlocks, int parallelism, long streamMinBytes, ChainHeadTracker head, ResponseCache cache) {
+        this.chunkBlocks = chunkBlocks;
+        this.parallelism = Math.max(1, parallelism);
+        this.streamMinBytes = streamMinBytes;
+        this.head = head;
+        this.cache = cache;
+    }
+
+    /** How {@code call} would be split, or null when it is not an {@code eth_getLogs} range wider than one chunk. */
+    public Plan plan(RpcCall call) {
+        if (call == null || !"eth_getLogs".equals(call.method()) || call.params().size() != 1
+                || !(call.params().getValue(0) instanceof JsonObject filter) || filter.getValue("blockHash") != null) {
+            return null;
+        }
+        Object toValue = filter.getValue("toBlock");
+        String toTag = toValue == null || "latest".equals(toValue) ? "latest" : null;
+        long from = block(filter.getValue("fromBlock"));
+        long to = block(toValue);
+        if (from < 0 || to < from || (to - from) / chunkBlocks >= MAX_CHUNKS || to - from < chunkBlocks) return null;
+        return new Plan(call, filter, from, to, toTag);
+    }
+
+    /** Block number for a filter bound; -1 when it cannot be pinned down. */
+    private long block(Object v) {
+        if (v == null || "latest".equals(v)) {
+            ChainHeadTracker.Head h = head != null ? head.head() : null;
+            return h != null ? h.number() : -1;
+        }
+        if ("earliest".equals(v)) return 0;
+        if ("finalized".equals(v)) return head != null ? head.finalizedBlock() : -1;
+        return CachePolicy.quantity(v);
+    }
+
+    /** Runs {@code plan} and writes the merged answer (or the node's error) to {@code out}. */
+    public Future<Void> forward(Plan plan, RpcClient client, long deadlineNanos, int maxRetries, HttpServerResponse out) {
+        split.increment();
+        var run = new Run(plan, client, deadlineNanos, maxRetries, out);
+        run.launch();
+        return run.done.future();
+    }
+
+    /** Part of chunk {@code chunk}; halved {@code depth} times so far. */
+    private record Piece(int chunk, long from, long to, int depth) {}
+
+    private final class Run {
+        final Plan plan;
+        final RpcClient client;
+        final long deadlineNanos;
+        final int maxRetries;
+        final HttpServerResponse out;
+        final Promise<Void> done = Promise.promise();
+
+        final List<long[]> ranges = new ArrayList<>();
+        final Buffer[] results;
+        final List<TreeMap<Long, Buffer>> parts = new ArrayList<>(); // answers per chunk by first block
+        final int[] pieces;                                          // per chunk, not yet answered
+        final ArrayDeque<Piece> halves = new ArrayDeque<>();         // waiting, ahead of new chunks
+        int next;     // next chunk to start
+        int emitted;  // next chunk to write
+        int running;  // node calls in flight, halves included
+        boolean started, wroteLog, finished;
+        final List<Buffer> held = new ArrayList<>(); // written before the response is committed to streaming
+        long heldBytes;
+
+        Run(Plan plan, RpcClient client, long deadlineNanos, int maxRetries, HttpServerResponse out) {
+            this.plan = plan;
+            this.client = client;
+            this.deadlineNanos = deadlineNanos;
+            this.maxRetries = maxRetries;
+            this.out = out;
+            for (long from = plan.from(); from <= plan.to(); ) {
+                long to = Math.min(plan.to(), (from / chunkBlocks + 1) * chunkBlocks - 1);
+                ranges.add(new long[]{from, to});
+                parts.add(new TreeMap<>());
+                from = to + 1;
+            }
+            this.results = new Buffer[ranges.size()];
+            this.pieces = new int[ranges.size()];
+            out.drainHandler(v -> launch());
+        }
+
+        void launch() {
+            // a window ahead of the next chunk to write bounds what is held in memory
+            while (!finished && running < parallelism && !(started && out.writeQueueFull())) {
+                Piece p = halves.poll();
+                if (p == null) {
+                    if (next >= ranges.size() || next >= emitted + 2 * parallelism) return;
+                    long[] r = ranges.get(next);
+                    pieces[next] = 1;
+                    p = new Piece(next++, r[0], r[1], 0);
+                }
+                Piece piece = p;
+                running++;
+                fetch(piece.from(), piece.to(), open(piece)).onComplete(ar -> {
+                    running--;
+                    if (finished) return;
+                    if (ar.succeeded()) {
+                        answered(piece, ar.result());
+                    } else if (ar.cause() instanceof ChunkError ce && tooBig(ce.error)
+                            && piece.to() > piece.from() && piece.depth() < MAX_BISECTIONS) {
+                        // both halves queue for a slot like any chunk: a node that found the range
+                        // too heavy does not get more concurrent calls for it
+                        bisections.increment();
+                        long mid = piece.from() + (piece.to() - piece.from()) / 2;
+                        pieces[piece.chunk()]++;
+                        halves.addFirst(new Piece(piece.chunk(), mid + 1, piece.to(), piece.depth() + 1));
+                        halves.addFirst(new Piece(piece.chunk(), piece.from(), mid, piece.depth() + 1));
+                    } else {
+                        fail(ar.cause());
+                        return;
+                    }
+                    launch();
+                });
+            }
+        }
+
+        /** Whether {@code p} still ends in the query's tag rather than a block number. */
+        boolean open(Piece p) {
+            return plan.toTag() != null && p.chunk() == ranges.size() - 1 && p.to() == plan.to();
+        }
+
+        void answered(Piece piece, Buffer logs) {
+            int i = piece.chunk();
+            parts.get(i).put(piece.from(), logs);
+            if (--pieces[i] > 0) return;
+            Buffer merged = Buffer.buffer("[");
+            for (Buffer b : parts.get(i).values()) {
+                if (b.length() <= 2) continue; // []
+                if (merged.length() > 1) merged.appendString(",");
+                merged.appendBuffer(b, 1, b.length() - 2);
+            }
+            merged.appendString("]");
+            parts.get(i).clear();
+            long[] r = ranges.get(i);
+            if (piece.depth() > 0 && cache != null && !(plan.toTag() != null && i == ranges.size() - 1)) {
+                // kept under the aligned chunk too, or the next query would be refused again
+                cache.storeResult(chunkCall(r[0], r[1], false), merged, merged);
+            }
+            results[i] = merged;
+            emit();
+        }
+
+        RpcCall chunkCall(long from, long to, boolean open) {
+            var filter = plan.filter().copy()
+                    .put("fromBlock", hex(from))
+                    .put("toBlock", open ? plan.toTag() : hex(to));
+            return new RpcCall(1, "eth_getLogs", new JsonArray().add(filter));
+        }
+
+        /** The logs of {@code [from, to]} as an encoded JSON array; a node error fails it with a {@link ChunkError}. */
+        Future<Buffer> fetch(long from, long to, boolean open) {
+            var chunk = chunkCall(from, to, open);
+            chunks.increment();
+            if (cache != null && !open) {
+                Buffer hit = cache.lookupResult(chunk);
+                if (hit != null) {
+                    chunkHits.increment();
+                    return Future.succeededFuture(hit);
+                }
+            }
+            var req = RpcRequest.of(chunk.toJson(1).toBuffer())
+                    .deadlineNanos(deadlineNanos)
+                    .maxRetries(maxRetries)
+                    .method("eth_getLogs")
+                    .build();
+            return client.forward(req).compose(resp -> {
+                JsonObject parsed;
+                try {
+                    parsed = resp.toJsonObject();
+                } catch (DecodeException e) {
+                    return Future.failedFuture(new RpcClient.UpstreamException(502, "unparseable eth_getLogs answer"));
+                }
+                if (parsed.getValue("error") instanceof JsonObject error) {
+                    return Future.failedFuture(new ChunkError(error));
+                }
+                if (!(parsed.getValue("result") instanceof JsonArray logs)) {
+                    return Future.failedFuture(new RpcClient.UpstreamException(502, "eth_getLogs answer without a result"));
+                }
+                Buffer encoded = logs.toBuffer();
+                if (cache != null && !open) cache.storeResult(chunk, logs, encoded);
+                return Future.succeededFuture(encoded);
+            });
+        }
+
+        void emit() {
+            while (emitted < results.length && results[emitted] != null) {
+                Buffer logs = results[emitted];
+                results[emitted++] = null;
+                if (logs.length() <= 2) continue; // []
+                Buffer part = Buffer.buffer(logs.length()).appendString(wroteLog ? "," : "").appendBuffer(logs, 1, logs.length() - 2);
+                wroteLog = true;
+                if (started) {
+                    out.write(part);
+                    continue;
+                }
+                held.add(part);
+                heldBytes += part.length();
+                if (heldBytes >= streamMinBytes) {
+                    started = true;
+                    out.setChunked(true).setStatusCode(200).write(head());
+                    held.forEach(out::write);
+                    held.clear();
+                }
+            }
+            if (emitted < results.length) return;
+            finished = true;
+            if (started) {
+                out.end(Buffer.buffer("]}"));
+            } else {
+                Buffer body = head();
+                held.forEach(body::appendBuffer);
+                out.setStatusCode(200).end(body.appendString("]}"));
+            }
+            done.tryComplete();
+        }
+
+        Buffer head() {
+            return Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":" + Json.encode(plan.call().id()) + ",\"result\":[");
+        }
+
+        void fail(Throwable err) {
+            finished = true;
+            if (started) {
+                out.reset(); // a truncated log list is worse than a dropped connection
+                done.tryFail(err);
+            } else if (err instanceof ChunkError ce) {
+                out.setStatusCode(200).end(new JsonObject().put("jsonrpc", "2.0").put("id", plan.call().id())
+                        .put("error", ce.error).toBuffer());
+                done.tryComplete();
+            } else {
+                done.tryFail(err);
+            }
+        }
+    }
+
+    /** Errors providers use for "range too wide" or "too many results". */
+    private static boolean tooBig(JsonObject error) {
+        if (Integer.valueOf(-32005).equals(error.getInteger("code"))) return true;
+        String m = error.getString("message", "").toLowerCase(Locale.ROOT);
+        return m.contains("range") || m.contains("limit") || m.contains("more than") || m.contains("too many")
+                || m.contains("too large") || m.contains("timeout");
+    }
+
+    private static String hex(long n) {
+        return "0x" + Long.toHexString(n);
+    }
+
+    public void registerMetrics(MetricsService metrics) {
+        metrics.counter("logs_split_requests_total", split::sum);
+        metrics.counter("logs_chunks_total", chunks::sum);
+        metrics.counter("logs_chunk_cache_hits_total", chunkHits::sum);
+        metrics.counter("logs_chunk_bisections_total", bisections::sum);
+    }
+}
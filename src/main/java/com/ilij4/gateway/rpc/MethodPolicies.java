@@ -0,0 +1,68 @@
+package com.ilij4.gateway.rpc;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deadline and retry limit per JSON-RPC method. Rules are {@code name=deadlineMs:retries}; a name
+ * ending in {@code _} is a prefix, as in {@code ComputeUnits}. Exact names win over prefixes,
+ * longer prefixes over shorter ones, anything unmatched gets the default.
+ */
+public final class MethodPolicies {
+    /** Writes are not retried (a 502 may hide a transaction that went through); heavy reads get longer. */
+    public static final String DEFAULTS = String.join(",",
+            "eth_sendRawTransaction=10000:0", "eth_sendTransaction=10000:0",
+            "eth_getLogs=30000:1", "debug_=60000:0", "trace_=60000:0");
+
+    public record Policy(long deadlineMs, int maxRetries) {}
+
+    private final Map<String, Policy> exact = new ConcurrentHashMap<>();
+    private final Map<String, Policy> prefixes = new ConcurrentHashMap<>();
+    private final Policy defaults;
+    private final Map<String, Policy> resolved = new ConcurrentHashMap<>();
+
+    public MethodPolicies(List<String> rules, long deadlineMs, int maxRetries) {
+        this.defaults = new Policy(deadlineMs, maxRetries);
+        for (String rule : rules) {
+            int eq = rule.indexOf('=');
+            int colon = rule.indexOf(':', eq + 1);
+            if (eq <= 0 || colon < 0) throw new IllegalArgumentException("bad method policy: " + rule);
+            String name = rule.substring(0, eq).trim();
+            var policy = new Policy(Long.parseLong(rule.substring(eq + 1, colon).trim()),
+                    Integer.parseInt(rule.substring(colon + 1).trim()));
+            (name.endsWith("_") ? prefixes : exact).put(name, policy);
+        }
+    }
+
+    public Policy of(String method) {
+        if (method == null) return defaults;
+        Policy hit = resolved.get(method);
+        if (hit != null) return hit;
+        Policy p = resolve(method);
+        if (resolved.size() < 10_000) resolved.put(method, p); // method names come from clients
+        return p;
+    }
+
+    /** For a batch that goes out as one request: the longest deadline and the fewest retries. */
+    public Policy of(List<String> methods) {
+        long deadline = 0;
+        int retries = Integer.MAX_VALUE;
+        for (String m : methods) {
+            Policy p = of(m);
+            deadline = Math.max(deadline, p.deadlineMs());
+            retries = Math.min(retries, p.maxRetries());
+        }
+        return methods.isEmpty() ? defaults : new Policy(deadline, retries);
+    }
+
+    private Policy resolve(String method) {
+        Policy p = exact.get(method);
+        if (p != null) return p;
+        String best = null;
+        for (String prefix : prefixes.keySet()) {
+            if (method.startsWith(prefix) && (best == null || prefix.length() > best.length())) best = prefix;
+        }
+        return best != null ? prefixes.get(best) : defaults;
+    }
+}
@@ -0,0 +1,94 @@
+package com.ilij4.gateway.rpc;
+
+import com.ilij4.gateway.services.LabeledCounter;
+import com.ilij4.gateway.services.MetricsService;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks the upstream group a JSON-RPC method goes to. Every group has its own {@link RpcClient}
+ * (and with it its own connections) behind its own {@link Bulkhead}, so traces on an archive
+ * group cannot starve {@code eth_chainId} on the full nodes. Rules are {@code name=group}; a name
+ * ending in {@code _} is a prefix, as in {@link MethodPolicies}. Unmatched methods take the first
+ * route, {@link #DEFAULT}.
+ */
+public final class MethodRouter {
+    public static final String DEFAULT = "default";
+
+    public record Route(String name, RpcClient client, BatchForwarder batches) {}
+
+    private final Map<String, Route> routes = new LinkedHashMap<>();
+    private final Route fallback;
+    private final Map<String, Route> exact = new HashMap<>();
+    private final Map<String, Route> prefixes = new HashMap<>();
+    private final Map<String, Route> resolved = new ConcurrentHashMap<>();
+
+    private final LabeledCounter calls = new LabeledCounter("route");
+    private final LabeledCounter rejected = new LabeledCounter("route");
+
+    /**
+     * {@code routes} starts with the default one; {@code maxInFlight} caps a route's upstream
+     * requests (absent or 0 = unbounded).
+     */
+    public MethodRouter(List<Route> routes, List<String> rules, Map<String, Integer> maxInFlight) {
+        for (Route r : routes) {
+            if (!r.name().matches("[a-z0-9_]+")) throw new IllegalArgumentException("bad route name: " + r.name());
+            if (this.routes.putIfAbsent(r.name(), r) != null) throw new IllegalArgumentException("duplicate route: " + r.name());
+            r.client().bulkhead(new Bulkhead(maxInFlight.getOrDefault(r.name(), 0), rejected.adder(r.name())));
+        }
+        this.fallback = routes.get(0);
+        for (String rule : rules) {
+            int eq = rule.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("bad route rule: " + rule);
+            String name = rule.substring(0, eq).trim();
+            Route target = this.routes.get(rule.substring(eq + 1).trim());
+            if (target == null) throw new IllegalArgumentException("route rule names an unknown upstream group: " + rule);
+            (name.endsWith("_") ? prefixes : exact).put(name, target);
+        }
+    }
+
+    /** The route for {@code method} (null: the default one), counted as one call sent its way. */
+    public Route of(String method) {
+        Route r = resolve(method);
+        calls.inc(r.name());
+        return r;
+    }
+
+    public Route fallback() { return fallback; }
+
+    public Map<String, Route> routes() { return routes; }
+
+    private Route resolve(String method) {
+        if (method == null || routes.size() == 1) return fallback;
+        Route hit = resolved.get(method);
+        if (hit != null) return hit;
+        Route r = exact.get(method);
+        if (r == null) {
+            String best = null;
+            for (String prefix : prefixes.keySet()) {
+                if (method.startsWith(prefix) && (best == null || prefix.length() > best.length())) best = prefix;
+            }
+            r = best != null ? prefixes.get(best) : fallback;
+        }
+        if (resolved.size() < 10_000) resolved.put(method, r); // method names come from clients
+        return r;
+    }
+
+    /**
+     * Per-route series carry a {@code route} label. The default route's client is the gateway's own
+     * and is registered, unlabelled, by whoever built it; the other groups' clients are registered here.
+     */
+    public void registerMetrics(MetricsService metrics) {
+        metrics.counter("route_calls_total", calls);
+        metrics.counter("route_bulkhead_rejected_total", rejected);
+        for (Route r : routes.values()) {
+            var labelled = metrics.labelled("route", r.name());
+            labelled.gauge("route_in_flight", r.client().bulkhead()::inFlight);
+            if (r != fallback) r.client().registerMetrics(labelled);
+        }
+    }
+}
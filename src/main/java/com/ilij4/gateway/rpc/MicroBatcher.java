@@ -0,0 +1,123 @@
+package com.ilij4.gateway.rpc;
+
+import com.ilij4.gateway.services.MetricsService;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.internal.ContextInternal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gathers single calls arriving within {@code windowMs} (or until {@code maxSize} are queued)
+ * into one upstream batch, then hands each caller its own entry of the answer, on the caller's
+ * own context (the batch is sent from whichever event loop filled it or armed the timer). The batch
+ * runs until the latest deadline in it; each caller is still failed at its own.
+ */
+public final class MicroBatcher {
+    private final Vertx vertx;
+    private final BatchForwarder forwarder;
+    private final long windowMs;
+    private final int maxSize;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder entries = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    private List<Pending> queue = new ArrayList<>();
+    private long timerId = -1;
+
+    private record Pending(RpcCall call, long queuedAt, Long deadlineNanos, int maxRetries, Promise<Buffer> result) {}
+
+    public MicroBatcher(Vertx vertx, RpcClient client, long windowMs, int maxSize) {
+        this.vertx = vertx;
+        this.forwarder = new BatchForwarder(client, maxSize);
+        this.windowMs = Math.max(1, windowMs);
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    public Future<Buffer> submit(RpcCall call, Long deadlineNanos, int maxRetries) {
+        var ctx = (ContextInternal) Vertx.currentContext();
+        var p = new Pending(call, System.nanoTime(), deadlineNanos, maxRetries, ctx != null ? ctx.promise() : Promise.promise());
+        List<Pending> full = null;
+        synchronized (this) {
+            queue.add(p);
+            if (queue.size() >= maxSize) {
+                full = drain();
+            } else if (timerId < 0) {
+                timerId = vertx.setTimer(windowMs, t -> flushOnTimer());
+            }
+        }
+        if (full != null) send(full);
+        return p.result().future();
+    }
+
+    private void flushOnTimer() {
+        List<Pending> batch;
+        synchronized (this) {
+            timerId = -1;
+            batch = drain();
+        }
+        if (!batch.isEmpty()) send(batch);
+    }
+
+    // caller holds the lock
+    private List<Pending> drain() {
+        if (timerId >= 0) {
+            vertx.cancelTimer(timerId);
+            timerId = -1;
+        }
+        List<Pending> batch = queue;
+        queue = new ArrayList<>();
+        return batch;
+    }
+
+    private void send(List<Pending> batch) {
+        long now = System.nanoTime();
+        Long deadline = null;
+        boolean unbounded = false;
+        int retries = Integer.MAX_VALUE;
+        var calls = new ArrayList<RpcCall>(batch.size());
+        for (Pending p : batch) {
+            calls.add(p.call());
+            // the latest deadline and the strictest retry limit: a write in the batch must not be resent
+            if (p.deadlineNanos() == null) unbounded = true;
+            else if (deadline == null || p.deadlineNanos() - deadline > 0) deadline = p.deadlineNanos();
+            retries = Math.min(retries, p.maxRetries());
+            waitNanos.add(now - p.queuedAt());
+        }
+        batches.increment();
+        entries.add(batch.size());
+
+        var results = forwarder.forward(calls, unbounded ? null : deadline, retries);
+        for (int i = 0; i < batch.size(); i++) {
+            Promise<Buffer> result = batch.get(i).result();
+            Long own = batch.get(i).deadlineNanos();
+            long timer = own != null && (unbounded || own - deadline < 0)
+                    ? vertx.setTimer(Math.max(1, (own - now) / 1_000_000),
+                            t -> result.tryFail(new RpcClient.DeadlineExceededException()))
+                    : -1;
+            results.get(i).onComplete(ar -> {
+                if (timer >= 0) vertx.cancelTimer(timer);
+                if (ar.succeeded()) result.tryComplete(ar.result());
+                else result.tryFail(ar.cause());
+            });
+        }
+    }
+
+    public void registerMetrics(MetricsService metrics) {
+        metrics.counter("microbatch_batches_total", batches::sum);
+        metrics.counter("microbatch_entries_total", entries::sum);
+        metrics.gauge("microbatch_fill_pct", () -> {
+            long b = batches.sum();
+            return b == 0 ? 0 : entries.sum() * 100 / (b * maxSize);
+        });
+        metrics.gauge("microbatch_added_latency_avg_us", () -> {
+            long e = entries.sum();
+            return e == 0 ? 0 : waitNanos.sum() / e / 1_000;
+        });
+    }
+}
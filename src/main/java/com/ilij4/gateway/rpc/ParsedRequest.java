@@ -0,0 +1,47 @@
+package com.ilij4.gateway.rpc;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.util.List;
+
+/**
+ * What the gateway knows about a request body after the single parse in {@link RpcRequestParser}.
+ * Later stages (metrics, limits, routing, caching) read this instead of parsing the body again.
+ */
+public final class ParsedRequest {
+    /** Routing-context key the descriptor is stored under. */
+    public static final String KEY = "gateway.rpc.request";
+
+    private final Buffer body;
+    private final boolean batch;
+    private final List<String> methods;
+    private final List<RpcCall> calls;
+
+    ParsedRequest(Buffer body, boolean batch, List<String> methods, List<RpcCall> calls) {
+        this.body = body;
+        this.batch = batch;
+        this.methods = methods;
+        this.calls = calls;
+    }
+
+    /** The raw body, for forwarding as-is. */
+    public Buffer body() { return body; }
+
+    public boolean batch() { return batch; }
+
+    /** Number of entries; 1 for a single call. */
+    public int size() { return methods.size(); }
+
+    /** Method of every entry, in order; null where an entry has none. */
+    public List<String> methods() { return methods; }
+
+    /**
+     * One call per entry, or null when some entry is something the gateway does not model
+     * (notification, missing method, params by name, not an object) and the body should go upstream untouched.
+     */
+    public List<RpcCall> calls() { return calls; }
+
+    public RpcCall single() { return !batch && calls != null ? calls.get(0) : null; }
+
+    public String singleMethod() { return !batch ? methods.get(0) : null; }
+}
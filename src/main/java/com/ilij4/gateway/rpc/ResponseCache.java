@@ -0,0 +1,125 @@
+package com.ilij4.gateway.rpc;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.ilij4.gateway.services.Compressor;
+import com.ilij4.gateway.services.MetricsService;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Byte-bounded cache of immutable JSON-RPC results (Caffeine, W-TinyLFU eviction), optionally
+ * backed by a {@link DiskCache}: memory misses are looked up on disk and promoted, results are kept in both.
+ * Only the {@code result} value is stored; the response is rebuilt around the caller's id on a hit.
+ * With a {@link Compressor}, large results also keep a precompressed copy, and gzip clients get
+ * that copy framed around their id instead of a fresh compression.
+ */
+public final class ResponseCache {
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final Buffer TAIL = Buffer.buffer("}");
+
+    /** {@code fragment}: raw deflate blocks of {@code result}, null when small or not compressed. */
+    private record Entry(Buffer result, Buffer fragment) {}
+
+    private final Cache<String, Entry> cache;
+    private final CachePolicy policy;
+    private volatile DiskCache disk; // null = memory only
+    private Compressor compressor;   // null = plain entries only
+    private final LongAdder gzipHits = new LongAdder();
+
+    public ResponseCache(long maxBytes, CachePolicy policy) {
+        this.policy = policy;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String k, Entry v) -> k.length() * 2 + v.result().length()
+                        + (v.fragment() != null ? v.fragment().length() : 0) + ENTRY_OVERHEAD)
+                .recordStats()
+                .build();
+    }
+
+    /** Adds {@code disk} as a second tier behind memory; it may be attached while the cache is in use. */
+    public ResponseCache disk(DiskCache disk) {
+        this.disk = disk;
+        return this;
+    }
+
+    /** Keeps a precompressed copy of results of at least {@code compressor.minBytes()}. */
+    public ResponseCache compression(Compressor compressor) {
+        this.compressor = compressor;
+        return this;
+    }
+
+    public CachePolicy policy() { return policy; }
+
+    /** Full response for {@code call}, with its own id, or null on a miss. */
+    public Buffer lookup(RpcCall call) {
+        Buffer result = lookupResult(call);
+        return result != null ? RpcCall.response(call.id(), result) : null;
+    }
+
+    /** Just the encoded {@code result} value kept for {@code call}, or null on a miss. */
+    public Buffer lookupResult(RpcCall call) {
+        if (!policy.cacheableRequest(call)) return null;
+        Entry entry = cache.getIfPresent(call.key());
+        if (entry == null && disk != null) {
+            Buffer result = disk.get(call.key());
+            if (result != null) cache.put(call.key(), entry = entry(result));
+        }
+        return entry != null ? entry.result() : null;
+    }
+
+    /**
+     * The response for {@code call} as a gzip stream built from the precompressed copy, or null when
+     * there is none (a miss, or a result kept uncompressed); {@link #lookup} is the fallback.
+     */
+    public Buffer lookupGzip(RpcCall call) {
+        if (compressor == null || !policy.cacheableRequest(call)) return null;
+        Entry entry = cache.asMap().get(call.key()); // feeds eviction, not stats: a miss goes on to lookup()
+        if (entry == null || entry.fragment() == null) return null;
+        Buffer head = Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":" + Json.encode(call.id()) + ",\"result\":");
+        if (head.length() > 0xffff) return null; // does not fit a stored block
+        gzipHits.increment();
+        return compressor.gzipAround(head, entry.fragment(), entry.result(), TAIL);
+    }
+
+    private Entry entry(Buffer result) {
+        return new Entry(result, compressor != null ? compressor.fragment(result) : null);
+    }
+
+    /** Keeps the result of a successful upstream response if the policy allows it. */
+    public void store(RpcCall call, Buffer response) {
+        if (!policy.cacheableRequest(call)) return;
+        JsonObject parsed;
+        try {
+            parsed = response.toJsonObject();
+        } catch (RuntimeException e) {
+            return;
+        }
+        if (parsed.containsKey("error")) return;
+        storeResult(call, parsed.getValue("result"), null);
+    }
+
+    /** Same as {@link #store}, for a caller that already has the parsed result (and maybe its encoding). */
+    public void storeResult(RpcCall call, Object result, Buffer encoded) {
+        if (!policy.cacheableRequest(call) || !policy.cacheableResult(call, result)) return;
+        if (encoded == null) encoded = Buffer.buffer(Json.encode(result));
+        cache.put(call.key(), entry(encoded));
+        if (disk != null) disk.put(call.key(), encoded);
+    }
+
+    public void registerMetrics(MetricsService metrics) {
+        metrics.counter("cache_hits_total", () -> cache.stats().hitCount() + gzipHits.sum());
+        metrics.counter("cache_misses_total", () -> cache.stats().missCount());
+        metrics.counter("cache_evictions_total", () -> cache.stats().evictionCount());
+        metrics.gauge("cache_bytes", () -> cache.policy().eviction()
+                .map(e -> e.weightedSize().orElse(0L))
+                .orElse(0L));
+    }
+
+    public void close() {
+        if (disk != null) disk.close();
+    }
+}
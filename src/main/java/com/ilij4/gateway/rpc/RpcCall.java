@@ -0,0 +1,107 @@
+package com.ilij4.gateway.rpc;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.TreeSet;
+
+/**
+ * A single parsed JSON-RPC call. {@link #key()} identifies the call by method and
+ * params only, so two clients asking the same thing with different ids share a key.
+ */
+public final class RpcCall {
+    private final Object id;
+    private final String method;
+    private final JsonArray params;
+    private String key;
+
+    public RpcCall(Object id, String method, JsonArray params) {
+        this.id = id;
+        this.method = method;
+        this.params = params != null ? params : new JsonArray();
+    }
+
+    /**
+     * Returns null when the object is not a usable call: no method, or params given by name
+     * (an object), which {@link #key()} and {@link #toJson} could not carry without changing them.
+     */
+    public static RpcCall from(JsonObject o) {
+        String method = o.getString("method");
+        if (method == null || method.isBlank()) return null;
+        Object p = o.getValue("params");
+        if (p != null && !(p instanceof JsonArray)) return null;
+        return new RpcCall(o.getValue("id"), method, (JsonArray) p);
+    }
+
+    public Object id() { return id; }
+    public String method() { return method; }
+    public JsonArray params() { return params; }
+
+    public String key() {
+        if (key == null) {
+            var sb = new StringBuilder(method.length() + 64).append(method).append(':');
+            canonical(params, sb);
+            key = sb.toString();
+        }
+        return key;
+    }
+
+    public JsonObject toJson(Object withId) {
+        return new JsonObject()
+                .put("jsonrpc", "2.0")
+                .put("id", withId)
+                .put("method", method)
+                .put("params", params);
+    }
+
+    /** Builds {@code {"jsonrpc":"2.0","id":<id>,"result":<result>}} without re-parsing the result. */
+    public static Buffer response(Object id, Buffer result) {
+        return Buffer.buffer(result.length() + 48)
+                .appendString("{\"jsonrpc\":\"2.0\",\"id\":")
+                .appendString(Json.encode(id))
+                .appendString(",\"result\":")
+                .appendBuffer(result)
+                .appendString("}");
+    }
+
+    /** Same response, answering {@code id} instead. */
+    public static Buffer withId(Buffer response, Object id) {
+        return response.toJsonObject().put("id", id).toBuffer();
+    }
+
+    public static Buffer error(Object id, int code, String message) {
+        return new JsonObject()
+                .put("jsonrpc", "2.0")
+                .put("id", id)
+                .put("error", new JsonObject().put("code", code).put("message", message))
+                .toBuffer();
+    }
+
+    /** Sorted object keys, lower-cased hex strings; everything else as encoded JSON. */
+    private static void canonical(Object v, StringBuilder sb) {
+        if (v instanceof JsonObject o) {
+            sb.append('{');
+            boolean first = true;
+            for (String name : new TreeSet<>(o.fieldNames())) {
+                if (!first) sb.append(',');
+                first = false;
+                sb.append(Json.encode(name)).append(':');
+                canonical(o.getValue(name), sb);
+            }
+            sb.append('}');
+        } else if (v instanceof JsonArray a) {
+            sb.append('[');
+            for (int i = 0; i < a.size(); i++) {
+                if (i > 0) sb.append(',');
+                canonical(a.getValue(i), sb);
+            }
+            sb.append(']');
+        } else if (v instanceof String s && s.startsWith("0x")) {
+            sb.append(Json.encode(s.toLowerCase()));
+        } else {
+            sb.append(Json.encode(v));
+        }
+    }
+}
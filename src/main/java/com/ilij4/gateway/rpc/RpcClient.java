@@ -1,91 +1,431 @@
 package com.ilij4.gateway.rpc;
 
+import com.ilij4.gateway.services.LabeledCounter;
+import com.ilij4.gateway.services.MetricsService;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
 import io.vertx.core.http.HttpClientOptions;
-import io.vertx.ext.web.client.WebClient;
-import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.http.PoolOptions;
+import io.vertx.core.http.RequestOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
 public class RpcClient {
     private final Vertx vertx;
-    private final WebClient client;
-    private final String rpcUrl;
+    private final HttpClient http;
+    private final UpstreamPool pool;
     private final int timeoutMs;
+    private long streamMinBytes = 64 * 1024;
+
+    private final LabeledCounter statuses = new LabeledCounter("status"); // "error" = no HTTP answer
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder retriesDenied = new LongAdder();
+    private final LongAdder deadlinesExceeded = new LongAdder();
+    private HedgePolicy hedging;       // null = never hedge
+    private TrafficBudget retryBudget; // null = retries limited per request only
+    private Bulkhead bulkhead;         // null = no cap on requests in flight
 
     private static final Logger log = LoggerFactory.getLogger(RpcClient.class);
 
     public RpcClient(Vertx vertx, String rpcUrl, int timeoutMs) {
+        this(vertx, UpstreamPool.parse(rpcUrl), timeoutMs);
+    }
+
+    public RpcClient(Vertx vertx, UpstreamPool pool, int timeoutMs) {
+        this(vertx, pool, timeoutMs, Transport.DEFAULTS);
+    }
+
+    public RpcClient(Vertx vertx, UpstreamPool pool, int timeoutMs, Transport transport) {
         this.vertx = vertx;
-        this.rpcUrl = rpcUrl;
+        this.pool = pool;
         this.timeoutMs = timeoutMs;
 
         HttpClientOptions httpOpts = new HttpClientOptions()
                 .setKeepAlive(true)
                 .setConnectTimeout(5_000)
-                .setIdleTimeout(15);
+                .setIdleTimeout(15)
+                .setDecompressionSupported(transport.compression()); // sends Accept-Encoding
+        if (transport.http2()) {
+            // https: ALPN picks h2 or http/1.1; http: h2c upgrade on the first request, 1.1 if refused
+            httpOpts.setProtocolVersion(HttpVersion.HTTP_2)
+                    .setUseAlpn(true)
+                    .setHttp2ClearTextUpgrade(true)
+                    .setHttp2MultiplexingLimit(transport.http2Streams() > 0 ? transport.http2Streams() : -1);
+        }
+
+        this.http = vertx.createHttpClient(httpOpts, new PoolOptions()
+                .setHttp1MaxSize(transport.poolSize())
+                .setHttp2MaxSize(transport.http2Connections()));
+    }
+
+    /**
+     * Connections per upstream node: {@code poolSize} HTTP/1.1 connections, or with {@code http2}
+     * {@code http2Connections} multiplexed ones carrying up to {@code http2Streams} requests each
+     * (0 = whatever the node allows). With {@code compression}, answers are requested gzip/deflate
+     * encoded and inflated on arrival.
+     */
+    public record Transport(boolean http2, int poolSize, int http2Connections, int http2Streams, boolean compression) {
+        public static final Transport DEFAULTS = new Transport(false, 32, 1, 0, true);
+    }
+
+    /** Streamed answers with a known length below this are written in one go instead of piped. */
+    public RpcClient streamMinBytes(long bytes) {
+        this.streamMinBytes = bytes;
+        return this;
+    }
 
-        this.client = WebClient.wrap(vertx.createHttpClient(httpOpts), new WebClientOptions());
+    /** Enables hedged requests for the reads {@code policy} allows. */
+    public RpcClient hedging(HedgePolicy policy) {
+        this.hedging = policy;
+        return this;
     }
 
+    /** Caps retries across all requests, on top of each request's own limit. */
+    public RpcClient retryBudget(TrafficBudget budget) {
+        this.retryBudget = budget;
+        return this;
+    }
+
+    /** Refuses requests while {@code bulkhead} is full; a request holds its slot until it is answered. */
+    public RpcClient bulkhead(Bulkhead bulkhead) {
+        this.bulkhead = bulkhead;
+        return this;
+    }
+
+    public UpstreamPool pool() { return pool; }
+
+    public Bulkhead bulkhead() { return bulkhead; }
+
     public Future<Buffer> forward(Buffer body) {
         return forward(RpcRequest.of(body).build());
     }
 
     public Future<Buffer> forward(RpcRequest req) {
-        final int effectiveTimeout = req.timeoutMs() != null ? req.timeoutMs() : this.timeoutMs;
-
         // concise, safe logging (no payload dump)
-        log.info("RPC -> {} ({} bytes) corrId={}", rpcUrl, req.body().length(), req.correlationId());
+        log.info("RPC -> pool of {} ({} bytes) corrId={}", pool.size(), req.body().length(), req.correlationId());
 
-        Promise<Buffer> promise = Promise.promise();
-        sendWithRetry(req, effectiveTimeout, 0, promise);
-        return promise.future();
+        long left = remainingMs(req);
+        if (left <= 0) return deadlineExceeded();
+        if (bulkhead == null) return exchange(req, left);
+        if (!bulkhead.tryEnter()) return Future.failedFuture(new BulkheadFullException());
+        return exchange(req, left).onComplete(ar -> bulkhead.exit());
+    }
+
+    private Future<Buffer> exchange(RpcRequest req, long left) {
+        if (retryBudget != null) retryBudget.earn();
+
+        Upstream first = pool.pick();
+        if (first == null) return Future.failedFuture(new CircuitOpenException());
+
+        var x = new Exchange(req);
+        if (req.deadlineNanos() != null) x.deadlineTimer = vertx.setTimer(left, t -> x.expire());
+        long hedgeAfter = hedging != null ? hedging.admit(req.method()) : -1;
+        if (hedgeAfter > 0 && hedgeAfter < left) x.hedgeTimer = vertx.setTimer(hedgeAfter, t -> hedge(x));
+        send(x, 0, first, false);
+        return x.promise.future();
     }
 
-    private void sendWithRetry(RpcRequest req, int timeout, int attempt, Promise<Buffer> sink) {
-        client.postAbs(rpcUrl)
-                .timeout(timeout)
+    /** One forwarded request: the first leg with its retries, plus at most one hedged leg. */
+    private final class Exchange {
+        final RpcRequest req;
+        final List<Upstream> tried = new ArrayList<>(2);
+        final List<HttpClientRequest> open = new ArrayList<>(2);
+        final Promise<Buffer> promise = Promise.promise();
+        int legs = 1;
+        long hedgeTimer = -1;
+        long deadlineTimer = -1;
+
+        Exchange(RpcRequest req) {
+            this.req = req;
+        }
+
+        boolean done() { return promise.future().isComplete(); }
+
+        void succeed(Buffer b, boolean hedged) {
+            if (done()) return;
+            if (hedged) hedgeWins.increment();
+            promise.complete(b);
+            close();
+        }
+
+        void fail(Throwable err) {
+            if (--legs > 0) return; // the other leg may still answer
+            if (promise.tryFail(err)) close();
+        }
+
+        void expire() {
+            deadlineTimer = -1;
+            if (promise.tryFail(new DeadlineExceededException())) {
+                deadlinesExceeded.increment();
+                close();
+            }
+        }
+
+        private void close() {
+            if (hedgeTimer >= 0) vertx.cancelTimer(hedgeTimer);
+            if (deadlineTimer >= 0) vertx.cancelTimer(deadlineTimer);
+            for (HttpClientRequest r : List.copyOf(open)) r.reset(); // a losing or late leg, if still running
+        }
+    }
+
+    private void hedge(Exchange x) {
+        x.hedgeTimer = -1;
+        if (x.done() || !hedging.tryHedge()) return;
+        Upstream next = pool.pick(x.tried); // another node if there is one, else a second connection
+        if (next == null) return;
+        x.legs++;
+        hedges.increment();
+        send(x, x.req.maxRetries(), next, true); // no retries on the hedged leg
+    }
+
+    private void send(Exchange x, int attempt, Upstream upstream, boolean hedged) {
+        x.tried.add(upstream);
+        long started = upstream.begin();
+        var opts = new RequestOptions()
+                .setMethod(HttpMethod.POST)
+                .setAbsoluteURI(upstream.url())
+                .setIdleTimeout(attemptTimeoutMs(x.req, attempt))
                 .putHeader("Content-Type", "application/json")
-                .putHeader("User-Agent", "gateway/1.0")
-                .sendBuffer(req.body())
-                .compose(resp -> {
+                .putHeader("User-Agent", "gateway/1.0");
+
+        HttpClientRequest[] sent = new HttpClientRequest[1];
+        http.request(opts)
+                .compose(r -> {
+                    sent[0] = r;
+                    x.open.add(r);
+                    return r.send(x.req.body());
+                })
+                .compose(resp -> resp.body().compose(b -> {
                     int sc = resp.statusCode();
-                    if (sc >= 200 && sc < 300) {
-                        Buffer b = resp.bodyAsBuffer();
-                        return Future.succeededFuture(b != null ? b : Buffer.buffer("null"));
-                    } else {
-                        return Future.failedFuture(new UpstreamException(sc, resp.bodyAsString()));
-                    }
+                    statuses.inc(sc);
+                    if (sc >= 200 && sc < 300) return Future.succeededFuture(b);
+                    return Future.failedFuture(new UpstreamException(sc, b.toString()));
+                }))
+                .onComplete(ar -> x.open.remove(sent[0]))
+                .onSuccess(b -> {
+                    upstream.end(started, true);
+                    if (hedging != null) hedging.record(x.req.method(), System.nanoTime() - started);
+                    x.succeed(b, hedged);
                 })
-                .onSuccess(sink::complete)
                 .onFailure(err -> {
-                    int max = req.maxRetries();
-                    if (attempt < max && shouldRetry(err)) {
-                        vertx.setTimer(backoffMs(attempt), t -> sendWithRetry(req, timeout, attempt + 1, sink));
+                    if (x.done()) {
+                        upstream.cancel(); // reset because the other leg won or time ran out: says nothing about the node
+                        return;
+                    }
+                    upstream.end(started, !countsAsUpstreamError(err));
+                    if (!(err instanceof UpstreamException)) statuses.inc("error");
+                    if (remainingMs(x.req) <= 0) {
+                        x.expire(); // the attempt timed out together with the request
+                        return;
+                    }
+                    Retry next = retryTarget(x.req, attempt, err, upstream, x.tried);
+                    if (next == null) {
+                        x.fail(err);
+                        return;
+                    }
+                    retries.increment();
+                    if (next.waitMs() == 0) {
+                        send(x, attempt + 1, next.upstream(), hedged);
                     } else {
-                        sink.fail(err);
+                        vertx.setTimer(next.waitMs(), t -> send(x, attempt + 1, next.upstream(), hedged));
                     }
                 });
     }
 
-    public Future<Void> forwardStreaming(RpcRequest req, io.vertx.core.http.HttpServerResponse out) {
-        Promise<Void> p = Promise.promise();
-        client.postAbs(rpcUrl)
-                .timeout(req.timeoutMs() != null ? req.timeoutMs() : timeoutMs)
+    /**
+     * Pipes the upstream answer straight into {@code out} with backpressure, never holding the
+     * whole body. Status checks and retries happen on the upstream headers, before the first byte
+     * goes to the client; bodies known to be smaller than {@code streamMinBytes} are written in one go.
+     * The deadline bounds the wait for headers, not the transfer of the body.
+     */
+    public Future<Void> forwardStreaming(RpcRequest req, HttpServerResponse out) {
+        log.info("RPC => pool of {} ({} bytes, streaming) corrId={}", pool.size(), req.body().length(), req.correlationId());
+
+        if (remainingMs(req) <= 0) return deadlineExceeded();
+        if (bulkhead == null) return stream(req, out);
+        if (!bulkhead.tryEnter()) return Future.failedFuture(new BulkheadFullException());
+        return stream(req, out).onComplete(ar -> bulkhead.exit());
+    }
+
+    private Future<Void> stream(RpcRequest req, HttpServerResponse out) {
+        if (retryBudget != null) retryBudget.earn();
+
+        Upstream first = pool.pick();
+        if (first == null) return Future.failedFuture(new CircuitOpenException());
+
+        Promise<Void> promise = Promise.promise();
+        streamWithRetry(req, 0, first, new ArrayList<>(1), out, promise);
+        return promise.future();
+    }
+
+    private void streamWithRetry(RpcRequest req, int attempt, Upstream upstream, List<Upstream> tried,
+                                 HttpServerResponse out, Promise<Void> sink) {
+        tried.add(upstream);
+        long started = upstream.begin();
+        var opts = new RequestOptions()
+                .setMethod(HttpMethod.POST)
+                .setAbsoluteURI(upstream.url())
+                .setIdleTimeout(attemptTimeoutMs(req, attempt))
                 .putHeader("Content-Type", "application/json")
-                .sendBuffer(req.body());
-        return p.future();
+                .putHeader("User-Agent", "gateway/1.0");
+
+        http.request(opts)
+                .compose(r -> r.send(req.body()))
+                .onFailure(err -> {
+                    upstream.end(started, false);
+                    statuses.inc("error");
+                    retryStreamOrFail(req, attempt, upstream, tried, out, sink, err);
+                })
+                .onSuccess(resp -> {
+                    int sc = resp.statusCode();
+                    statuses.inc(sc);
+                    if (sc < 200 || sc >= 300) {
+                        resp.body().onComplete(b -> {
+                            var err = new UpstreamException(sc, b.succeeded() ? b.result().toString() : null);
+                            upstream.end(started, !countsAsUpstreamError(err));
+                            retryStreamOrFail(req, attempt, upstream, tried, out, sink, err);
+                        });
+                        return;
+                    }
+                    // latency to headers, transfer time of big bodies would skew the node's score
+                    upstream.end(started, true);
+
+                    String len = resp.getHeader(HttpHeaders.CONTENT_LENGTH);
+                    out.setStatusCode(200);
+                    // a malformed length is not passed on: the body is read whole, or fails as an upstream error
+                    if (len != null && contentLength(len) < streamMinBytes) {
+                        resp.body().onSuccess(b -> out.end(b).onComplete(sink)).onFailure(sink::fail);
+                        return;
+                    }
+                    if (len != null) out.putHeader(HttpHeaders.CONTENT_LENGTH, len);
+                    else out.setChunked(true);
+
+                    resp.pipe().endOnFailure(false).to(out).onComplete(ar -> {
+                        if (ar.failed()) out.reset(); // a truncated JSON body is worse than a dropped connection
+                        sink.handle(ar);
+                    });
+                });
+    }
+
+    private void retryStreamOrFail(RpcRequest req, int attempt, Upstream upstream, List<Upstream> tried,
+                                   HttpServerResponse out, Promise<Void> sink, Throwable err) {
+        Retry next = retryTarget(req, attempt, err, upstream, tried);
+        if (next == null) {
+            sink.fail(err);
+            return;
+        }
+        retries.increment();
+        if (next.waitMs() == 0) {
+            streamWithRetry(req, attempt + 1, next.upstream(), tried, out, sink);
+        } else {
+            vertx.setTimer(next.waitMs(), t -> streamWithRetry(req, attempt + 1, next.upstream(), tried, out, sink));
+        }
+    }
+
+    /** Node for the next attempt, holding a breaker permit, and how long to wait before sending to it. */
+    private record Retry(Upstream upstream, long waitMs) {}
+
+    /**
+     * The next attempt after {@code failed}, or null to give up: no retries left, error not worth
+     * retrying, every breaker open, backoff past the deadline or retry budget spent. The budget is
+     * only charged for a retry that goes out.
+     */
+    private Retry retryTarget(RpcRequest req, int attempt, Throwable err, Upstream failed, List<Upstream> tried) {
+        if (attempt >= req.maxRetries() || !shouldRetry(err) || remainingMs(req) <= 0) return null;
+        Upstream next = pool.pick(tried);
+        if (next == null) return null;
+        // another node is available: go there right away, backoff only when hitting the same one
+        long wait = next != failed ? 0 : backoffMs(attempt);
+        if (wait >= remainingMs(req)) {
+            next.release();
+            return null;
+        }
+        if (retryBudget != null && !retryBudget.trySpend()) {
+            next.release();
+            retriesDenied.increment();
+            return null;
+        }
+        return new Retry(next, wait);
+    }
+
+    /**
+     * Per-attempt timeout: the request's own, else the configured one or, if longer, this attempt's
+     * share of what is left of the deadline, so a method with a long deadline is not cut at
+     * {@code RPC_TIMEOUT_MS}. Never past the deadline.
+     */
+    private int attemptTimeoutMs(RpcRequest req, int attempt) {
+        long left = remainingMs(req);
+        long base = req.timeoutMs() != null ? req.timeoutMs() : this.timeoutMs;
+        if (req.timeoutMs() == null && req.deadlineNanos() != null) {
+            base = Math.max(base, left / (Math.max(0, req.maxRetries() - attempt) + 1));
+        }
+        return (int) Math.max(1, Math.min(base, left));
+    }
+
+    /** The value of a {@code Content-Length} header, or -1 if it is not a number. */
+    private static long contentLength(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private <T> Future<T> deadlineExceeded() {
+        deadlinesExceeded.increment();
+        return Future.failedFuture(new DeadlineExceededException());
+    }
+
+    private static long remainingMs(RpcRequest req) {
+        if (req.deadlineNanos() == null) return Long.MAX_VALUE;
+        return (req.deadlineNanos() - System.nanoTime()) / 1_000_000;
+    }
+
+    public void registerMetrics(MetricsService metrics) {
+        pool.registerMetrics(metrics);
+        metrics.counter("upstream_responses_total", statuses);
+        metrics.counter("upstream_retries_total", retries::sum);
+        metrics.counter("upstream_retries_denied_total", retriesDenied::sum);
+        metrics.counter("rpc_deadline_exceeded_total", deadlinesExceeded::sum);
+        if (retryBudget != null) metrics.gauge("upstream_retry_budget", retryBudget::available);
+        metrics.counter("upstream_hedges_total", hedges::sum);
+        metrics.counter("upstream_hedge_wins_total", hedgeWins::sum);
+        metrics.gauge("upstream_inflight", () -> {
+            long n = 0;
+            for (Upstream u : pool.upstreams()) n += u.inflight();
+            return n;
+        });
     }
 
     private boolean shouldRetry(Throwable t) {
+        if (t instanceof CircuitOpenException || t instanceof BulkheadFullException) return false;
         if (t instanceof UpstreamException ue) {
             return ue.status == 429 || ue.status == 502 || ue.status == 503 || ue.status == 504;
         }
-        return false;
+        // request never left the box, safe to try another node
+        return t instanceof ConnectException && pool.size() > 1;
+    }
+
+    private boolean countsAsUpstreamError(Throwable t) {
+        if (t instanceof UpstreamException ue) {
+            return ue.status == 429 || ue.status >= 500;
+        }
+        return true;
     }
 
     private long backoffMs(int attempt) { // jittered exponential-ish
@@ -106,4 +446,25 @@ public class RpcClient {
         public String body() { return body; }
     }
 
+    /** The request's deadline passed before an answer arrived; outstanding upstream requests were reset. */
+    public static class DeadlineExceededException extends RuntimeException {
+        public DeadlineExceededException() {
+            super("request deadline exceeded");
+        }
+    }
+
+    /** No upstream accepts traffic right now; raised without sending anything. */
+    public static class CircuitOpenException extends UpstreamException {
+        public CircuitOpenException() {
+            super(503, "{\"jsonrpc\":\"2.0\",\"id\":null,\"error\":{\"code\":-32000,\"message\":\"upstream unavailable (circuit open)\"}}");
+        }
+    }
+
+    /** The route's {@link Bulkhead} is full; raised without sending anything. */
+    public static class BulkheadFullException extends UpstreamException {
+        public BulkheadFullException() {
+            super(503, "{\"jsonrpc\":\"2.0\",\"id\":null,\"error\":{\"code\":-32005,\"message\":\"upstream busy, retry later\"}}");
+        }
+    }
+
 }
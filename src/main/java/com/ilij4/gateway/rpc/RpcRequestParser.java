@@ -0,0 +1,179 @@
+package com.ilij4.gateway.rpc;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.internal.buffer.BufferInternal;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Incremental JSON-RPC request parser. Chunks are fed as they arrive off the socket straight
+ * from their Netty buffers (no {@code byte[]} copy); size, syntax and batch limits fail as soon
+ * as they are crossed. One instance per request.
+ */
+public final class RpcRequestParser {
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final long maxBytes;
+    private final int maxBatchSize;
+    private final JsonParser parser;
+    private final ByteBufferFeeder feeder;
+
+    private final List<Buffer> chunks = new ArrayList<>(1);
+    private long bytes;
+
+    // containers under construction, innermost last; field names wait in `names`
+    private final ArrayDeque<Object> stack = new ArrayDeque<>();
+    private final ArrayDeque<String> names = new ArrayDeque<>();
+    private Boolean batch;
+    private boolean rootDone;
+
+    private final List<String> methods = new ArrayList<>();
+    private List<RpcCall> calls = new ArrayList<>();
+
+    public RpcRequestParser(long maxBytes, int maxBatchSize) {
+        this.maxBytes = maxBytes;
+        this.maxBatchSize = maxBatchSize;
+        try {
+            this.parser = FACTORY.createNonBlockingByteBufferParser();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.feeder = (ByteBufferFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    /** Thrown for input the gateway refuses; {@link #code()} is the JSON-RPC error code. */
+    public static final class RejectedException extends Exception {
+        private final int code;
+        private final int status;
+
+        RejectedException(int status, int code, String message) {
+            super(message);
+            this.status = status;
+            this.code = code;
+        }
+
+        public int code() { return code; }
+        public int status() { return status; }
+    }
+
+    public void feed(Buffer chunk) throws RejectedException {
+        bytes += chunk.length();
+        if (bytes > maxBytes) throw new RejectedException(413, -32600, "invalid request: body larger than " + maxBytes + " bytes");
+        chunks.add(chunk);
+        try {
+            feeder.feedInput(nio(chunk));
+            drain();
+        } catch (IOException e) {
+            throw new RejectedException(400, -32700, "parse error");
+        }
+    }
+
+    public ParsedRequest finish() throws RejectedException {
+        if (bytes == 0) throw new RejectedException(400, -32600, "invalid request: empty body");
+        try {
+            feeder.endOfInput();
+            drain();
+        } catch (IOException e) {
+            throw new RejectedException(400, -32700, "parse error");
+        }
+        if (!rootDone) throw new RejectedException(400, -32700, "parse error");
+        if (methods.isEmpty()) throw new RejectedException(400, -32600, "invalid request");
+        return new ParsedRequest(body(), batch, Collections.unmodifiableList(methods), calls);
+    }
+
+    private void drain() throws IOException, RejectedException {
+        JsonToken t;
+        while ((t = parser.nextToken()) != null && t != JsonToken.NOT_AVAILABLE) {
+            if (rootDone) throw new RejectedException(400, -32700, "parse error: trailing data");
+            switch (t) {
+                case START_OBJECT -> open(new JsonObject());
+                case START_ARRAY -> open(new JsonArray());
+                case END_OBJECT, END_ARRAY -> close();
+                case FIELD_NAME -> names.addLast(parser.currentName());
+                case VALUE_STRING -> value(parser.getText());
+                case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> value(parser.getNumberValue());
+                case VALUE_TRUE -> value(Boolean.TRUE);
+                case VALUE_FALSE -> value(Boolean.FALSE);
+                case VALUE_NULL -> value(null);
+                default -> { }
+            }
+        }
+    }
+
+    private void open(Object container) throws RejectedException {
+        if (stack.isEmpty()) {
+            if (batch != null) throw new RejectedException(400, -32700, "parse error: trailing data");
+            batch = container instanceof JsonArray;
+        }
+        stack.addLast(container);
+    }
+
+    private void close() throws RejectedException {
+        Object done = stack.removeLast();
+        int depth = stack.size();
+        if (depth == 0) {
+            rootDone = true;
+            if (!batch) entry(done);
+        } else if (depth == 1 && batch) {
+            entry(done); // entries are not kept inside the root array
+        } else {
+            value(done);
+        }
+    }
+
+    private void value(Object v) throws RejectedException {
+        Object top = stack.peekLast();
+        if (top instanceof JsonObject o) {
+            o.put(names.removeLast(), v);
+        } else if (top instanceof JsonArray a) {
+            if (stack.size() == 1 && batch) {
+                entry(v); // scalar inside the batch array
+            } else {
+                a.add(v);
+            }
+        } else {
+            throw new RejectedException(400, -32600, "invalid request");
+        }
+    }
+
+    private void entry(Object e) throws RejectedException {
+        if (methods.size() >= maxBatchSize) {
+            throw new RejectedException(400, -32600, "invalid request: batch larger than " + maxBatchSize);
+        }
+        RpcCall call = e instanceof JsonObject o && o.containsKey("id") ? RpcCall.from(o) : null;
+        methods.add(e instanceof JsonObject o && o.getValue("method") instanceof String m ? m : null);
+        if (call == null) {
+            calls = null;
+        } else if (calls != null) {
+            calls.add(call);
+        }
+    }
+
+    private Buffer body() {
+        if (chunks.size() == 1) return chunks.get(0);
+        var bufs = new ByteBuf[chunks.size()];
+        for (int i = 0; i < bufs.length; i++) bufs[i] = byteBuf(chunks.get(i));
+        return BufferInternal.buffer(Unpooled.wrappedBuffer(bufs));
+    }
+
+    private static ByteBuffer nio(Buffer chunk) {
+        return chunk instanceof BufferInternal bi ? bi.getByteBuf().nioBuffer() : ByteBuffer.wrap(chunk.getBytes());
+    }
+
+    private static ByteBuf byteBuf(Buffer chunk) {
+        return chunk instanceof BufferInternal bi ? bi.getByteBuf() : Unpooled.wrappedBuffer(chunk.getBytes());
+    }
+}
@@ -0,0 +1,89 @@
+package com.ilij4.gateway.rpc;
+
+import com.ilij4.gateway.services.MetricsService;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.internal.ContextInternal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Collapses identical in-flight calls (same {@link RpcCall#key()}) into one upstream call.
+ * Every waiter gets the shared response with its own id written back in. The key leaves out the
+ * deadline, so a leader that runs out of its own time does not fail the others: they run again.
+ */
+public final class SingleFlight {
+    // calls with side effects or per-caller server state must each reach the node
+    private static final String[] NEVER_SHARED = {
+            "eth_send", "eth_sign", "eth_newFilter", "eth_newBlockFilter", "eth_newPendingTransactionFilter",
+            "eth_getFilterChanges", "eth_uninstallFilter", "eth_subscribe", "eth_unsubscribe", "personal_", "admin_"
+    };
+
+    private final ConcurrentHashMap<String, Promise<Buffer>> inflight = new ConcurrentHashMap<>();
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder followers = new LongAdder();
+
+    public static boolean coalescable(String method) {
+        for (String prefix : NEVER_SHARED) {
+            if (method.startsWith(prefix)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs {@code upstream} unless the same call is already in flight, in which case its
+     * result is shared. {@code upstream} must answer with a response carrying {@code call}'s id.
+     */
+    public Future<Buffer> execute(RpcCall call, Supplier<Future<Buffer>> upstream) {
+        if (!coalescable(call.method())) return upstream.get();
+
+        Promise<Buffer> mine = Promise.promise();
+        Promise<Buffer> existing = inflight.putIfAbsent(call.key(), mine);
+        if (existing != null) {
+            followers.increment();
+            // the leader may complete on another event loop; a promise bound to this caller's
+            // context hands the result back on the caller's own loop
+            var ctx = (ContextInternal) Vertx.currentContext();
+            Promise<Buffer> shared = ctx != null ? ctx.promise() : Promise.promise();
+            existing.future().onComplete(ar -> {
+                if (ar.succeeded()) {
+                    shared.complete(RpcCall.withId(ar.result(), call.id()));
+                } else if (ar.cause() instanceof RpcClient.DeadlineExceededException) {
+                    // the leader's deadline may be shorter than ours (X-Request-Timeout-Ms): try again under our own
+                    Runnable again = () -> execute(call, upstream).onComplete(shared);
+                    if (ctx != null) ctx.runOnContext(v -> again.run());
+                    else again.run();
+                } else {
+                    shared.fail(ar.cause());
+                }
+            });
+            return shared.future();
+        }
+
+        leaders.increment();
+        Future<Buffer> f;
+        try {
+            f = upstream.get();
+        } catch (RuntimeException e) {
+            f = Future.failedFuture(e);
+        }
+        f.onComplete(ar -> {
+            inflight.remove(call.key(), mine);
+            mine.handle(ar);
+        });
+        return f;
+    }
+
+    public void registerMetrics(MetricsService metrics) {
+        metrics.counter("singleflight_upstream_calls_total", leaders::sum);
+        metrics.counter("singleflight_shared_calls_total", followers::sum);
+        metrics.gauge("singleflight_coalescing_pct", () -> {
+            long l = leaders.sum(), f = followers.sum();
+            return l + f == 0 ? 0 : f * 100 / (l + f);
+        });
+    }
+}
@@ -0,0 +1,36 @@
+package com.ilij4.gateway.rpc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allowance for extra upstream requests (retries, hedges) that grows with live traffic: every
+ * request earns {@code pct}/100 of an extra one, every extra request spends a whole one, and at
+ * most {@code max} can be saved up. Extra load stays within {@code pct}% of traffic plus {@code max}.
+ */
+public final class TrafficBudget {
+    private final long earnPerRequest; // in hundredths of a request
+    private final long cap;
+    private final AtomicLong balance;
+
+    public TrafficBudget(int pct, long max, long initial) {
+        this.earnPerRequest = pct;
+        this.cap = max * 100;
+        this.balance = new AtomicLong(Math.min(initial, max) * 100);
+    }
+
+    public void earn() {
+        balance.getAndUpdate(b -> Math.min(b + earnPerRequest, cap));
+    }
+
+    public boolean trySpend() {
+        long b;
+        do {
+            b = balance.get();
+            if (b < 100) return false;
+        } while (!balance.compareAndSet(b, b - 100));
+        return true;
+    }
+
+    /** Whole extra requests currently available. */
+    public long available() { return balance.get() / 100; }
+}
@@ -0,0 +1,76 @@
+package com.ilij4.gateway.rpc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * One upstream node plus the live stats the pool scores it by:
+ * peak-EWMA latency, in-flight requests and an EWMA of the error rate.
+ * Its {@link CircuitBreaker} decides whether it gets traffic at all.
+ */
+public final class Upstream {
+    private static final double DECAY_NANOS = 10_000_000_000d; // 10s time constant
+    private static final double INITIAL_RTT_NANOS = 50_000_000d; // unknown nodes look like 50ms
+    private static final double ERROR_PENALTY = 10d;
+
+    private final String url;
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final CircuitBreaker breaker;
+
+    private volatile double ewmaNanos = INITIAL_RTT_NANOS;
+    private volatile double errorRate;
+    private long lastUpdateNanos = System.nanoTime();
+
+    public Upstream(String url) {
+        this(url, CircuitBreaker.Settings.DEFAULTS, state -> { });
+    }
+
+    public Upstream(String url, CircuitBreaker.Settings breakerSettings, Consumer<CircuitBreaker.State> onTransition) {
+        this.url = url;
+        this.breaker = new CircuitBreaker(breakerSettings, onTransition);
+    }
+
+    public String url() { return url; }
+    public CircuitBreaker breaker() { return breaker; }
+    public int inflight() { return inflight.get(); }
+    public double latencyMs() { return ewmaNanos / 1_000_000d; }
+    public double errorRate() { return errorRate; }
+
+    /** Lower is better. Latency weighted by queue depth, inflated by recent errors. */
+    public double score() {
+        return ewmaNanos * (inflight.get() + 1) * (1 + ERROR_PENALTY * errorRate);
+    }
+
+    long begin() {
+        inflight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    void end(long startNanos, boolean ok) {
+        inflight.decrementAndGet();
+        long now = System.nanoTime();
+        double rtt = now - startNanos;
+        synchronized (this) {
+            double w = Math.exp(-(now - lastUpdateNanos) / DECAY_NANOS);
+            lastUpdateNanos = now;
+            // peak-EWMA: jump up immediately on a slow response, decay down slowly
+            ewmaNanos = rtt > ewmaNanos ? rtt : ewmaNanos * w + rtt * (1 - w);
+            errorRate = errorRate * w + (ok ? 0 : 1) * (1 - w);
+        }
+        breaker.onResult((long) rtt, ok);
+    }
+
+    /** A call abandoned by the gateway (the other hedged leg won): no latency or error sample. */
+    void cancel() {
+        inflight.decrementAndGet();
+        breaker.onCancel();
+    }
+
+    /** Gives back the breaker permit of a node picked for a call that never went out ({@link #begin} not called). */
+    void release() {
+        breaker.onCancel();
+    }
+
+    @Override
+    public String toString() { return url; }
+}
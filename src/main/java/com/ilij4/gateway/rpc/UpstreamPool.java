@@ -0,0 +1,118 @@
+package com.ilij4.gateway.rpc;
+
+import com.ilij4.gateway.services.LabeledCounter;
+import com.ilij4.gateway.services.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Set of upstream nodes picked by power-of-two-choices over {@link Upstream#score()}.
+ * Nodes whose circuit breaker refuses traffic are skipped; when none is left, {@link #pick}
+ * returns null so the caller can fail fast.
+ */
+public final class UpstreamPool {
+    private static final Logger log = LoggerFactory.getLogger(UpstreamPool.class);
+
+    private final List<Upstream> upstreams;
+    private final LabeledCounter transitions;
+    private final LongAdder rejected = new LongAdder();
+
+    public UpstreamPool(List<Upstream> upstreams) {
+        this(upstreams, new LabeledCounter("state"));
+    }
+
+    private UpstreamPool(List<Upstream> upstreams, LabeledCounter transitions) {
+        if (upstreams.isEmpty()) throw new IllegalArgumentException("no upstreams configured");
+        this.upstreams = List.copyOf(upstreams);
+        this.transitions = transitions;
+    }
+
+    /** Parses a comma-separated list of URLs, as given in {@code RPC_URL}. */
+    public static UpstreamPool parse(String urls) {
+        return parse(urls, CircuitBreaker.Settings.DEFAULTS);
+    }
+
+    public static UpstreamPool parse(String urls, CircuitBreaker.Settings breaker) {
+        var transitions = new LabeledCounter("state");
+        var list = new ArrayList<Upstream>();
+        if (urls != null) {
+            Arrays.stream(urls.split(","))
+                    .map(String::trim)
+                    .filter(s -> !s.isEmpty())
+                    .forEach(u -> list.add(new Upstream(u, breaker, state -> {
+                        transitions.inc(state.name().toLowerCase(Locale.ROOT));
+                        log.warn("circuit for {} is now {}", u, state);
+                    })));
+        }
+        return new UpstreamPool(list, transitions);
+    }
+
+    public List<Upstream> upstreams() { return upstreams; }
+
+    public int size() { return upstreams.size(); }
+
+    public Upstream pick() {
+        return pick(List.of());
+    }
+
+    /**
+     * Picks the better of two random nodes that accept traffic, skipping the ones already tried
+     * as long as something else is left. The returned node holds a breaker permit, released by
+     * {@link Upstream#end}. Null when every breaker refuses.
+     */
+    public Upstream pick(Collection<Upstream> tried) {
+        int n = upstreams.size();
+        if (n == 1) return acquired(upstreams.get(0));
+
+        var candidates = new ArrayList<Upstream>(n);
+        for (Upstream u : upstreams) {
+            if (!tried.contains(u) && u.breaker().allowsRequests()) candidates.add(u);
+        }
+        if (candidates.isEmpty()) {
+            for (Upstream u : upstreams) if (u.breaker().allowsRequests()) candidates.add(u);
+        }
+
+        var rnd = ThreadLocalRandom.current();
+        while (!candidates.isEmpty()) {
+            int m = candidates.size();
+            Upstream best;
+            if (m == 1) {
+                best = candidates.get(0);
+            } else {
+                int i = rnd.nextInt(m);
+                int j = rnd.nextInt(m - 1);
+                if (j >= i) j++;
+                Upstream a = candidates.get(i), b = candidates.get(j);
+                best = a.score() <= b.score() ? a : b;
+            }
+            if (best.breaker().tryAcquire()) return best;
+            candidates.remove(best); // lost a race for the last half-open probe
+        }
+        rejected.increment();
+        return null;
+    }
+
+    private Upstream acquired(Upstream u) {
+        if (u.breaker().tryAcquire()) return u;
+        rejected.increment();
+        return null;
+    }
+
+    public void registerMetrics(MetricsService metrics) {
+        metrics.counter("upstream_circuit_transitions_total", transitions);
+        metrics.counter("upstream_circuit_rejected_total", rejected::sum);
+        metrics.gauge("upstream_circuit_not_closed", () -> {
+            long n = 0;
+            for (Upstream u : upstreams) if (u.breaker().state() != CircuitBreaker.State.CLOSED) n++;
+            return n;
+        });
+    }
+}
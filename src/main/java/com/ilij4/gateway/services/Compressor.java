@@ -0,0 +1,143 @@
+package com.ilij4.gateway.services;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * gzip/deflate for response bodies, with the bytes and time it costs counted. Besides whole
+ * streams it produces <em>precompressed fragments</em>: raw deflate blocks, sync-flushed so they
+ * end on a byte boundary and are not final. {@link #gzipAround} frames such a fragment with stored
+ * (uncompressed) blocks into a complete gzip stream, so a cached result can be sent with a
+ * per-request prefix (the caller's id) without compressing it again; only a CRC pass remains.
+ */
+public final class Compressor {
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final int level;
+    private final int minBytes;
+
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder precompressedServed = new LongAdder();
+
+    /** Bodies shorter than {@code minBytes} are not worth the CPU and are sent as they are. */
+    public Compressor(int level, int minBytes) {
+        this.level = level;
+        this.minBytes = minBytes;
+    }
+
+    public int minBytes() { return minBytes; }
+
+    /** {@code "gzip"}, {@code "deflate"} or null, from an {@code Accept-Encoding} header; gzip wins ties. */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) return null;
+        boolean gzip = false, deflate = false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] p = part.trim().split(";");
+            String coding = p[0].trim().toLowerCase();
+            if (p.length > 1 && p[1].trim().replace(" ", "").matches("q=0(\\.0*)?")) continue; // explicitly refused
+            if (coding.equals("gzip") || coding.equals("*")) gzip = true;
+            else if (coding.equals("deflate")) deflate = true;
+        }
+        return gzip ? "gzip" : deflate ? "deflate" : null;
+    }
+
+    /** A complete stream in {@code encoding} ({@code "gzip"} or {@code "deflate"}, i.e. zlib). */
+    public Buffer compress(Buffer plain, String encoding) {
+        long start = System.nanoTime();
+        byte[] input = plain.getBytes();
+        boolean gzip = "gzip".equals(encoding);
+        Buffer out = Buffer.buffer(input.length / 4 + 64);
+        if (gzip) out.appendBytes(GZIP_HEADER);
+        var deflater = new Deflater(level, gzip);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            drain(deflater, out, Deflater.NO_FLUSH);
+        } finally {
+            deflater.end();
+        }
+        if (gzip) {
+            var crc = new CRC32();
+            crc.update(input);
+            out.appendIntLE((int) crc.getValue()).appendIntLE(input.length);
+        }
+        count(input.length, out.length(), start);
+        return out;
+    }
+
+    /** Raw, non-final deflate blocks for {@code plain}, or null when it is too small to bother. */
+    public Buffer fragment(Buffer plain) {
+        if (plain.length() < minBytes) return null;
+        long start = System.nanoTime();
+        var deflater = new Deflater(level, true);
+        Buffer out = Buffer.buffer(plain.length() / 4 + 16);
+        try {
+            deflater.setInput(plain.getBytes());
+            drain(deflater, out, Deflater.SYNC_FLUSH);
+        } finally {
+            deflater.end();
+        }
+        nanos.add(System.nanoTime() - start);
+        return out.length() < plain.length() ? out : null;
+    }
+
+    /**
+     * gzip stream of {@code head + plain + tail}, where {@code fragment} is {@link #fragment(Buffer)} of
+     * {@code plain}; head and tail go in stored blocks (each under 64 KiB).
+     */
+    public Buffer gzipAround(Buffer head, Buffer fragment, Buffer plain, Buffer tail) {
+        var crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        for (Buffer part : new Buffer[]{head, plain, tail}) {
+            for (int i = 0; i < part.length(); i += chunk.length) {
+                int n = Math.min(chunk.length, part.length() - i);
+                part.getBytes(i, i + n, chunk, 0);
+                crc.update(chunk, 0, n);
+            }
+        }
+        Buffer out = Buffer.buffer(GZIP_HEADER.length + head.length() + fragment.length() + tail.length() + 18)
+                .appendBytes(GZIP_HEADER);
+        stored(out, head, false);
+        out.appendBuffer(fragment);
+        stored(out, tail, true);
+        out.appendIntLE((int) crc.getValue()).appendIntLE(head.length() + plain.length() + tail.length());
+        precompressedServed.increment();
+        bytesIn.add(head.length() + plain.length() + tail.length());
+        bytesOut.add(out.length());
+        return out;
+    }
+
+    /** A stored block: BFINAL/BTYPE=00 padded to a byte, then LEN and its complement, then the bytes. */
+    private static void stored(Buffer out, Buffer data, boolean last) {
+        int len = data.length();
+        out.appendByte((byte) (last ? 1 : 0)).appendShortLE((short) len).appendShortLE((short) ~len).appendBuffer(data);
+    }
+
+    private static void drain(Deflater deflater, Buffer out, int flush) {
+        byte[] chunk = new byte[8192];
+        while (true) {
+            int n = deflater.deflate(chunk, 0, chunk.length, flush);
+            out.appendBytes(chunk, 0, n);
+            if (flush == Deflater.SYNC_FLUSH ? n < chunk.length : deflater.finished()) return;
+        }
+    }
+
+    private void count(long in, long out, long startNanos) {
+        nanos.add(System.nanoTime() - startNanos);
+        bytesIn.add(in);
+        bytesOut.add(out);
+    }
+
+    public void registerMetrics(MetricsService metrics) {
+        metrics.counter("compression_bytes_in_total", bytesIn::sum);
+        metrics.counter("compression_bytes_out_total", bytesOut::sum);
+        metrics.counter("compression_bytes_saved_total", () -> bytesIn.sum() - bytesOut.sum());
+        metrics.counter("compression_time_us_total", () -> nanos.sum() / 1_000);
+        metrics.counter("compression_precompressed_total", precompressedServed::sum);
+    }
+}
@@ -0,0 +1,63 @@
+package com.ilij4.gateway.services;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cost of a JSON-RPC method in compute units. Rules are {@code name=units}; a name ending in
+ * {@code _} is a prefix ({@code debug_=500}). Exact names win over prefixes, longer prefixes
+ * over shorter ones. Resolved weights are memoised per method name.
+ */
+public final class ComputeUnits {
+    /** Defaults, roughly proportional to the work a node does for each call. */
+    public static final String DEFAULTS = String.join(",",
+            "eth_chainId=1", "net_version=1", "eth_blockNumber=1",
+            "eth_getBalance=10", "eth_getTransactionCount=10", "eth_getCode=10", "eth_getStorageAt=10",
+            "eth_getBlockByNumber=15", "eth_getBlockByHash=15",
+            "eth_getTransactionByHash=15", "eth_getTransactionReceipt=15",
+            "eth_call=25", "eth_estimateGas=50", "eth_sendRawTransaction=50",
+            "eth_getLogs=75", "debug_=500", "trace_=500");
+
+    private final Map<String, Integer> exact = new ConcurrentHashMap<>();
+    private final Map<String, Integer> prefixes = new ConcurrentHashMap<>();
+    private final int defaultUnits;
+    private final Map<String, Integer> resolved = new ConcurrentHashMap<>();
+
+    public ComputeUnits(List<String> rules, int defaultUnits) {
+        this.defaultUnits = defaultUnits;
+        for (String rule : rules) {
+            int eq = rule.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("bad compute-unit rule: " + rule);
+            String name = rule.substring(0, eq).trim();
+            int units = Integer.parseInt(rule.substring(eq + 1).trim());
+            (name.endsWith("_") ? prefixes : exact).put(name, units);
+        }
+    }
+
+    public int of(String method) {
+        if (method == null) return defaultUnits;
+        Integer hit = resolved.get(method);
+        if (hit != null) return hit;
+        int units = resolve(method);
+        if (resolved.size() < 10_000) resolved.put(method, units); // method names come from clients
+        return units;
+    }
+
+    /** Sum over all entries of a request (a batch pays for every call in it). */
+    public long of(List<String> methods) {
+        long sum = 0;
+        for (String m : methods) sum += of(m);
+        return sum;
+    }
+
+    private int resolve(String method) {
+        Integer units = exact.get(method);
+        if (units != null) return units;
+        String best = null;
+        for (String p : prefixes.keySet()) {
+            if (method.startsWith(p) && (best == null || p.length() > best.length())) best = p;
+        }
+        return best != null ? prefixes.get(best) : defaultUnits;
+    }
+}
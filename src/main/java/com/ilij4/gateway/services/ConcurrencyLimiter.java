@@ -0,0 +1,159 @@
+package com.ilij4.gateway.services;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive cap on requests in flight (a gradient limit). Every finished request reports how
+ * long it took; a short and a long exponential average of those times are kept. While the short
+ * one stays within {@code TOLERANCE} of the long one the limit grows by about its square root,
+ * once the short one climbs past it (requests queue up somewhere downstream) the limit shrinks in
+ * proportion, and a failed request (5xx) cuts it by a tenth. The limit never leaves
+ * {@code [minLimit, maxLimit]}, and it does not grow while less than half of it is in use.
+ * Requests over the limit wait in a FIFO of at most {@code queueSize} entries for
+ * {@code queueTimeoutMs}; beyond that they are refused at once, so load is shed instead of
+ * piling up as latency and heap.
+ */
+public final class ConcurrencyLimiter {
+    private static final double TOLERANCE = 1.5;
+    private static final double SHORT_WEIGHT = 0.1;  // about the last 10 requests
+    private static final double LONG_WEIGHT = 0.001; // about the last 1000 requests
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF = 0.9;
+
+    private final class Waiter {
+        final Context context;
+        final Runnable admit;
+        long timerId;
+
+        Waiter(Context context, Runnable admit) {
+            this.context = context;
+            this.admit = admit;
+        }
+    }
+
+    private final Vertx vertx;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int queueSize;
+    private final long queueTimeoutMs;
+
+    // guarded by this
+    private double limit;
+    private int inFlight;
+    private double shortRtt = -1;
+    private double longRtt = -1;
+    private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+
+    public ConcurrencyLimiter(Vertx vertx, int minLimit, int maxLimit, int queueSize, long queueTimeoutMs) {
+        this.vertx = vertx;
+        this.minLimit = Math.max(1, Math.min(minLimit, maxLimit));
+        this.maxLimit = maxLimit;
+        this.queueSize = queueSize;
+        this.queueTimeoutMs = queueTimeoutMs;
+        this.limit = Math.max(this.minLimit, Math.min(maxLimit, 100));
+    }
+
+    /**
+     * Runs {@code admit} once a permit is held (right away, or later on the caller's context),
+     * or {@code reject} when the queue is full or the wait runs out. After {@code admit}, exactly
+     * one {@link #release} must follow.
+     */
+    public void acquire(Runnable admit, Runnable reject) {
+        boolean admitted;
+        synchronized (this) {
+            if (queue.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                admitted = true;
+            } else if (queue.size() >= queueSize || queueTimeoutMs <= 0) {
+                rejected.increment();
+                admitted = false;
+            } else {
+                var w = new Waiter(Vertx.currentContext(), admit);
+                w.timerId = vertx.setTimer(queueTimeoutMs, id -> { // set before anyone can poll w
+                    synchronized (this) {
+                        if (!queue.remove(w)) return; // admitted meanwhile
+                    }
+                    timedOut.increment();
+                    reject.run();
+                });
+                queue.add(w);
+                queued.increment();
+                return;
+            }
+        }
+        (admitted ? admit : reject).run();
+    }
+
+    /** Gives back a permit and takes {@code rttNanos} as a sample; {@code ok} is false for upstream failures. */
+    public void release(long rttNanos, boolean ok) {
+        synchronized (this) {
+            inFlight--;
+            adjust(rttNanos, ok);
+        }
+        dispatch();
+    }
+
+    /** Gives back a permit without a sample (the client went away, say). */
+    public void release() {
+        synchronized (this) {
+            inFlight--;
+        }
+        dispatch();
+    }
+
+    private void adjust(long rttNanos, boolean ok) {
+        if (!ok) {
+            limit = Math.max(minLimit, limit * BACKOFF);
+            return;
+        }
+        double rtt = Math.max(1, rttNanos);
+        shortRtt = shortRtt < 0 ? rtt : shortRtt + SHORT_WEIGHT * (rtt - shortRtt);
+        longRtt = longRtt < 0 ? rtt : longRtt + LONG_WEIGHT * (rtt - longRtt);
+        // after a slow spell the long average would hold the limit down for a long time; let it catch up
+        if (longRtt > 2 * shortRtt) longRtt = 0.95 * longRtt;
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+        if (gradient == 1.0 && inFlight + 1 < limit / 2) return; // not the bottleneck, nothing learned
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit + SMOOTHING * (target - limit)));
+    }
+
+    private void dispatch() {
+        while (true) {
+            Waiter w;
+            synchronized (this) {
+                if (queue.isEmpty() || inFlight >= (int) limit) return;
+                w = queue.poll();
+                inFlight++;
+            }
+            vertx.cancelTimer(w.timerId);
+            if (w.context != null) w.context.runOnContext(v -> w.admit.run());
+            else w.admit.run();
+        }
+    }
+
+    public synchronized int limit() { return (int) limit; }
+
+    public synchronized int inFlight() { return inFlight; }
+
+    public void registerMetrics(MetricsService metrics) {
+        metrics.gauge("concurrency_limit", this::limit);
+        metrics.gauge("concurrency_in_flight", this::inFlight);
+        metrics.gauge("concurrency_queued", () -> {
+            synchronized (this) {
+                return queue.size();
+            }
+        });
+        metrics.counter("concurrency_queued_total", queued::sum);
+        metrics.counter("concurrency_rejected_total", rejected::sum);
+        metrics.counter("concurrency_queue_timeouts_total", timedOut::sum);
+    }
+}
@@ -0,0 +1,322 @@
+package com.ilij4.gateway.services;
+
+import com.ilij4.gateway.config.ConfigKeys;
+import com.ilij4.gateway.log.AccessLogFormat;
+import com.ilij4.gateway.log.AccessLogger;
+import com.ilij4.gateway.rpc.BatchForwarder;
+import com.ilij4.gateway.rpc.CachePolicy;
+import com.ilij4.gateway.rpc.ChainHeadTracker;
+import com.ilij4.gateway.rpc.DiskCache;
+import com.ilij4.gateway.rpc.CircuitBreaker;
+import com.ilij4.gateway.rpc.HedgePolicy;
+import com.ilij4.gateway.rpc.LogRangeSplitter;
+import com.ilij4.gateway.rpc.MethodPolicies;
+import com.ilij4.gateway.rpc.MethodRouter;
+import com.ilij4.gateway.rpc.MicroBatcher;
+import com.ilij4.gateway.rpc.ResponseCache;
+import com.ilij4.gateway.rpc.RpcClient;
+import com.ilij4.gateway.rpc.RpcRequest;
+import com.ilij4.gateway.rpc.SingleFlight;
+import com.ilij4.gateway.rpc.TrafficBudget;
+import com.ilij4.gateway.rpc.UpstreamPool;
+import com.ilij4.gateway.ws.SubscriptionHub;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Process-wide state behind the HTTP verticles. Built once and handed to every
+ * {@code HttpVerticle} instance, so N event loops share one metrics registry, one upstream
+ * pool (and its connections), one cache and one in-flight table. Everything here is thread-safe.
+ */
+public final class GatewayServices {
+    private static final Logger log = LoggerFactory.getLogger(GatewayServices.class);
+    private static final Buffer CHAIN_ID = Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_chainId\",\"params\":[]}");
+
+    private final MetricsService metrics;
+    private final RpcClient rpcClient;
+    private final ResponseCache cache;       // null when disabled
+    private final SingleFlight flights;
+    private final BatchForwarder batches;
+    private final MicroBatcher microBatcher; // null when disabled
+    private final AccessLogger accessLog;    // null when disabled
+    private final TokenCache tokens;         // null when disabled
+    private final RateLimiter limiter;       // null when disabled
+    private final ComputeUnits computeUnits;
+    private final MethodPolicies methodPolicies;
+    private final SubscriptionHub subscriptions; // null when RPC_WS_URL is not set
+    private final ChainHeadTracker head;          // null when disabled
+    private final Compressor compressor;          // null when disabled
+    private final ConcurrencyLimiter admission;   // null when disabled
+    private final MethodRouter routes;
+    private final LogRangeSplitter logs;          // null when disabled
+
+    private GatewayServices(MetricsService metrics, RpcClient rpcClient, ResponseCache cache, SingleFlight flights,
+                            BatchForwarder batches, MicroBatcher microBatcher, AccessLogger accessLog,
+                            TokenCache tokens, RateLimiter limiter, ComputeUnits computeUnits,
+                            MethodPolicies methodPolicies, SubscriptionHub subscriptions, ChainHeadTracker head,
+                            Compressor compressor, ConcurrencyLimiter admission, MethodRouter routes,
+                            LogRangeSplitter logs) {
+        this.metrics = metrics;
+        this.rpcClient = rpcClient;
+        this.cache = cache;
+        this.flights = flights;
+        this.batches = batches;
+        this.microBatcher = microBatcher;
+        this.accessLog = accessLog;
+        this.tokens = tokens;
+        this.limiter = limiter;
+        this.computeUnits = computeUnits;
+        this.methodPolicies = methodPolicies;
+        this.subscriptions = subscriptions;
+        this.head = head;
+        this.compressor = compressor;
+        this.admission = admission;
+        this.routes = routes;
+        this.logs = logs;
+    }
+
+    public static GatewayServices create(Vertx vertx, JsonObject cfg) {
+        var metrics = new MetricsService();
+
+        var defaults = CircuitBreaker.Settings.DEFAULTS;
+        var breaker = new CircuitBreaker.Settings(
+                cfg.getInteger(ConfigKeys.CB_FAILURE_RATE_PCT, defaults.failureRatePct()),
+                cfg.getLong(ConfigKeys.CB_SLOW_CALL_MS, defaults.slowCallMs()),
+                cfg.getInteger(ConfigKeys.CB_SLOW_CALL_RATE_PCT, defaults.slowCallRatePct()),
+                cfg.getInteger(ConfigKeys.CB_MIN_CALLS, defaults.minCalls()),
+                cfg.getInteger(ConfigKeys.CB_WINDOW_SECONDS, defaults.windowSeconds()),
+                cfg.getLong(ConfigKeys.CB_OPEN_MS, defaults.openMs()),
+                cfg.getInteger(ConfigKeys.CB_HALF_OPEN_PROBES, defaults.halfOpenProbes()));
+        var transport = new RpcClient.Transport(
+                "true".equalsIgnoreCase(cfg.getString(ConfigKeys.UPSTREAM_HTTP2, "false")),
+                cfg.getInteger(ConfigKeys.UPSTREAM_POOL_SIZE, RpcClient.Transport.DEFAULTS.poolSize()),
+                cfg.getInteger(ConfigKeys.UPSTREAM_HTTP2_CONNECTIONS, RpcClient.Transport.DEFAULTS.http2Connections()),
+                cfg.getInteger(ConfigKeys.UPSTREAM_HTTP2_STREAMS, RpcClient.Transport.DEFAULTS.http2Streams()),
+                !"false".equalsIgnoreCase(cfg.getString(ConfigKeys.UPSTREAM_COMPRESSION, "true")));
+        int hedgePercentile = cfg.getInteger(ConfigKeys.HEDGE_PERCENTILE, 0);
+        HedgePolicy hedging = null;
+        if (hedgePercentile > 0) {
+            String methods = cfg.getString(ConfigKeys.HEDGE_METHODS, "");
+            hedging = new HedgePolicy(methods.isBlank() ? HedgePolicy.DEFAULT_METHODS : csv(methods),
+                    hedgePercentile,
+                    cfg.getLong(ConfigKeys.HEDGE_MIN_DELAY_MS, 5L),
+                    cfg.getInteger(ConfigKeys.HEDGE_BUDGET_PCT, 5));
+            hedging.registerMetrics(metrics); // shared by every group's client
+        }
+        var rpcClient = client(vertx, cfg, cfg.getString(ConfigKeys.RPC_URL), breaker, transport, hedging);
+        rpcClient.registerMetrics(metrics);
+
+        var methodPolicies = new MethodPolicies(
+                csv(MethodPolicies.DEFAULTS + "," + cfg.getString(ConfigKeys.RPC_METHOD_POLICIES, "")),
+                cfg.getLong(ConfigKeys.RPC_DEADLINE_MS, 20_000L),
+                cfg.getInteger(ConfigKeys.RPC_MAX_RETRIES, 3));
+
+        long headPollMs = cfg.getLong(ConfigKeys.HEAD_POLL_MS, 0L);
+        ChainHeadTracker head = null;
+        if (headPollMs > 0) {
+            head = new ChainHeadTracker(vertx, rpcClient, headPollMs, cfg.getInteger(ConfigKeys.HEAD_CACHE_MAX_ENTRIES, 10_000))
+                    .start();
+            head.registerMetrics(metrics);
+        }
+
+        int compressMinBytes = cfg.getInteger(ConfigKeys.COMPRESSION_MIN_BYTES, 1024);
+        Compressor compressor = null;
+        if (compressMinBytes > 0) {
+            compressor = new Compressor(cfg.getInteger(ConfigKeys.COMPRESSION_LEVEL, 6), compressMinBytes);
+            compressor.registerMetrics(metrics);
+        }
+
+        long cacheBytes = cfg.getLong(ConfigKeys.CACHE_MAX_BYTES, 64 * 1024 * 1024L);
+        ResponseCache cache = null;
+        if (cacheBytes > 0) {
+            cache = new ResponseCache(cacheBytes, head != null ? new CachePolicy(head::finalizedBlock) : CachePolicy.withoutFinality());
+            String diskDir = cfg.getString(ConfigKeys.DISK_CACHE_DIR, "");
+            if (!diskDir.isBlank()) {
+                DiskCache disk;
+                try {
+                    disk = new DiskCache(Path.of(diskDir), cfg.getLong(ConfigKeys.DISK_CACHE_MAX_BYTES, 1L << 30));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("cannot open disk cache in " + diskDir, e);
+                }
+                disk.registerMetrics(metrics);
+                attachDisk(vertx, rpcClient, cache, disk, 1_000);
+            }
+            if (compressor != null) cache.compression(compressor);
+            cache.registerMetrics(metrics);
+        }
+
+        long logsChunk = cfg.getLong(ConfigKeys.LOGS_CHUNK_BLOCKS, 2_000L);
+        LogRangeSplitter logs = null;
+        if (logsChunk > 0) {
+            logs = new LogRangeSplitter(logsChunk, cfg.getInteger(ConfigKeys.LOGS_PARALLELISM, 4),
+                    cfg.getLong(ConfigKeys.STREAM_MIN_BYTES, 64 * 1024L), head, cache);
+            logs.registerMetrics(metrics);
+        }
+
+        var flights = new SingleFlight();
+        flights.registerMetrics(metrics);
+
+        int chunkSize = cfg.getInteger(ConfigKeys.BATCH_CHUNK_SIZE, 50);
+        var batches = new BatchForwarder(rpcClient, chunkSize);
+
+        // every group gets its own client, so its own connections, retry budget and bulkhead
+        var routeList = new ArrayList<MethodRouter.Route>();
+        routeList.add(new MethodRouter.Route(MethodRouter.DEFAULT, rpcClient, batches));
+        for (String group : cfg.getString(ConfigKeys.UPSTREAM_GROUPS, "").split(";")) {
+            if (group.isBlank()) continue;
+            int eq = group.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("bad upstream group: " + group);
+            var client = client(vertx, cfg, group.substring(eq + 1), breaker, transport, hedging);
+            routeList.add(new MethodRouter.Route(group.substring(0, eq).trim(), client, new BatchForwarder(client, chunkSize)));
+        }
+        var maxInFlight = new HashMap<String, Integer>();
+        for (String limit : csv(cfg.getString(ConfigKeys.BULKHEAD_LIMITS, ""))) {
+            int eq = limit.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("bad bulkhead limit: " + limit);
+            maxInFlight.put(limit.substring(0, eq).trim(), Integer.parseInt(limit.substring(eq + 1).trim()));
+        }
+        var routes = new MethodRouter(routeList, csv(cfg.getString(ConfigKeys.ROUTE_RULES, "")), maxInFlight);
+        routes.registerMetrics(metrics);
+
+        long batchWindow = cfg.getLong(ConfigKeys.MICROBATCH_WINDOW_MS, 0L);
+        MicroBatcher microBatcher = null;
+        if (batchWindow > 0) {
+            microBatcher = new MicroBatcher(vertx, rpcClient, batchWindow, cfg.getInteger(ConfigKeys.MICROBATCH_MAX_SIZE, 20));
+            microBatcher.registerMetrics(metrics);
+        }
+
+        String logFormat = cfg.getString(ConfigKeys.ACCESS_LOG_FORMAT, "compact");
+        AccessLogger accessLog = null;
+        if (!"off".equalsIgnoreCase(logFormat)) {
+            accessLog = new AccessLogger(AccessLogFormat.parse(logFormat),
+                    cfg.getInteger(ConfigKeys.ACCESS_LOG_BUFFER, 8192),
+                    cfg.getDouble(ConfigKeys.ACCESS_LOG_SAMPLE, 1.0),
+                    System.out).start();
+            accessLog.registerMetrics(metrics);
+        }
+
+        long tokenEntries = cfg.getLong(ConfigKeys.JWT_CACHE_SIZE, 10_000L);
+        TokenCache tokens = null;
+        if (tokenEntries > 0) {
+            tokens = new TokenCache(tokenEntries);
+            tokens.registerMetrics(metrics);
+        }
+
+        var computeUnits = new ComputeUnits(csv(ComputeUnits.DEFAULTS + "," + cfg.getString(ConfigKeys.RATE_LIMIT_WEIGHTS, "")),
+                cfg.getInteger(ConfigKeys.RATE_LIMIT_DEFAULT_WEIGHT, 10));
+        long unitsPerSecond = cfg.getLong(ConfigKeys.RATE_LIMIT_CU_PER_SEC, 0L);
+        RateLimiter limiter = null;
+        if (unitsPerSecond > 0) {
+            long burst = cfg.getLong(ConfigKeys.RATE_LIMIT_BURST_CU, 0L);
+            limiter = new RateLimiter(unitsPerSecond, burst > 0 ? burst : unitsPerSecond * 2,
+                    cfg.getLong(ConfigKeys.RATE_LIMIT_MAX_SUBJECTS, 100_000L));
+            limiter.registerMetrics(metrics);
+        }
+
+        String wsUrl = cfg.getString(ConfigKeys.RPC_WS_URL, "");
+        SubscriptionHub subscriptions = null;
+        if (!wsUrl.isBlank()) {
+            subscriptions = new SubscriptionHub(vertx, wsUrl);
+            subscriptions.registerMetrics(metrics);
+            if (head != null) subscriptions.follow(new JsonArray().add("newHeads"), head::onNewHead);
+        }
+
+        int concurrencyMax = cfg.getInteger(ConfigKeys.CONCURRENCY_LIMIT_MAX, 1000);
+        ConcurrencyLimiter admission = null;
+        if (concurrencyMax > 0) {
+            admission = new ConcurrencyLimiter(vertx, cfg.getInteger(ConfigKeys.CONCURRENCY_LIMIT_MIN, 20), concurrencyMax,
+                    cfg.getInteger(ConfigKeys.CONCURRENCY_QUEUE_SIZE, 100), cfg.getLong(ConfigKeys.CONCURRENCY_QUEUE_MS, 50L));
+            admission.registerMetrics(metrics);
+        }
+
+        return new GatewayServices(metrics, rpcClient, cache, flights, batches, microBatcher, accessLog, tokens,
+                limiter, computeUnits, methodPolicies, subscriptions, head,
+                compressor, admission, routes, logs);
+    }
+
+    /**
+     * Puts {@code disk} behind {@code cache} once the upstream has told its chain id, so files left by
+     * an instance that served another chain are never read. Asks again, backing off, until it answers.
+     */
+    private static void attachDisk(Vertx vertx, RpcClient rpcClient, ResponseCache cache, DiskCache disk, long retryMs) {
+        var req = RpcRequest.of(CHAIN_ID).deadlineNanos(System.nanoTime() + 5_000_000_000L).maxRetries(0).build();
+        rpcClient.forward(req).onComplete(ar -> {
+            long chainId = -1;
+            try {
+                if (ar.succeeded()) chainId = Long.decode(ar.result().toJsonObject().getString("result"));
+            } catch (RuntimeException e) {
+                // not a chain id; asked again below
+            }
+            if (chainId <= 0) {
+                log.warn("disk cache waits for the upstream chain id: {}", ar.failed() ? ar.cause().getMessage() : ar.result());
+                vertx.setTimer(retryMs, t -> attachDisk(vertx, rpcClient, cache, disk, Math.min(retryMs * 2, 30_000)));
+                return;
+            }
+            try {
+                disk.bind(chainId);
+                cache.disk(disk);
+            } catch (IOException e) {
+                log.warn("disk cache disabled, cannot clear it for chain {}: {}", chainId, e.getMessage());
+            }
+        });
+    }
+
+    private static RpcClient client(Vertx vertx, JsonObject cfg, String urls, CircuitBreaker.Settings breaker,
+                                    RpcClient.Transport transport, HedgePolicy hedging) {
+        var client = new RpcClient(vertx, UpstreamPool.parse(urls, breaker),
+                cfg.getInteger(ConfigKeys.RPC_TIMEOUT_MS, 10_000), transport)
+                .streamMinBytes(cfg.getLong(ConfigKeys.STREAM_MIN_BYTES, 64 * 1024L));
+        if (hedging != null) client.hedging(hedging);
+        int retryBudgetPct = cfg.getInteger(ConfigKeys.RETRY_BUDGET_PCT, 20);
+        if (retryBudgetPct > 0) {
+            int reserve = cfg.getInteger(ConfigKeys.RETRY_BUDGET_RESERVE, 100);
+            client.retryBudget(new TrafficBudget(retryBudgetPct, reserve, reserve));
+        }
+        return client;
+    }
+
+    private static List<String> csv(String value) {
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(v -> !v.isEmpty())
+                .toList();
+    }
+
+    /** Flushes what is still buffered (access log, disk cache), drops the upstream WebSocket and stops polling on shutdown. */
+    public void close() {
+        if (accessLog != null) accessLog.close();
+        if (cache != null) cache.close();
+        if (subscriptions != null) subscriptions.close();
+        if (head != null) head.stop();
+    }
+
+    public MetricsService metrics() { return metrics; }
+    public RpcClient rpcClient() { return rpcClient; }
+    public ResponseCache cache() { return cache; }
+    public SingleFlight flights() { return flights; }
+    public BatchForwarder batches() { return batches; }
+    public MicroBatcher microBatcher() { return microBatcher; }
+    public AccessLogger accessLog() { return accessLog; }
+    public TokenCache tokens() { return tokens; }
+    public RateLimiter limiter() { return limiter; }
+    public ComputeUnits computeUnits() { return computeUnits; }
+    public MethodPolicies methodPolicies() { return methodPolicies; }
+    public SubscriptionHub subscriptions() { return subscriptions; }
+    public ChainHeadTracker head() { return head; }
+    public Compressor compressor() { return compressor; }
+    public ConcurrencyLimiter admission() { return admission; }
+    public MethodRouter routes() { return routes; }
+    public LogRangeSplitter logs() { return logs; }
+}
@@ -0,0 +1,70 @@
+package com.ilij4.gateway.services;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear latency histogram in microseconds: every power of two is split into 8 equal
+ * buckets, so any recorded value is within 12.5% of its bucket bounds. Recording is an index
+ * computation and one atomic increment, with no allocation. Values above ~38 h are clamped.
+ */
+public final class Histogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int MAX_EXP = 37;
+    private static final long MAX_VALUE = (1L << (MAX_EXP + 1)) - 1;
+    static final int BUCKETS = ((MAX_EXP - SUB_BITS + 1) << SUB_BITS) + SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+
+    public void recordNanos(long nanos) {
+        record(nanos / 1_000);
+    }
+
+    public void record(long micros) {
+        long v = Math.max(0, Math.min(micros, MAX_VALUE));
+        counts.incrementAndGet(index(v));
+        count.increment();
+        sumMicros.add(v);
+    }
+
+    public long count() { return count.sum(); }
+
+    public long sumMicros() { return sumMicros.sum(); }
+
+    /** Upper bound of the bucket holding the {@code q}-quantile, in microseconds; 0 when empty. */
+    public long quantile(double q) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += counts.get(i);
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return lowerBound(i + 1) - 1;
+        }
+        return MAX_VALUE;
+    }
+
+    /** Recorded values below {@code 2^exp} microseconds (a bucket boundary, so exact). */
+    public long countBelowPowerOfTwo(int exp) {
+        int end = exp < SUB_BITS ? (1 << exp) : index(1L << exp);
+        long n = 0;
+        for (int i = 0; i < end; i++) n += counts.get(i);
+        return n;
+    }
+
+    static int index(long v) {
+        if (v < SUB) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        return ((exp - SUB_BITS + 1) << SUB_BITS) + (int) ((v >>> (exp - SUB_BITS)) & (SUB - 1));
+    }
+
+    static long lowerBound(int i) {
+        if (i < SUB) return i;
+        int exp = (i >> SUB_BITS) + SUB_BITS - 1;
+        return (1L << exp) + ((long) (i & (SUB - 1)) << (exp - SUB_BITS));
+    }
+}
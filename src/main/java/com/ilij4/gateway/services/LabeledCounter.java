@@ -0,0 +1,38 @@
+package com.ilij4.gateway.services;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A counter split by one label (status code, upstream, ...). */
+public final class LabeledCounter {
+    private static final String[] CODES = new String[600];
+    static {
+        for (int i = 0; i < CODES.length; i++) CODES[i] = Integer.toString(i);
+    }
+
+    private final String label;
+    private final ConcurrentHashMap<String, LongAdder> values = new ConcurrentHashMap<>();
+
+    public LabeledCounter(String label) {
+        this.label = label;
+    }
+
+    public String label() { return label; }
+
+    public void inc(String value) {
+        adder(value).increment();
+    }
+
+    /** Status-code flavour: no string is built for codes below 600. */
+    public void inc(int code) {
+        inc(code >= 0 && code < CODES.length ? CODES[code] : Integer.toString(code));
+    }
+
+    /** The counter behind {@code value}, for callers that know their label up front. */
+    public LongAdder adder(String value) {
+        return values.computeIfAbsent(value, k -> new LongAdder());
+    }
+
+    public Map<String, LongAdder> values() { return values; }
+}
@@ -3,22 +3,214 @@ package com.ilij4.gateway.services;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
 import io.vertx.core.json.JsonObject;
 
 public class MetricsService {
-    private final ConcurrentHashMap<String, LongAdder> perMethod = new ConcurrentHashMap<>();
+    private static final int MAX_LATENCY_SERIES = 256; // method names come from clients
+    private static final String OTHER = "other";
+
+    /** The {@code label="value"} pair a view adds to what is registered through it. */
+    private record Scope(String label, String value) {}
+    private static final Scope NONE = new Scope(null, null);
+
+    private final Scope scope;
+    private final ConcurrentHashMap<String, LongAdder> perMethod;
+    // series by name, then by scope, so a family shared by several views is exported once
+    private final ConcurrentHashMap<String, Map<Scope, LongSupplier>> gauges;
+    private final ConcurrentHashMap<String, Map<Scope, LongSupplier>> counters;
+    private final ConcurrentHashMap<String, Map<Scope, LabeledCounter>> labeled;
+    private final ConcurrentHashMap<String, Histogram> latency;
+
+    private final LongAdder inflight;
+    private final LongAdder bytesIn;
+    private final LongAdder bytesOut;
+
+    public MetricsService() {
+        scope = NONE;
+        perMethod = new ConcurrentHashMap<>();
+        gauges = new ConcurrentHashMap<>();
+        counters = new ConcurrentHashMap<>();
+        labeled = new ConcurrentHashMap<>();
+        latency = new ConcurrentHashMap<>();
+        inflight = new LongAdder();
+        bytesIn = new LongAdder();
+        bytesOut = new LongAdder();
+        gauge("rpc_inflight", inflight::sum);
+        counter("rpc_bytes_in_total", bytesIn::sum);
+        counter("rpc_bytes_out_total", bytesOut::sum);
+    }
+
+    private MetricsService(MetricsService root, Scope scope) {
+        this.scope = scope;
+        perMethod = root.perMethod;
+        gauges = root.gauges;
+        counters = root.counters;
+        labeled = root.labeled;
+        latency = root.latency;
+        inflight = root.inflight;
+        bytesIn = root.bytesIn;
+        bytesOut = root.bytesOut;
+    }
+
+    /**
+     * A view whose gauges and counters carry {@code label="value"}, for components that exist once
+     * per upstream group and so register the same names more than once. Everything else is shared.
+     */
+    public MetricsService labelled(String label, String value) {
+        return new MetricsService(this, new Scope(label, value));
+    }
 
     public void inc(String method) {
         if (method == null || method.isBlank()) return;
         perMethod.computeIfAbsent(method, k -> new LongAdder()).increment();
     }
 
+    /** Exposes a value owned by another component (cache stats, pool sizes, ...). */
+    public void gauge(String name, LongSupplier value) {
+        gauges.computeIfAbsent(name, k -> new ConcurrentHashMap<>()).put(scope, value);
+    }
+
+    /** Like {@link #gauge} but exported as a monotonic counter. */
+    public void counter(String name, LongSupplier value) {
+        counters.computeIfAbsent(name, k -> new ConcurrentHashMap<>()).put(scope, value);
+    }
+
+    public void counter(String name, LabeledCounter value) {
+        labeled.computeIfAbsent(name, k -> new ConcurrentHashMap<>()).put(scope, value);
+    }
+
+    public void requestStarted(long requestBytes) {
+        inflight.increment();
+        bytesIn.add(requestBytes);
+    }
+
+    public void requestEnded(long responseBytes) {
+        inflight.decrement();
+        bytesOut.add(responseBytes);
+    }
+
+    /** Time from request arrival to the answer for {@code method}. */
+    public void observe(String method, long nanos) {
+        if (method == null) return;
+        Histogram h = latency.get(method);
+        if (h == null) {
+            h = latency.size() < MAX_LATENCY_SERIES
+                    ? latency.computeIfAbsent(method, k -> new Histogram())
+                    : latency.computeIfAbsent(OTHER, k -> new Histogram());
+        }
+        h.recordNanos(nanos);
+    }
+
     public JsonObject asJson() {
         var methods = new JsonObject();
         for (Map.Entry<String, LongAdder> e : perMethod.entrySet()) {
             methods.put(e.getKey(), e.getValue().sum());
         }
-        return new JsonObject().put("methods", methods);
+        var root = new JsonObject().put("methods", methods);
+        // labelled series go under by_<label>.<value>, so plain names keep plain values
+        for (Map.Entry<String, Map<Scope, LongSupplier>> e : gauges.entrySet()) {
+            e.getValue().forEach((s, v) -> section(root, s, "gauges").put(e.getKey(), v.getAsLong()));
+        }
+        section(root, NONE, "counters");
+        for (Map.Entry<String, Map<Scope, LongSupplier>> e : counters.entrySet()) {
+            e.getValue().forEach((s, v) -> section(root, s, "counters").put(e.getKey(), v.getAsLong()));
+        }
+        for (Map.Entry<String, Map<Scope, LabeledCounter>> e : labeled.entrySet()) {
+            e.getValue().forEach((s, counter) -> {
+                var values = new JsonObject();
+                counter.values().forEach((k, v) -> values.put(k, v.sum()));
+                section(root, s, "counters").put(e.getKey(), values);
+            });
+        }
+
+        var l = new JsonObject();
+        for (Map.Entry<String, Histogram> e : latency.entrySet()) {
+            Histogram h = e.getValue();
+            l.put(e.getKey(), new JsonObject()
+                    .put("count", h.count())
+                    .put("p50_us", h.quantile(0.50))
+                    .put("p90_us", h.quantile(0.90))
+                    .put("p99_us", h.quantile(0.99)));
+        }
+        root.put("latency", l);
+        return root;
+    }
+
+    private static JsonObject section(JsonObject root, Scope s, String kind) {
+        JsonObject parent = root;
+        if (s != NONE) {
+            parent = child(child(root, "by_" + s.label()), s.value());
+        }
+        return child(parent, kind);
+    }
+
+    private static JsonObject child(JsonObject parent, String key) {
+        JsonObject c = parent.getJsonObject(key);
+        if (c == null) parent.put(key, c = new JsonObject());
+        return c;
+    }
+
+    /** Prometheus text exposition format (version 0.0.4). */
+    public String asPrometheus() {
+        var sb = new StringBuilder(4096);
+
+        sb.append("# TYPE gateway_rpc_requests_total counter\n");
+        for (Map.Entry<String, LongAdder> e : perMethod.entrySet()) {
+            sample(sb, "gateway_rpc_requests_total", NONE, "method", e.getKey(), e.getValue().sum());
+        }
+        for (Map.Entry<String, Map<Scope, LongSupplier>> e : counters.entrySet()) {
+            String name = "gateway_" + e.getKey();
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            e.getValue().forEach((s, v) -> sample(sb, name, s, null, null, v.getAsLong()));
+        }
+        for (Map.Entry<String, Map<Scope, LabeledCounter>> e : labeled.entrySet()) {
+            String name = "gateway_" + e.getKey();
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            e.getValue().forEach((s, counter) -> counter.values()
+                    .forEach((k, v) -> sample(sb, name, s, counter.label(), k, v.sum())));
+        }
+        for (Map.Entry<String, Map<Scope, LongSupplier>> e : gauges.entrySet()) {
+            String name = "gateway_" + e.getKey();
+            sb.append("# TYPE ").append(name).append(" gauge\n");
+            e.getValue().forEach((s, v) -> sample(sb, name, s, null, null, v.getAsLong()));
+        }
+
+        // powers of two from 64 us to ~67 s; exact because they are bucket boundaries
+        sb.append("# TYPE gateway_rpc_latency_seconds histogram\n");
+        for (Map.Entry<String, Histogram> e : latency.entrySet()) {
+            String method = escape(e.getKey());
+            Histogram h = e.getValue();
+            for (int exp = 6; exp <= 26; exp++) {
+                sb.append("gateway_rpc_latency_seconds_bucket{method=\"").append(method)
+                        .append("\",le=\"").append((1L << exp) / 1e6).append("\"} ")
+                        .append(h.countBelowPowerOfTwo(exp)).append('\n');
+            }
+            long count = h.count();
+            sb.append("gateway_rpc_latency_seconds_bucket{method=\"").append(method).append("\",le=\"+Inf\"} ")
+                    .append(count).append('\n');
+            sb.append("gateway_rpc_latency_seconds_sum{method=\"").append(method).append("\"} ")
+                    .append(h.sumMicros() / 1e6).append('\n');
+            sb.append("gateway_rpc_latency_seconds_count{method=\"").append(method).append("\"} ")
+                    .append(count).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void sample(StringBuilder sb, String name, Scope s, String label, String value, long n) {
+        sb.append(name);
+        if (s != NONE || label != null) {
+            sb.append('{');
+            if (s != NONE) sb.append(s.label()).append("=\"").append(escape(s.value())).append('"');
+            if (s != NONE && label != null) sb.append(',');
+            if (label != null) sb.append(label).append("=\"").append(escape(value)).append('"');
+            sb.append('}');
+        }
+        sb.append(' ').append(n).append('\n');
+    }
+
+    private static String escape(String v) {
+        return v.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
     }
 
     public Map<String, LongAdder> raw() { return perMethod; }
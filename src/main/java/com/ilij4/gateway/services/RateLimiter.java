@@ -0,0 +1,55 @@
+package com.ilij4.gateway.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket per subject, refilled at {@code unitsPerSecond} up to {@code burst} units.
+ * Each bucket is a single {@link AtomicLong} holding its theoretical arrival time (GCRA), so a
+ * charge is one CAS with no lock and no timer. Subjects live in a bounded cache and are
+ * forgotten once idle long enough to have refilled completely.
+ */
+public final class RateLimiter {
+    private final long nanosPerUnit;
+    private final long burstNanos;
+    private final Cache<String, AtomicLong> buckets;
+
+    private final LongAdder rejected = new LongAdder();
+
+    public RateLimiter(long unitsPerSecond, long burst, long maxSubjects) {
+        this.nanosPerUnit = Math.max(1, 1_000_000_000L / unitsPerSecond);
+        this.burstNanos = Math.max(1, burst) * nanosPerUnit;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxSubjects)
+                .expireAfterAccess(Duration.ofNanos(burstNanos))
+                .build();
+    }
+
+    /**
+     * Charges {@code units} to {@code subject}. Returns 0 if allowed, else the nanoseconds until
+     * the same charge would fit. A charge larger than the burst is capped to it.
+     */
+    public long tryAcquire(String subject, long units) {
+        AtomicLong tat = buckets.get(subject, k -> new AtomicLong(Long.MIN_VALUE)); // full bucket
+        long cost = Math.min(units * nanosPerUnit, burstNanos);
+        long now = System.nanoTime();
+        while (true) {
+            long current = tat.get();
+            long next = Math.max(current, now - burstNanos) + cost;
+            if (next > now) {
+                rejected.increment();
+                return next - now;
+            }
+            if (tat.compareAndSet(current, next)) return 0;
+        }
+    }
+
+    public void registerMetrics(MetricsService metrics) {
+        metrics.counter("ratelimit_rejected_total", rejected::sum);
+        metrics.gauge("ratelimit_subjects", buckets::estimatedSize);
+    }
+}
@@ -0,0 +1,75 @@
+package com.ilij4.gateway.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.vertx.ext.auth.User;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Bearer tokens that already passed signature and claim checks, keyed by their SHA-256
+ * digest (the raw token is never stored). Each entry dies at the token's {@code exp}.
+ */
+public final class TokenCache {
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /** A verified token: its user, and why the iss/aud check refused it (null if it passed). */
+    public record Entry(User user, String claimsError, long expiresAtNanos) {}
+
+    private final Cache<ByteBuffer, Entry> cache;
+
+    public TokenCache(long maxEntries) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfter(new Expiry<ByteBuffer, Entry>() {
+                    @Override
+                    public long expireAfterCreate(ByteBuffer key, Entry e, long now) {
+                        return Math.max(0, e.expiresAtNanos() - now);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(ByteBuffer key, Entry e, long now, long current) {
+                        return expireAfterCreate(key, e, now);
+                    }
+
+                    @Override
+                    public long expireAfterRead(ByteBuffer key, Entry e, long now, long current) {
+                        return current;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    public static ByteBuffer digest(String token) {
+        return ByteBuffer.wrap(SHA256.get().digest(token.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    public Entry lookup(ByteBuffer digest) {
+        return cache.getIfPresent(digest);
+    }
+
+    /** Caches the outcome until {@code exp} (epoch seconds); tokens without {@code exp} are not cached. */
+    public void store(ByteBuffer digest, User user, String claimsError, Long exp) {
+        if (exp == null) return;
+        long ttlNanos = (exp * 1000 - System.currentTimeMillis()) * 1_000_000;
+        if (ttlNanos <= 0) return;
+        cache.put(digest, new Entry(user, claimsError, System.nanoTime() + ttlNanos));
+    }
+
+    public void registerMetrics(MetricsService metrics) {
+        metrics.counter("jwt_cache_hits_total", () -> cache.stats().hitCount());
+        metrics.counter("jwt_cache_misses_total", () -> cache.stats().missCount());
+        metrics.gauge("jwt_cache_size", cache::estimatedSize);
+    }
+}
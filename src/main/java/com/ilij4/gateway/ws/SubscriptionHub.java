@@ -0,0 +1,347 @@
+package com.ilij4.gateway.ws;
+
+import com.ilij4.gateway.rpc.RpcCall;
+import com.ilij4.gateway.services.Histogram;
+import com.ilij4.gateway.services.MetricsService;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.WebSocket;
+import io.vertx.core.http.WebSocketClient;
+import io.vertx.core.http.WebSocketClientOptions;
+import io.vertx.core.http.WebSocketConnectOptions;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * One upstream WebSocket shared by every client. Each distinct {@code eth_subscribe} request
+ * (same params, canonicalised like cache keys) is one upstream subscription, however many clients
+ * asked for it; every notification is encoded once and handed to each subscriber's session.
+ * When the upstream socket drops, it reconnects with backoff and subscribes every topic again;
+ * clients keep their ids, notifications sent during the gap are lost. A topic the node refuses
+ * to take back is dropped and its subscribers are told, so they can subscribe again.
+ */
+public final class SubscriptionHub {
+    private static final Logger log = LoggerFactory.getLogger(SubscriptionHub.class);
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    private final Vertx vertx;
+    private final WebSocketClient client;
+    private final String url;
+
+    // guarded by this
+    private final Map<String, Topic> topics = new HashMap<>();
+    private final Map<String, Topic> byUpstreamId = new HashMap<>();
+    private final Map<Long, Promise<Object>> pending = new HashMap<>();
+    private WebSocket ws;
+    private Future<WebSocket> connecting;
+    private long nextId;
+    private long backoffMs = 500;
+
+    private final LongAdder notifications = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final LongAdder lostTopics = new LongAdder();
+    final LongAdder framesSent = new LongAdder();
+    final LongAdder slowConsumersClosed = new LongAdder();
+    final LongAdder sessions = new LongAdder();
+    final LongAdder subscriptions = new LongAdder();
+    final Histogram fanOutLag = new Histogram();
+
+    public SubscriptionHub(Vertx vertx, String url) {
+        this.vertx = vertx;
+        this.url = url;
+        this.client = vertx.createWebSocketClient(new WebSocketClientOptions()
+                .setMaxMessageSize(16 * 1024 * 1024) // a logs notification can carry a lot
+                .setConnectTimeout(5_000));
+    }
+
+    /** Gets every notification of a subscription, on whatever thread read it from the upstream. */
+    interface Listener {
+        void deliver(String subscriptionId, String result, long receivedNanos);
+    }
+
+    /**
+     * An interest in one topic; {@code id} is the subscription id its client sees. {@code onLost}
+     * runs, on the hub's thread, if the node will not resubscribe the topic after a reconnect.
+     */
+    static final class Subscription {
+        final String id;
+        final Listener listener;
+        final Consumer<Throwable> onLost;
+        Topic topic;
+
+        Subscription(String id, Listener listener, Consumer<Throwable> onLost) {
+            this.id = id;
+            this.listener = listener;
+            this.onLost = onLost;
+        }
+    }
+
+    private static final class Topic {
+        final String key;
+        final JsonArray params;
+        final Set<Subscription> subscribers = new LinkedHashSet<>();
+        final Promise<Void> ready = Promise.promise();
+        String upstreamId;
+        boolean subscribing;
+
+        Topic(String key, JsonArray params) {
+            this.key = key;
+            this.params = params;
+        }
+    }
+
+    /** Completes once the upstream subscription exists; fails with the node's error if it refused. */
+    Future<Void> subscribe(JsonArray params, Subscription sub) {
+        String key = new RpcCall(null, "eth_subscribe", params).key();
+        Topic topic;
+        boolean created = false;
+        synchronized (this) {
+            topic = topics.get(key);
+            if (topic == null) {
+                topic = new Topic(key, params);
+                topics.put(key, topic);
+                created = true;
+            }
+            topic.subscribers.add(sub);
+            sub.topic = topic;
+        }
+        if (created) {
+            Topic t = topic;
+            subscribeUpstream(t).onFailure(err -> {
+                synchronized (this) {
+                    topics.remove(t.key, t);
+                    t.subscribers.clear();
+                }
+                t.ready.tryFail(err);
+            });
+        }
+        return topic.ready.future();
+    }
+
+    /**
+     * Subscribes on the gateway's own behalf: {@code onResult} gets the {@code result} of every
+     * notification, kept across reconnects. A refused or lost subscription is tried again every few seconds.
+     */
+    public void follow(JsonArray params, Consumer<String> onResult) {
+        Consumer<Throwable> retry = err -> {
+            log.warn("could not subscribe to {}: {}", params.encode(), err.getMessage());
+            vertx.setTimer(5_000, t -> follow(params, onResult));
+        };
+        subscribe(params, new Subscription("gateway", (id, result, receivedNanos) -> onResult.accept(result), retry))
+                .onFailure(retry::accept);
+    }
+
+    void unsubscribe(Subscription sub) {
+        Topic t = sub.topic;
+        if (t == null) return;
+        String upstreamId = null;
+        synchronized (this) {
+            t.subscribers.remove(sub);
+            if (!t.subscribers.isEmpty() || topics.get(t.key) != t) return;
+            topics.remove(t.key);
+            if (t.upstreamId != null) {
+                byUpstreamId.remove(t.upstreamId);
+                upstreamId = t.upstreamId;
+            }
+        }
+        if (upstreamId != null) call("eth_unsubscribe", new JsonArray().add(upstreamId));
+    }
+
+    private Future<Void> subscribeUpstream(Topic t) {
+        synchronized (this) {
+            if (t.subscribing) return t.ready.future();
+            t.subscribing = true;
+        }
+        return call("eth_subscribe", t.params).andThen(ar -> {
+            synchronized (this) {
+                t.subscribing = false;
+            }
+        }).compose(result -> {
+            if (!(result instanceof String id)) {
+                return Future.failedFuture(new UpstreamError(
+                        new JsonObject().put("code", -32603).put("message", "unexpected eth_subscribe result")));
+            }
+            boolean orphan;
+            synchronized (this) {
+                orphan = topics.get(t.key) != t; // every client left while we waited
+                if (!orphan) {
+                    t.upstreamId = id;
+                    byUpstreamId.put(id, t);
+                }
+            }
+            if (orphan) call("eth_unsubscribe", new JsonArray().add(id));
+            t.ready.tryComplete();
+            return Future.succeededFuture();
+        });
+    }
+
+    /** Sends a request on the upstream socket; the future gets {@code result}, or fails with {@code error}. */
+    private Future<Object> call(String method, JsonArray params) {
+        return connection().compose(socket -> {
+            Promise<Object> p = Promise.promise();
+            long id;
+            synchronized (this) {
+                id = ++nextId;
+                pending.put(id, p);
+            }
+            var req = new JsonObject().put("jsonrpc", "2.0").put("id", id).put("method", method).put("params", params);
+            socket.writeTextMessage(req.encode()).onFailure(err -> {
+                synchronized (this) {
+                    pending.remove(id);
+                }
+                p.tryFail(err);
+            });
+            return p.future();
+        });
+    }
+
+    private synchronized Future<WebSocket> connection() {
+        if (ws != null) return Future.succeededFuture(ws);
+        if (connecting != null) return connecting;
+        connecting = client.connect(new WebSocketConnectOptions().setAbsoluteURI(url))
+                .onComplete(ar -> {
+                    synchronized (this) {
+                        connecting = null;
+                        if (ar.succeeded()) {
+                            ws = ar.result();
+                            backoffMs = 500;
+                        }
+                    }
+                    if (ar.succeeded()) {
+                        ar.result().textMessageHandler(this::onMessage);
+                        ar.result().closeHandler(v -> onUpstreamClosed(ar.result()));
+                    } else {
+                        log.warn("upstream websocket {} unreachable: {}", url, ar.cause().getMessage());
+                        onUpstreamClosed(null);
+                    }
+                });
+        return connecting;
+    }
+
+    private void onUpstreamClosed(WebSocket closed) {
+        List<Promise<Object>> failed;
+        boolean resubscribe;
+        long delay;
+        synchronized (this) {
+            if (closed != null && ws != closed) return;
+            ws = null;
+            failed = new ArrayList<>(pending.values());
+            pending.clear();
+            byUpstreamId.clear();
+            for (Topic t : topics.values()) t.upstreamId = null;
+            resubscribe = !topics.isEmpty();
+            delay = backoffMs;
+            backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+        }
+        for (Promise<Object> p : failed) p.tryFail("upstream websocket closed");
+        if (resubscribe) vertx.setTimer(delay, t -> resubscribeAll());
+    }
+
+    private void resubscribeAll() {
+        List<Topic> all = new ArrayList<>();
+        synchronized (this) {
+            for (Topic t : topics.values()) if (t.upstreamId == null) all.add(t);
+        }
+        if (all.isEmpty()) return;
+        reconnects.increment();
+        for (Topic t : all) {
+            // a dropped socket schedules another round; a refusal on a live one would never be retried
+            subscribeUpstream(t).onFailure(err -> {
+                if (err instanceof UpstreamError) lose(t, err);
+            });
+        }
+    }
+
+    /** Forgets a topic the node no longer accepts, so the next subscriber asks it afresh. */
+    private void lose(Topic t, Throwable cause) {
+        List<Subscription> lost;
+        synchronized (this) {
+            if (topics.get(t.key) != t) return;
+            topics.remove(t.key);
+            lost = new ArrayList<>(t.subscribers);
+            t.subscribers.clear();
+        }
+        log.warn("upstream refused to subscribe {} again: {}", t.key, cause.getMessage());
+        lostTopics.increment();
+        for (Subscription s : lost) s.onLost.accept(cause);
+    }
+
+    private void onMessage(String text) {
+        JsonObject msg;
+        try {
+            msg = new JsonObject(text);
+        } catch (RuntimeException e) {
+            log.warn("unparseable message from upstream websocket");
+            return;
+        }
+        if ("eth_subscription".equals(msg.getString("method"))) {
+            long received = System.nanoTime();
+            JsonObject params = msg.getJsonObject("params");
+            if (params == null) return;
+            List<Subscription> targets;
+            synchronized (this) {
+                Topic t = byUpstreamId.get(params.getString("subscription"));
+                if (t == null) return;
+                targets = new ArrayList<>(t.subscribers);
+            }
+            notifications.increment();
+            String result = Json.encode(params.getValue("result")); // once, whatever the number of clients
+            for (Subscription s : targets) s.listener.deliver(s.id, result, received);
+            return;
+        }
+        if (msg.getValue("id") instanceof Number n) {
+            Promise<Object> p;
+            synchronized (this) {
+                p = pending.remove(n.longValue());
+            }
+            if (p == null) return;
+            JsonObject error = msg.getJsonObject("error");
+            if (error != null) p.tryFail(new UpstreamError(error));
+            else p.tryComplete(msg.getValue("result"));
+        }
+    }
+
+    /** The node answered a subscription request with a JSON-RPC error. */
+    static final class UpstreamError extends RuntimeException {
+        final JsonObject error;
+
+        UpstreamError(JsonObject error) {
+            super(error.getString("message", "upstream error"));
+            this.error = error;
+        }
+    }
+
+    public void registerMetrics(MetricsService metrics) {
+        metrics.gauge("ws_connections", sessions::sum);
+        metrics.gauge("ws_subscriptions", subscriptions::sum);
+        metrics.gauge("ws_upstream_subscriptions", () -> {
+            synchronized (this) {
+                return topics.size();
+            }
+        });
+        metrics.counter("ws_notifications_total", notifications::sum);
+        metrics.counter("ws_frames_sent_total", framesSent::sum);
+        metrics.counter("ws_slow_consumers_closed_total", slowConsumersClosed::sum);
+        metrics.counter("ws_upstream_reconnects_total", reconnects::sum);
+        metrics.counter("ws_upstream_subscriptions_lost_total", lostTopics::sum);
+        metrics.gauge("ws_fanout_lag_p50_us", () -> fanOutLag.quantile(0.50));
+        metrics.gauge("ws_fanout_lag_p99_us", () -> fanOutLag.quantile(0.99));
+    }
+
+    public Future<Void> close() {
+        return client.close();
+    }
+}
@@ -0,0 +1,292 @@
+package com.ilij4.gateway.ws;
+
+import com.ilij4.gateway.rpc.MethodPolicies;
+import com.ilij4.gateway.rpc.MethodRouter;
+import com.ilij4.gateway.rpc.RpcCall;
+import com.ilij4.gateway.rpc.RpcClient;
+import com.ilij4.gateway.rpc.RpcRequest;
+import com.ilij4.gateway.services.ComputeUnits;
+import com.ilij4.gateway.services.ConcurrencyLimiter;
+import com.ilij4.gateway.services.MetricsService;
+import com.ilij4.gateway.services.RateLimiter;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One client WebSocket. {@code eth_subscribe}/{@code eth_unsubscribe} go to the
+ * {@link SubscriptionHub}; every other call is forwarded over HTTP like a {@code /rpc} request,
+ * on the route its method maps to. Each message is held to the same limits as a {@code /rpc}
+ * request: it is charged to the subject's rate limit, batches are capped at {@code maxBatchSize},
+ * and forwarded calls take an admission permit; at most {@code maxInFlight} of them are pending
+ * per connection. A message over a limit is answered with a -32005 error.
+ * Everything written to the client passes through a queue of at most {@code maxQueued} frames
+ * in front of the socket's own write buffer. A client that lets it fill up is disconnected
+ * with 1013 (try again later): dropping notifications would leave it with silent gaps.
+ * All state is confined to the socket's event loop.
+ */
+public final class WsSession {
+    private record Frame(String text, long receivedNanos) {}
+
+    private final ServerWebSocket ws;
+    private final Context context;
+    private final SubscriptionHub hub;
+    private final MethodRouter routes;
+    private final MethodPolicies policies;
+    private final MetricsService metrics;
+    private final int maxQueued;
+    private final int maxSubscriptions;
+    private final int maxInFlight;
+    private final int maxBatchSize;
+    private String subject = "";
+    private RateLimiter limiter;          // null: not rate limited
+    private ComputeUnits units;
+    private ConcurrencyLimiter admission; // null: no admission control
+
+    private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+    private final Map<String, SubscriptionHub.Subscription> subscriptions = new HashMap<>();
+    private int inFlight;
+    private boolean closed;
+
+    public WsSession(ServerWebSocket ws, SubscriptionHub hub, MethodRouter routes, MethodPolicies policies,
+                     MetricsService metrics, int maxQueued, int maxSubscriptions, int maxInFlight, int maxBatchSize) {
+        this.ws = ws;
+        this.context = Vertx.currentContext();
+        this.hub = hub;
+        this.routes = routes;
+        this.policies = policies;
+        this.metrics = metrics;
+        this.maxQueued = maxQueued;
+        this.maxSubscriptions = maxSubscriptions;
+        this.maxInFlight = maxInFlight;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /** Charges every message to {@code subject} (the token's {@code sub}) in {@code units}. */
+    public WsSession rateLimit(String subject, RateLimiter limiter, ComputeUnits units) {
+        this.subject = subject != null ? subject : "";
+        this.limiter = limiter;
+        this.units = units;
+        return this;
+    }
+
+    public WsSession admission(ConcurrencyLimiter admission) {
+        this.admission = admission;
+        return this;
+    }
+
+    public void start() {
+        hub.sessions.increment();
+        ws.textMessageHandler(this::onText);
+        ws.drainHandler(v -> flush());
+        ws.closeHandler(v -> onClose());
+    }
+
+    private void onText(String text) {
+        Object parsed;
+        try {
+            parsed = Json.decodeValue(text);
+        } catch (DecodeException e) {
+            send(RpcCall.error(null, -32700, "parse error").toString());
+            return;
+        }
+        if (parsed instanceof JsonObject call) {
+            String method = call.getString("method");
+            metrics.inc(method);
+            if (!charge(call.getValue("id"), List.of(method != null ? method : ""))) return;
+            if ("eth_subscribe".equals(method)) {
+                subscribe(call);
+            } else if ("eth_unsubscribe".equals(method)) {
+                unsubscribe(call);
+            } else {
+                forward(text, call.getValue("id"), policies.of(method), method);
+            }
+        } else if (parsed instanceof JsonArray batch && !batch.isEmpty()) {
+            if (batch.size() > maxBatchSize) {
+                send(RpcCall.error(null, -32600, "invalid request: batch larger than " + maxBatchSize).toString());
+                return;
+            }
+            List<String> methods = batch.stream().map(o -> o instanceof JsonObject c ? c.getString("method") : null).toList();
+            if (!charge(null, methods)) return;
+            // subscriptions are not batched; the default route's node answers everything else as-is
+            forward(text, null, policies.of(methods), null);
+        } else {
+            send(RpcCall.error(null, -32600, "invalid request").toString());
+        }
+    }
+
+    /** Charges a message to the subject's rate limit; false (with the error sent) when it is over. */
+    private boolean charge(Object id, List<String> methods) {
+        if (limiter == null || limiter.tryAcquire(subject, units.of(methods)) == 0) return true;
+        send(RpcCall.error(id, -32005, "rate limit exceeded").toString());
+        return false;
+    }
+
+    private void forward(String text, Object id, MethodPolicies.Policy policy, String method) {
+        if (inFlight >= maxInFlight) {
+            send(RpcCall.error(id, -32005, "too many requests in flight on this connection").toString());
+            return;
+        }
+        inFlight++;
+        if (admission == null) {
+            exchange(text, id, policy, method).onComplete(ar -> inFlight--);
+            return;
+        }
+        admission.acquire(() -> {
+            if (closed) {
+                inFlight--;
+                admission.release();
+                return;
+            }
+            long start = System.nanoTime();
+            exchange(text, id, policy, method).onComplete(ar -> {
+                inFlight--;
+                admission.release(System.nanoTime() - start, ar.succeeded());
+            });
+        }, () -> {
+            inFlight--;
+            send(RpcCall.error(id, -32005, "server overloaded, retry later").toString());
+        });
+    }
+
+    private Future<Buffer> exchange(String text, Object id, MethodPolicies.Policy policy, String method) {
+        var req = RpcRequest.of(Buffer.buffer(text))
+                .deadlineNanos(System.nanoTime() + policy.deadlineMs() * 1_000_000)
+                .maxRetries(policy.maxRetries())
+                .method(method)
+                .build();
+        return routes.of(method).client().forward(req).onComplete(ar -> {
+            if (ar.succeeded()) {
+                send(ar.result().toString());
+            } else if (ar.cause() instanceof RpcClient.UpstreamException ue && ue.body() != null && !ue.body().isBlank()) {
+                send(ue.body());
+            } else {
+                send(RpcCall.error(id, -32000, "rpc error: " + ar.cause().getMessage()).toString());
+            }
+        });
+    }
+
+    private void subscribe(JsonObject call) {
+        Object reqId = call.getValue("id");
+        if (!(call.getValue("params") instanceof JsonArray params) || params.isEmpty() || !(params.getValue(0) instanceof String)) {
+            send(RpcCall.error(reqId, -32602, "invalid params").toString());
+            return;
+        }
+        if (subscriptions.size() >= maxSubscriptions) {
+            send(RpcCall.error(reqId, -32005, "too many subscriptions on this connection").toString());
+            return;
+        }
+        String id;
+        do {
+            id = "0x" + Long.toHexString(ThreadLocalRandom.current().nextLong() >>> 1);
+        } while (subscriptions.containsKey(id));
+        var sub = new SubscriptionHub.Subscription(id, this::deliver, this::lost);
+        subscriptions.put(id, sub);
+        hub.subscriptions.increment();
+
+        String subId = id;
+        hub.subscribe(params, sub).onComplete(ar -> onContext(() -> {
+            if (ar.succeeded()) {
+                if (closed) return; // onClose already let go of it
+                send(RpcCall.response(reqId, Buffer.buffer(Json.encode(subId))).toString());
+            } else {
+                if (subscriptions.remove(subId) != null) hub.subscriptions.decrement();
+                send(ar.cause() instanceof SubscriptionHub.UpstreamError ue
+                        ? new JsonObject().put("jsonrpc", "2.0").put("id", reqId).put("error", ue.error).encode()
+                        : RpcCall.error(reqId, -32000, "subscription failed: " + ar.cause().getMessage()).toString());
+            }
+        }));
+    }
+
+    private void unsubscribe(JsonObject call) {
+        Object reqId = call.getValue("id");
+        JsonArray params = call.getValue("params") instanceof JsonArray a ? a : new JsonArray();
+        var sub = !params.isEmpty() && params.getValue(0) instanceof String id ? subscriptions.remove(id) : null;
+        if (sub != null) {
+            hub.subscriptions.decrement();
+            hub.unsubscribe(sub);
+        }
+        send(RpcCall.response(reqId, Buffer.buffer(sub != null ? "true" : "false")).toString());
+    }
+
+    /** Called by the hub, from its own thread, for every notification on one of our subscriptions. */
+    void deliver(String subscriptionId, String result, long receivedNanos) {
+        context.runOnContext(v -> {
+            if (closed || !subscriptions.containsKey(subscriptionId)) return;
+            String frame = "{\"jsonrpc\":\"2.0\",\"method\":\"eth_subscription\",\"params\":{\"subscription\":"
+                    + Json.encode(subscriptionId) + ",\"result\":" + result + "}}";
+            enqueue(new Frame(frame, receivedNanos));
+        });
+    }
+
+    /**
+     * The node would not take one of our subscriptions back after a reconnect. There is no JSON-RPC
+     * message for that, so the connection is closed: clients resubscribe when they reconnect.
+     */
+    void lost(Throwable cause) {
+        context.runOnContext(v -> {
+            if (closed) return;
+            closed = true;
+            queue.clear();
+            ws.close((short) 1012, "upstream subscription lost");
+        });
+    }
+
+    private void send(String text) {
+        onContext(() -> enqueue(new Frame(text, 0)));
+    }
+
+    private void onContext(Runnable r) {
+        if (Vertx.currentContext() == context) r.run();
+        else context.runOnContext(v -> r.run());
+    }
+
+    private void enqueue(Frame f) {
+        if (closed) return;
+        if (queue.isEmpty() && !ws.writeQueueFull()) {
+            write(f);
+            return;
+        }
+        if (queue.size() >= maxQueued) {
+            closed = true;
+            hub.slowConsumersClosed.increment();
+            queue.clear();
+            ws.close((short) 1013, "slow consumer");
+            return;
+        }
+        queue.add(f);
+    }
+
+    private void flush() {
+        while (!queue.isEmpty() && !ws.writeQueueFull()) write(queue.poll());
+    }
+
+    private void write(Frame f) {
+        ws.writeTextMessage(f.text());
+        if (f.receivedNanos() != 0) {
+            hub.framesSent.increment();
+            hub.fanOutLag.recordNanos(System.nanoTime() - f.receivedNanos());
+        }
+    }
+
+    private void onClose() {
+        closed = true;
+        queue.clear();
+        hub.sessions.decrement();
+        hub.subscriptions.add(-subscriptions.size());
+        for (var sub : subscriptions.values()) hub.unsubscribe(sub);
+        subscriptions.clear();
+    }
+}
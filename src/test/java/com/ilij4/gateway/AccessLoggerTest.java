@@ -0,0 +1,51 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.log.AccessLogFormat;
+import com.ilij4.gateway.log.AccessLogger;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+class AccessLoggerTest {
+
+    @Test
+    void full_ring_drops_instead_of_blocking() {
+        var out = new ByteArrayOutputStream();
+        var log = new AccessLogger(AccessLogFormat.COMPACT, 4, 1.0, out); // writer not started yet
+
+        int accepted = 0;
+        for (int i = 0; i < 6; i++) {
+            if (log.log("POST", "/rpc", 200, 10, 1_000_000, "ua", "1.2.3.4")) accepted++;
+        }
+        Assertions.assertEquals(4, accepted);
+
+        log.start().close();
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        Assertions.assertEquals(4, lines.length);
+        Assertions.assertEquals("POST /rpc 200 10B 1ms ua=\"ua\" ip=1.2.3.4", lines[0]);
+    }
+
+    @Test
+    void json_lines_are_valid_json() {
+        var out = new ByteArrayOutputStream();
+        var log = new AccessLogger(AccessLogFormat.JSON, 16, 1.0, out).start();
+        log.log("GET", "/health", 200, 2, 5_000, "agent \"x\"\n", null);
+        log.close();
+
+        var line = new JsonObject(out.toString(StandardCharsets.UTF_8).trim());
+        Assertions.assertEquals("/health", line.getString("path"));
+        Assertions.assertEquals("agent \"x\"\n", line.getString("ua"));
+        Assertions.assertNull(line.getString("ip"));
+        Assertions.assertEquals(5, line.getLong("us"));
+    }
+
+    @Test
+    void sampling_keeps_server_errors() {
+        var log = new AccessLogger(AccessLogFormat.COMPACT, 16, 0.0, new ByteArrayOutputStream());
+        Assertions.assertFalse(log.log("POST", "/rpc", 200, 0, 0, null, null));
+        Assertions.assertTrue(log.log("POST", "/rpc", 502, 0, 0, null, null));
+    }
+}
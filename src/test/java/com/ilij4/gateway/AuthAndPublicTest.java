@@ -45,7 +45,7 @@ class AuthAndPublicTest {
                 .put("JWT_ISS", JWT_ISS)
                 .put("JWT_AUD", JWT_AUD);
 
-        vertx.deployVerticle(new HttpVerticle(), new DeploymentOptions().setConfig(cfg));
+        var deployed = vertx.deployVerticle(new HttpVerticle(), new DeploymentOptions().setConfig(cfg));
 
         // Make tokens
         var auth = JWTAuth.create(vertx, new JWTAuthOptions()
@@ -64,7 +64,7 @@ class AuthAndPublicTest {
                 new JsonObject().put("sub", "tester").put("iss", JWT_ISS).put("aud", "not-my-clients"),
                 new JWTOptions().setAlgorithm("HS256").setExpiresInMinutes(30));
 
-        tc.completeNow();
+        deployed.onComplete(tc.succeedingThenComplete());
     }
 
     private WebClient client(Vertx vertx) {
@@ -130,6 +130,20 @@ class AuthAndPublicTest {
                 .onFailure(tc::failNow);
     }
 
+    @Test
+    void metrics_in_prometheus_format(Vertx vertx, VertxTestContext tc) {
+        client(vertx).getAbs(BASE + "/metrics?format=prometheus")
+                .putHeader("Authorization","Bearer " + goodToken)
+                .send()
+                .onSuccess(resp -> {
+                    Assertions.assertEquals(200, resp.statusCode());
+                    Assertions.assertTrue(resp.getHeader("Content-Type").startsWith("text/plain"));
+                    Assertions.assertTrue(resp.bodyAsString().contains("# TYPE gateway_rpc_inflight gauge"));
+                    tc.completeNow();
+                })
+                .onFailure(tc::failNow);
+    }
+
     @Test
     void good_token_allows_rpc(Vertx vertx, VertxTestContext tc) {
         String payload = """
@@ -0,0 +1,65 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.api.CachedJwtAuthHandler;
+import com.ilij4.gateway.services.TokenCache;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.JWTOptions;
+import io.vertx.ext.auth.PubSecKeyOptions;
+import io.vertx.ext.auth.User;
+import io.vertx.ext.auth.authentication.TokenCredentials;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** The /rpc auth steps: full HS256 verification, the iss/aud check, and a verified-token cache hit. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuthBenchmark {
+    private Vertx vertx;
+    private JWTAuth jwt;
+    private String token;
+    private JsonObject claims;
+    private TokenCache cache;
+
+    @Setup
+    public void setup() throws Exception {
+        vertx = Vertx.vertx();
+        jwt = JWTAuth.create(vertx, new JWTAuthOptions()
+                .addPubSecKey(new PubSecKeyOptions().setAlgorithm("HS256").setBuffer("benchmark-secret-0123456789")));
+        token = jwt.generateToken(new JsonObject().put("sub", "bench").put("iss", "my-gateway").put("aud", "my-clients"),
+                new JWTOptions().setAlgorithm("HS256").setExpiresInMinutes(60));
+        User user = jwt.authenticate(new TokenCredentials(token)).toCompletionStage().toCompletableFuture()
+                .get(5, TimeUnit.SECONDS);
+        claims = user.principal();
+        cache = new TokenCache(1000);
+        cache.store(TokenCache.digest(token), user, null, user.attributes().getLong("exp"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Benchmark
+    public Object verify() throws Exception {
+        var f = jwt.authenticate(new TokenCredentials(token));
+        return f.isComplete() ? f.result() : f.toCompletionStage().toCompletableFuture().get();
+    }
+
+    @Benchmark
+    public String claimsCheck() {
+        return CachedJwtAuthHandler.claimsError(claims, "my-gateway", "my-clients");
+    }
+
+    @Benchmark
+    public TokenCache.Entry cachedLookup() {
+        return cache.lookup(TokenCache.digest(token));
+    }
+}
@@ -0,0 +1,144 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.api.HttpVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.JWTOptions;
+import io.vertx.ext.auth.PubSecKeyOptions;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.ArrayList;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(VertxExtension.class)
+@Tag("integration")
+class BatchFanOutTest {
+    private static final int PORT = 18083;
+    private static final int MICRO_PORT = 18084;
+    private static final String BASE = "http://localhost:" + PORT;
+    private static final String JWT_SECRET = "batch-test-secret-1234567890abcdef";
+
+    private final StubUpstream stub = new StubUpstream(0);
+    private String token;
+
+    @BeforeAll
+    void boot(Vertx vertx, VertxTestContext tc) {
+        stub.start(vertx).compose(port -> {
+            var cfg = new JsonObject()
+                    .put("TLS_ENABLED", "false")
+                    .put("PORT", PORT)
+                    .put("RPC_URL", "http://localhost:" + port)
+                    .put("JWT_SECRET", JWT_SECRET)
+                    .put("CACHE_MAX_BYTES", 0L)
+                    .put("MAX_BATCH_SIZE", 10)
+                    .put("BATCH_CHUNK_SIZE", 2)
+                    .put("STREAM_MIN_BYTES", 0L);
+            var micro = cfg.copy()
+                    .put("PORT", MICRO_PORT)
+                    .put("MICROBATCH_WINDOW_MS", 50L)
+                    .put("MICROBATCH_MAX_SIZE", 10);
+            return vertx.deployVerticle(new HttpVerticle(), new DeploymentOptions().setConfig(cfg))
+                    .compose(id -> vertx.deployVerticle(new HttpVerticle(), new DeploymentOptions().setConfig(micro)));
+        }).onComplete(tc.succeedingThenComplete());
+
+        token = JWTAuth.create(vertx, new JWTAuthOptions()
+                        .addPubSecKey(new PubSecKeyOptions().setAlgorithm("HS256").setBuffer(JWT_SECRET)))
+                .generateToken(new JsonObject().put("sub", "tester"),
+                        new JWTOptions().setAlgorithm("HS256").setExpiresInMinutes(30));
+    }
+
+    private Future<HttpResponse<Buffer>> post(Vertx vertx, JsonArray batch) {
+        return WebClient.create(vertx).postAbs(BASE + "/rpc")
+                .putHeader("Authorization", "Bearer " + token)
+                .putHeader("Content-Type", "application/json")
+                .sendBuffer(batch.toBuffer());
+    }
+
+    private static JsonArray batchOf(int n) {
+        var arr = new JsonArray();
+        for (int i = 0; i < n; i++) {
+            // distinct params so nothing coalesces
+            arr.add(new JsonObject().put("jsonrpc", "2.0").put("id", 100 + i)
+                    .put("method", "eth_getBalance").put("params", new JsonArray().add("0x" + i).add("latest")));
+        }
+        return arr;
+    }
+
+    @Test
+    void large_batch_is_split_and_reassembled_in_order(Vertx vertx, VertxTestContext tc) {
+        int before = stub.httpRequests.get();
+        post(vertx, batchOf(5)).onComplete(tc.succeeding(resp -> tc.verify(() -> {
+            Assertions.assertEquals(200, resp.statusCode());
+            JsonArray arr = resp.bodyAsJsonArray();
+            Assertions.assertEquals(5, arr.size());
+            for (int i = 0; i < 5; i++) {
+                Assertions.assertEquals(100 + i, arr.getJsonObject(i).getInteger("id"));
+                Assertions.assertNotNull(arr.getJsonObject(i).getString("result"));
+            }
+            Assertions.assertEquals(3, stub.httpRequests.get() - before, "5 entries in chunks of 2");
+            tc.completeNow();
+        })));
+    }
+
+    @Test
+    void oversized_batch_is_rejected(Vertx vertx, VertxTestContext tc) {
+        post(vertx, batchOf(11)).onComplete(tc.succeeding(resp -> tc.verify(() -> {
+            Assertions.assertEquals(400, resp.statusCode());
+            Assertions.assertEquals(-32600, resp.bodyAsJsonObject().getJsonObject("error").getInteger("code"));
+            tc.completeNow();
+        })));
+    }
+
+    @Test
+    void single_calls_within_the_window_share_one_upstream_batch(Vertx vertx, VertxTestContext tc) {
+        var client = WebClient.create(vertx);
+        int before = stub.httpRequests.get();
+        var sent = new ArrayList<Future<HttpResponse<Buffer>>>();
+        for (int i = 0; i < 3; i++) {
+            var call = batchOf(3).getJsonObject(i);
+            sent.add(client.postAbs("http://localhost:" + MICRO_PORT + "/rpc")
+                    .putHeader("Authorization", "Bearer " + token)
+                    .putHeader("Content-Type", "application/json")
+                    .sendBuffer(call.toBuffer()));
+        }
+        Future.all(sent).onComplete(tc.succeeding(all -> tc.verify(() -> {
+            for (int i = 0; i < 3; i++) {
+                Assertions.assertEquals(100 + i, sent.get(i).result().bodyAsJsonObject().getInteger("id"));
+            }
+            Assertions.assertEquals(1, stub.httpRequests.get() - before, "one upstream batch");
+            tc.completeNow();
+        })));
+    }
+
+    @Test
+    void streamed_method_is_piped_through(Vertx vertx, VertxTestContext tc) {
+        var call = new JsonObject().put("jsonrpc", "2.0").put("id", 9)
+                .put("method", "eth_getLogs").put("params", new JsonArray().add(new JsonObject()));
+        WebClient.create(vertx).postAbs(BASE + "/rpc")
+                .putHeader("Authorization", "Bearer " + token)
+                .putHeader("Content-Type", "application/json")
+                .sendBuffer(call.toBuffer())
+                .onComplete(tc.succeeding(resp -> tc.verify(() -> {
+                    Assertions.assertEquals(200, resp.statusCode());
+                    Assertions.assertEquals(9, resp.bodyAsJsonObject().getInteger("id"));
+                    Assertions.assertEquals("0xb", resp.bodyAsJsonObject().getString("result"));
+                    tc.completeNow();
+                })));
+    }
+
+    @AfterAll
+    void shutdown(VertxTestContext tc) {
+        stub.stop().onComplete(tc.succeedingThenComplete());
+    }
+}
@@ -0,0 +1,128 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.rpc.ChainHeadTracker;
+import com.ilij4.gateway.rpc.RpcCall;
+import com.ilij4.gateway.rpc.RpcClient;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+@ExtendWith(VertxExtension.class)
+class ChainHeadTrackerTest {
+    private static final RpcCall BALANCE = new RpcCall(1, "eth_getBalance", new JsonArray().add("0xabc").add("latest"));
+
+    private static String header(long number, String hash, String parent) {
+        return new JsonObject().put("number", "0x" + Long.toHexString(number)).put("hash", hash).put("parentHash", parent).encode();
+    }
+
+    /** Upstream stub: counts calls and answers with the count, so a cached answer is easy to spot. */
+    private static Supplier<Future<Buffer>> upstream(AtomicInteger calls) {
+        return () -> Future.succeededFuture(RpcCall.response(1, Buffer.buffer("\"0x" + calls.incrementAndGet() + "\"")));
+    }
+
+    private static String result(Future<Buffer> f) {
+        return f.result().toJsonObject().getString("result");
+    }
+
+    @Test
+    void block_number_is_answered_locally_once_the_head_is_known() {
+        var tracker = new ChainHeadTracker(null, null, 1_000, 100);
+        var calls = new AtomicInteger();
+        var blockNumber = new RpcCall("a", "eth_blockNumber", null);
+
+        Assertions.assertEquals("0x1", result(tracker.execute(blockNumber, upstream(calls))), "no head yet: upstream");
+        tracker.onNewHead(header(0x10, "0xaa", "0x0f"));
+        var local = tracker.execute(blockNumber, upstream(calls)).result().toJsonObject();
+        Assertions.assertEquals("0x10", local.getString("result"));
+        Assertions.assertEquals("a", local.getString("id"));
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    @Test
+    void latest_reads_are_cached_for_one_head_only() {
+        var tracker = new ChainHeadTracker(null, null, 1_000, 100);
+        var calls = new AtomicInteger();
+        tracker.onNewHead(header(100, "0xa100", "0xa099"));
+
+        Assertions.assertEquals("0x1", result(tracker.execute(BALANCE, upstream(calls))));
+        Assertions.assertEquals("0x1", result(tracker.execute(BALANCE, upstream(calls))), "same head: cached");
+        var pinned = new RpcCall(1, "eth_getBalance", new JsonArray().add("0xabc").add("0x10"));
+        tracker.execute(pinned, upstream(calls));
+        tracker.execute(pinned, upstream(calls));
+        Assertions.assertEquals(3, calls.get(), "explicit block numbers are not head-dependent");
+
+        // an answer that arrives after the head moved must not be kept for the new head
+        Promise<Buffer> slow = Promise.promise();
+        var gas = new RpcCall(1, "eth_gasPrice", null);
+        tracker.execute(gas, slow::future);
+        tracker.onNewHead(header(101, "0xa101", "0xa100"));
+        slow.complete(RpcCall.response(1, Buffer.buffer("\"0xold\"")));
+
+        Assertions.assertEquals("0x4", result(tracker.execute(BALANCE, upstream(calls))), "new head: asked again");
+        Assertions.assertEquals("0x5", result(tracker.execute(gas, upstream(calls))));
+    }
+
+    @Test
+    void reorg_drops_cached_results_but_a_lagging_node_does_not() {
+        var tracker = new ChainHeadTracker(null, null, 1_000, 100);
+        var calls = new AtomicInteger();
+        tracker.onNewHead(header(200, "0xb200", "0xb199"));
+        tracker.onNewHead(header(201, "0xb201", "0xb200"));
+        tracker.execute(BALANCE, upstream(calls));
+
+        tracker.onNewHead(header(200, "0xb200", "0xb199")); // a node one block behind
+        Assertions.assertEquals(201, tracker.head().number());
+        Assertions.assertEquals("0x1", result(tracker.execute(BALANCE, upstream(calls))));
+
+        tracker.onNewHead(header(201, "0xc201", "0xb200")); // another block at the same height
+        Assertions.assertEquals("0xc201", tracker.head().hash());
+        Assertions.assertEquals("0x2", result(tracker.execute(BALANCE, upstream(calls))));
+
+        tracker.onNewHead(header(201, "0xb201", "0xb200")); // and back
+        Assertions.assertEquals("0xb201", tracker.head().hash());
+        Assertions.assertEquals("0x3", result(tracker.execute(BALANCE, upstream(calls))));
+    }
+
+    @Test
+    @Tag("integration")
+    void polls_head_and_finalized_block(Vertx vertx, VertxTestContext tc) {
+        var head = new AtomicInteger(0x20);
+        vertx.createHttpServer()
+                .requestHandler(req -> req.body().onSuccess(body -> {
+                    var out = new JsonArray();
+                    for (Object o : body.toJsonArray()) {
+                        var call = (JsonObject) o;
+                        long n = "finalized".equals(call.getJsonArray("params").getString(0)) ? head.get() - 2 : head.get();
+                        out.add(new JsonObject().put("jsonrpc", "2.0").put("id", call.getValue("id"))
+                                .put("result", new JsonObject(header(n, "0xh" + n, "0xh" + (n - 1)))));
+                    }
+                    req.response().end(out.toBuffer());
+                }))
+                .listen(0)
+                .onComplete(tc.succeeding(server -> {
+                    var tracker = new ChainHeadTracker(vertx, new RpcClient(vertx, "http://localhost:" + server.actualPort(), 1_000),
+                            50, 100).start();
+                    vertx.setTimer(200, t -> {
+                        head.incrementAndGet();
+                        vertx.setTimer(200, t2 -> tc.verify(() -> {
+                            tracker.stop();
+                            Assertions.assertEquals(0x21, tracker.head().number());
+                            Assertions.assertEquals(0x1f, tracker.finalizedBlock());
+                            tc.completeNow();
+                        }));
+                    });
+                }));
+    }
+}
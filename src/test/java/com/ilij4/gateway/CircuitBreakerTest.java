@@ -0,0 +1,72 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.rpc.CircuitBreaker;
+import com.ilij4.gateway.rpc.CircuitBreaker.State;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+class CircuitBreakerTest {
+    private static final long FAST = 1_000_000L; // 1 ms
+
+    private static CircuitBreaker.Settings settings(long openMs) {
+        return new CircuitBreaker.Settings(50, 100, 80, 10, 10, openMs, 2);
+    }
+
+    @Test
+    void stays_closed_until_min_calls_are_seen() {
+        var cb = new CircuitBreaker(settings(1_000), s -> { });
+        for (int i = 0; i < 9; i++) cb.onResult(FAST, false);
+        Assertions.assertEquals(State.CLOSED, cb.state());
+        cb.onResult(FAST, false);
+        Assertions.assertEquals(State.OPEN, cb.state());
+        Assertions.assertFalse(cb.tryAcquire());
+    }
+
+    @Test
+    void opens_on_error_rate_but_not_below_it() {
+        var cb = new CircuitBreaker(settings(1_000), s -> { });
+        for (int i = 0; i < 20; i++) cb.onResult(FAST, i % 3 != 0); // a third fails
+        Assertions.assertEquals(State.CLOSED, cb.state());
+        for (int i = 0; i < 10; i++) cb.onResult(FAST, false);
+        Assertions.assertEquals(State.OPEN, cb.state());
+    }
+
+    @Test
+    void opens_on_slow_call_rate() {
+        var cb = new CircuitBreaker(settings(1_000), s -> { });
+        for (int i = 0; i < 10; i++) cb.onResult(200_000_000L, true);
+        Assertions.assertEquals(State.OPEN, cb.state());
+    }
+
+    @Test
+    void half_open_probes_close_the_circuit() throws Exception {
+        var seen = new ArrayList<State>();
+        var cb = new CircuitBreaker(settings(20), seen::add);
+        for (int i = 0; i < 10; i++) cb.onResult(FAST, false);
+        Thread.sleep(30);
+
+        Assertions.assertTrue(cb.allowsRequests());
+        Assertions.assertTrue(cb.tryAcquire());
+        Assertions.assertEquals(State.HALF_OPEN, cb.state());
+        Assertions.assertTrue(cb.tryAcquire());
+        Assertions.assertFalse(cb.tryAcquire(), "only two probes at a time");
+
+        cb.onResult(FAST, true);
+        cb.onResult(FAST, true);
+        Assertions.assertEquals(State.CLOSED, cb.state());
+        Assertions.assertEquals(java.util.List.of(State.OPEN, State.HALF_OPEN, State.CLOSED), seen);
+    }
+
+    @Test
+    void failed_probe_reopens() throws Exception {
+        var cb = new CircuitBreaker(settings(20), s -> { });
+        for (int i = 0; i < 10; i++) cb.onResult(FAST, false);
+        Thread.sleep(30);
+        Assertions.assertTrue(cb.tryAcquire());
+        cb.onResult(FAST, false);
+        Assertions.assertEquals(State.OPEN, cb.state());
+        Assertions.assertFalse(cb.tryAcquire());
+    }
+}
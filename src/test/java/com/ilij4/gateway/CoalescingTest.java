@@ -0,0 +1,144 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.api.HttpVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.JWTOptions;
+import io.vertx.ext.auth.PubSecKeyOptions;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(VertxExtension.class)
+@Tag("integration")
+class CoalescingTest {
+    private static final int PORT = 18082;
+    private static final String BASE = "http://localhost:" + PORT;
+    private static final String JWT_SECRET = "coalescing-test-secret-1234567890";
+
+    private final StubUpstream stub = new StubUpstream(1000);
+    private String token;
+
+    @BeforeAll
+    void boot(Vertx vertx, VertxTestContext tc) {
+        stub.start(vertx).compose(port -> {
+            var cfg = new JsonObject()
+                    .put("TLS_ENABLED", "false")
+                    .put("PORT", PORT)
+                    .put("RPC_URL", "http://localhost:" + port)
+                    .put("JWT_SECRET", JWT_SECRET);
+            return vertx.deployVerticle(new HttpVerticle(), new DeploymentOptions().setConfig(cfg));
+        }).onComplete(tc.succeedingThenComplete());
+
+        token = JWTAuth.create(vertx, new JWTAuthOptions()
+                        .addPubSecKey(new PubSecKeyOptions().setAlgorithm("HS256").setBuffer(JWT_SECRET)))
+                .generateToken(new JsonObject().put("sub", "tester"),
+                        new JWTOptions().setAlgorithm("HS256").setExpiresInMinutes(30));
+    }
+
+    private Future<HttpResponse<Buffer>> post(WebClient client, String payload) {
+        return client.postAbs(BASE + "/rpc")
+                .putHeader("Authorization", "Bearer " + token)
+                .putHeader("Content-Type", "application/json")
+                .sendBuffer(Buffer.buffer(payload));
+    }
+
+    @Test
+    void identical_calls_share_one_upstream_request(Vertx vertx, VertxTestContext tc) {
+        var client = WebClient.create(vertx);
+        int before = stub.httpRequests.get();
+
+        List<Future<HttpResponse<Buffer>>> sent = new ArrayList<>();
+        for (int id = 1; id <= 4; id++) {
+            sent.add(post(client, "{\"jsonrpc\":\"2.0\",\"method\":\"eth_blockNumber\",\"params\":[],\"id\":" + id + "}"));
+        }
+        // the same call inside a batch joins the flight too (5 requests = default client pool size)
+        sent.add(post(client, "[{\"jsonrpc\":\"2.0\",\"method\":\"eth_blockNumber\",\"params\":[],\"id\":\"b\"}]"));
+
+        Future.all(sent).onComplete(tc.succeeding(all -> tc.verify(() -> {
+            for (int i = 0; i < 4; i++) {
+                JsonObject r = sent.get(i).result().bodyAsJsonObject();
+                Assertions.assertEquals(i + 1, r.getInteger("id"));
+                Assertions.assertEquals("0xf", r.getString("result"));
+            }
+            JsonArray batch = sent.get(4).result().bodyAsJsonArray();
+            Assertions.assertEquals("b", batch.getJsonObject(0).getString("id"));
+            Assertions.assertEquals(1, stub.httpRequests.get() - before, "one upstream request");
+            tc.completeNow();
+        })));
+    }
+
+    @Test
+    void calls_with_different_params_by_name_are_not_merged(Vertx vertx, VertxTestContext tc) {
+        var client = WebClient.create(vertx);
+        int before = stub.httpRequests.get();
+        var a = post(client, "{\"jsonrpc\":\"2.0\",\"method\":\"custom_lookup\",\"params\":{\"who\":\"a\"},\"id\":1}");
+        var b = post(client, "{\"jsonrpc\":\"2.0\",\"method\":\"custom_lookup\",\"params\":{\"who\":\"b\"},\"id\":2}");
+        Future.all(a, b).onComplete(tc.succeeding(all -> tc.verify(() -> {
+            Assertions.assertEquals("a", a.result().bodyAsJsonObject().getJsonObject("result").getString("who"));
+            Assertions.assertEquals("b", b.result().bodyAsJsonObject().getJsonObject("result").getString("who"));
+            Assertions.assertEquals(2, stub.httpRequests.get() - before, "each call went upstream as sent");
+            tc.completeNow();
+        })));
+    }
+
+    @Test
+    void batch_answers_keep_client_ids_and_order(Vertx vertx, VertxTestContext tc) {
+        var client = WebClient.create(vertx);
+        String batch = """
+          [
+            {"jsonrpc":"2.0","method":"eth_gasPrice","params":[],"id":7},
+            {"jsonrpc":"2.0","method":"eth_chainId","params":[],"id":7},
+            {"jsonrpc":"2.0","method":"net_version","params":[],"id":"x"}
+          ]
+          """;
+        post(client, batch).onComplete(tc.succeeding(resp -> tc.verify(() -> {
+            Assertions.assertEquals(200, resp.statusCode());
+            JsonArray arr = resp.bodyAsJsonArray();
+            Assertions.assertEquals(3, arr.size());
+            Assertions.assertEquals("0xc", arr.getJsonObject(0).getString("result"));
+            Assertions.assertEquals(7, arr.getJsonObject(1).getInteger("id"));
+            Assertions.assertEquals("0xb", arr.getJsonObject(1).getString("result"));
+            Assertions.assertEquals("x", arr.getJsonObject(2).getString("id"));
+            tc.completeNow();
+        })));
+    }
+
+    @Test
+    void a_leader_with_a_shorter_deadline_does_not_fail_its_followers(Vertx vertx, VertxTestContext tc) {
+        var client = WebClient.create(vertx);
+        String call = "{\"jsonrpc\":\"2.0\",\"method\":\"custom_slowQuery\",\"params\":[],\"id\":1}";
+        var impatient = client.postAbs(BASE + "/rpc")
+                .putHeader("Authorization", "Bearer " + token)
+                .putHeader("Content-Type", "application/json")
+                .putHeader("X-Request-Timeout-Ms", "300")
+                .sendBuffer(Buffer.buffer(call));
+        Promise<HttpResponse<Buffer>> patient = Promise.promise();
+        vertx.setTimer(50, t -> post(client, call).onComplete(patient)); // joins the impatient caller's flight
+        Future.all(impatient, patient.future()).onComplete(tc.succeeding(all -> tc.verify(() -> {
+            Assertions.assertTrue(impatient.result().bodyAsJsonObject().containsKey("error"), "its own deadline passed");
+            JsonObject r = patient.future().result().bodyAsJsonObject();
+            Assertions.assertEquals("0x10", r.getString("result"), r.encode());
+            tc.completeNow();
+        })));
+    }
+
+    @AfterAll
+    void shutdown(VertxTestContext tc) {
+        stub.stop().onComplete(tc.succeedingThenComplete());
+    }
+}
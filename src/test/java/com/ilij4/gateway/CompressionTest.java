@@ -0,0 +1,173 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.api.HttpVerticle;
+import com.ilij4.gateway.services.Compressor;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.JWTOptions;
+import io.vertx.ext.auth.PubSecKeyOptions;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(VertxExtension.class)
+class CompressionTest {
+    private static final int PORT = 18088;
+    private static final String JWT_SECRET = "compression-test-secret-1234567890";
+    private static final String BLOCK = "{\"hash\":\"0xaa\",\"logsBloom\":\"0x" + "0".repeat(20_000) + "\"}";
+
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+    private String token;
+
+    private static String inflate(Buffer body, String encoding) throws IOException {
+        InputStream in = new ByteArrayInputStream(body.getBytes());
+        try (InputStream z = "gzip".equals(encoding) ? new GZIPInputStream(in) : new InflaterInputStream(in)) {
+            return new String(z.readAllBytes());
+        }
+    }
+
+    @Test
+    void accept_encoding_is_negotiated() {
+        Assertions.assertEquals("gzip", Compressor.negotiate("deflate, gzip;q=0.8"));
+        Assertions.assertEquals("deflate", Compressor.negotiate("gzip;q=0, deflate"));
+        Assertions.assertEquals("gzip", Compressor.negotiate("*"));
+        Assertions.assertNull(Compressor.negotiate("br, identity"));
+        Assertions.assertNull(Compressor.negotiate(null));
+    }
+
+    @Test
+    void precompressed_fragment_is_framed_into_a_valid_gzip_stream() throws IOException {
+        var compressor = new Compressor(6, 16);
+        Buffer plain = Buffer.buffer(BLOCK);
+        Buffer fragment = compressor.fragment(plain);
+        Assertions.assertTrue(fragment.length() < plain.length() / 10);
+
+        Buffer gz = compressor.gzipAround(Buffer.buffer("{\"id\":7,\"result\":"), fragment, plain, Buffer.buffer("}"));
+        Assertions.assertEquals("{\"id\":7,\"result\":" + BLOCK + "}", inflate(gz, "gzip"));
+        Assertions.assertEquals(BLOCK, inflate(compressor.compress(plain, "deflate"), "deflate"));
+        Assertions.assertNull(compressor.fragment(Buffer.buffer("\"0x1\"")), "too small");
+    }
+
+    @BeforeAll
+    void boot(Vertx vertx, VertxTestContext tc) {
+        vertx.createHttpServer()
+                .requestHandler(req -> req.body().onSuccess(b -> {
+                    upstreamCalls.incrementAndGet();
+                    var call = b.toJsonObject();
+                    Object result = switch (call.getString("method")) {
+                        case "eth_getBlockByHash" -> new JsonObject(BLOCK);
+                        case "eth_getLogs" -> new io.vertx.core.json.JsonArray().add(new JsonObject(BLOCK));
+                        default -> "0x1";
+                    };
+                    req.response().putHeader("Content-Type", "application/json")
+                            .end(new JsonObject().put("jsonrpc", "2.0").put("id", call.getValue("id")).put("result", result).toBuffer());
+                }))
+                .listen(0)
+                .compose(node -> vertx.deployVerticle(new HttpVerticle(), new DeploymentOptions().setConfig(new JsonObject()
+                        .put("TLS_ENABLED", "false")
+                        .put("PORT", PORT)
+                        .put("RPC_URL", "http://localhost:" + node.actualPort())
+                        .put("JWT_SECRET", JWT_SECRET))))
+                .onComplete(tc.succeedingThenComplete());
+        token = JWTAuth.create(vertx, new JWTAuthOptions()
+                        .addPubSecKey(new PubSecKeyOptions().setAlgorithm("HS256").setBuffer(JWT_SECRET)))
+                .generateToken(new JsonObject().put("sub", "gz"), new JWTOptions().setAlgorithm("HS256"));
+    }
+
+    private Future<HttpClientResponse> post(HttpClient client, String method, Object id, String acceptEncoding) {
+        var opts = new RequestOptions().setMethod(HttpMethod.POST).setAbsoluteURI("http://localhost:" + PORT + "/rpc")
+                .putHeader("Authorization", "Bearer " + token).putHeader("Content-Type", "application/json");
+        if (acceptEncoding != null) opts.putHeader("Accept-Encoding", acceptEncoding);
+        String params = method.equals("eth_getBlockByHash") ? "[\"0xaa\",false]" : method.equals("eth_getLogs") ? "[{}]" : "[]";
+        return client.request(opts).compose(r -> r.send("{\"jsonrpc\":\"2.0\",\"id\":" + id + ",\"method\":\"" + method
+                + "\",\"params\":" + params + "}"));
+    }
+
+    private static JsonObject decoded(HttpClientResponse resp, Buffer body) {
+        try {
+            String enc = resp.getHeader("Content-Encoding");
+            return new JsonObject(enc != null ? inflate(body, enc) : body.toString());
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    @Tag("integration")
+    void cache_hits_are_served_precompressed_over_http1_and_h2(Vertx vertx, VertxTestContext tc) {
+        HttpClient h1 = vertx.createHttpClient(); // no decompression: the test inflates by hand
+        HttpClient h2 = vertx.createHttpClient(new HttpClientOptions()
+                .setProtocolVersion(HttpVersion.HTTP_2).setHttp2ClearTextUpgrade(false));
+
+        post(h1, "eth_getBlockByHash", 1, "gzip").compose(r -> r.body().map(b -> {
+                    tc.verify(() -> {
+                        Assertions.assertEquals("gzip", r.getHeader("Content-Encoding"), "compressed on the way through");
+                        Assertions.assertEquals("0xaa", decoded(r, b).getJsonObject("result").getString("hash"));
+                    });
+                    return b;
+                }))
+                .compose(x -> post(h1, "eth_getBlockByHash", "\"second\"", "gzip"))
+                .compose(r -> r.body().map(b -> {
+                    tc.verify(() -> {
+                        var json = decoded(r, b);
+                        Assertions.assertEquals("second", json.getString("id"));
+                        Assertions.assertEquals(BLOCK.length(), json.getJsonObject("result").encode().length());
+                        Assertions.assertTrue(b.length() < 1_000);
+                    });
+                    return b;
+                }))
+                .compose(x -> post(h2, "eth_getBlockByHash", 3, "gzip"))
+                .compose(r -> r.body().map(b -> {
+                    tc.verify(() -> {
+                        Assertions.assertEquals(HttpVersion.HTTP_2, r.version());
+                        Assertions.assertEquals(3, decoded(r, b).getInteger("id"), "not compressed twice over h2");
+                    });
+                    return b;
+                }))
+                .compose(x -> post(h1, "eth_getBlockByHash", 4, null))
+                .compose(r -> r.body().map(b -> {
+                    tc.verify(() -> {
+                        Assertions.assertNull(r.getHeader("Content-Encoding"));
+                        Assertions.assertEquals(4, new JsonObject(b).getInteger("id"));
+                    });
+                    return b;
+                }))
+                .compose(x -> post(h1, "eth_chainId", 5, "gzip"))
+                .compose(r -> r.body().map(b -> {
+                    tc.verify(() -> Assertions.assertNull(r.getHeader("Content-Encoding"), "small answers stay plain"));
+                    return b;
+                }))
+                .compose(x -> post(h1, "eth_getLogs", 6, "deflate"))
+                .compose(r -> r.body().map(b -> {
+                    tc.verify(() -> {
+                        Assertions.assertEquals("deflate", r.getHeader("Content-Encoding"), "streamed answers too");
+                        Assertions.assertEquals(6, decoded(r, b).getInteger("id"));
+                    });
+                    return b;
+                }))
+                .onComplete(tc.succeeding(x -> tc.verify(() -> {
+                    Assertions.assertEquals(3, upstreamCalls.get(), "block, chainId and logs once each; the rest from cache");
+                    tc.completeNow();
+                })));
+    }
+}
@@ -0,0 +1,134 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.api.HttpVerticle;
+import com.ilij4.gateway.services.ConcurrencyLimiter;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.JWTOptions;
+import io.vertx.ext.auth.PubSecKeyOptions;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@ExtendWith(VertxExtension.class)
+class ConcurrencyLimiterTest {
+    private static final int PORT = 18089;
+    private static final String JWT_SECRET = "admission-test-secret-1234567890ab";
+    private static final long MS = 1_000_000;
+
+    /** Holds {@code n} permits, then finishes them all with {@code rttMs}. */
+    private static void round(ConcurrencyLimiter limiter, int n, long rttMs, boolean ok) {
+        var admitted = new AtomicInteger();
+        for (int i = 0; i < n; i++) limiter.acquire(admitted::incrementAndGet, () -> {});
+        for (int i = 0; i < admitted.get(); i++) limiter.release(rttMs * MS, ok);
+    }
+
+    @Test
+    void limit_grows_while_latency_holds_and_shrinks_when_it_climbs(Vertx vertx) {
+        var limiter = new ConcurrencyLimiter(vertx, 10, 1000, 0, 0);
+        Assertions.assertEquals(100, limiter.limit());
+
+        for (int i = 0; i < 5; i++) round(limiter, limiter.limit(), 10, true);
+        int grown = limiter.limit();
+        Assertions.assertTrue(grown > 150, "steady latency under full use lets it grow, was " + grown);
+
+        round(limiter, limiter.limit(), 50, true);
+        int shrunk = limiter.limit();
+        Assertions.assertTrue(shrunk < grown / 2, "5x latency cuts it down, " + grown + " -> " + shrunk);
+
+        for (int i = 0; i < 50; i++) round(limiter, limiter.limit(), 50, false);
+        Assertions.assertEquals(10, limiter.limit(), "failures back off to the floor");
+        Assertions.assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    void idle_capacity_is_not_learned(Vertx vertx) {
+        var limiter = new ConcurrencyLimiter(vertx, 10, 1000, 0, 0);
+        for (int i = 0; i < 200; i++) round(limiter, 5, 10, true);
+        Assertions.assertEquals(100, limiter.limit());
+    }
+
+    @Test
+    void over_limit_waits_in_the_queue_then_is_refused(Vertx vertx, VertxTestContext tc) {
+        var limiter = new ConcurrencyLimiter(vertx, 1, 1, 1, 100);
+        var events = new ArrayList<String>();
+        vertx.runOnContext(v -> {
+            limiter.acquire(() -> events.add("a"), () -> events.add("a refused"));
+            limiter.acquire(() -> events.add("b"), () -> events.add("b refused"));
+            limiter.acquire(() -> events.add("c"), () -> events.add("c refused"));
+            Assertions.assertEquals(List.of("a", "c refused"), events, "b waits, the queue has no room for c");
+            limiter.release(MS, true);
+            vertx.setTimer(20, t -> tc.verify(() -> {
+                Assertions.assertEquals(List.of("a", "c refused", "b"), events, "b takes a's permit");
+                limiter.acquire(() -> events.add("d"), () -> events.add("d refused"));
+                vertx.setTimer(200, t2 -> tc.verify(() -> {
+                    Assertions.assertEquals("d refused", events.get(events.size() - 1), "d timed out waiting");
+                    tc.completeNow();
+                }));
+            }));
+        });
+    }
+
+    @Test
+    @Tag("integration")
+    void excess_load_gets_503(Vertx vertx, VertxTestContext tc) {
+        var upstream = new StubUpstream(300);
+        String token = JWTAuth.create(vertx, new JWTAuthOptions()
+                        .addPubSecKey(new PubSecKeyOptions().setAlgorithm("HS256").setBuffer(JWT_SECRET)))
+                .generateToken(new JsonObject().put("sub", "busy"), new JWTOptions().setAlgorithm("HS256"));
+        var client = WebClient.create(vertx);
+
+        upstream.start(vertx)
+                .compose(port -> vertx.deployVerticle(new HttpVerticle(), new DeploymentOptions().setConfig(new JsonObject()
+                        .put("TLS_ENABLED", "false")
+                        .put("PORT", PORT)
+                        .put("RPC_URL", "http://localhost:" + port)
+                        .put("JWT_SECRET", JWT_SECRET)
+                        .put("CONCURRENCY_LIMIT_MIN", 2)
+                        .put("CONCURRENCY_LIMIT_MAX", 2)
+                        .put("CONCURRENCY_QUEUE_SIZE", 1)
+                        .put("CONCURRENCY_QUEUE_MS", 2_000L))))
+                .compose(id -> {
+                    List<Future<HttpResponse<Buffer>>> sent = new ArrayList<>();
+                    for (int i = 0; i < 6; i++) {
+                        sent.add(client.post(PORT, "localhost", "/rpc")
+                                .putHeader("Authorization", "Bearer " + token)
+                                .putHeader("Content-Type", "application/json")
+                                .sendBuffer(Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":" + i
+                                        + ",\"method\":\"eth_getBalance\",\"params\":[\"0x" + i + "\",\"latest\"]}")));
+                    }
+                    return Future.all(sent).map(all -> sent.stream().map(Future::result).toList());
+                })
+                .compose(responses -> client.get(PORT, "localhost", "/metrics")
+                        .putHeader("Authorization", "Bearer " + token).send()
+                        .map(m -> {
+                            tc.verify(() -> {
+                                long ok = responses.stream().filter(r -> r.statusCode() == 200).count();
+                                Assertions.assertEquals(3, ok, "two admitted, one queued");
+                                for (var r : responses) {
+                                    if (r.statusCode() == 200) continue;
+                                    Assertions.assertEquals(503, r.statusCode());
+                                    Assertions.assertEquals(-32005, r.bodyAsJsonObject().getJsonObject("error").getInteger("code"));
+                                }
+                                Assertions.assertEquals(3, upstream.calls.get(), "refused requests never reached the node");
+                                Assertions.assertEquals(3L, m.bodyAsJsonObject().getJsonObject("counters").getLong("concurrency_rejected_total"));
+                            });
+                            return m;
+                        }))
+                .onComplete(tc.succeedingThenComplete());
+    }
+}
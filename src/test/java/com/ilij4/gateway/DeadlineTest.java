@@ -0,0 +1,131 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.rpc.MethodPolicies;
+import com.ilij4.gateway.rpc.RpcClient;
+import com.ilij4.gateway.rpc.RpcRequest;
+import com.ilij4.gateway.rpc.TrafficBudget;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@ExtendWith(VertxExtension.class)
+class DeadlineTest {
+    private static final Buffer CALL = Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_call\",\"params\":[]}");
+
+    @Test
+    void policies_resolve_exact_then_longest_prefix_then_default() {
+        var policies = new MethodPolicies(List.of("eth_getLogs=30000:1", "eth_=5000:2", "debug_=60000:0"), 20_000, 3);
+        Assertions.assertEquals(new MethodPolicies.Policy(30_000, 1), policies.of("eth_getLogs"));
+        Assertions.assertEquals(new MethodPolicies.Policy(5_000, 2), policies.of("eth_call"));
+        Assertions.assertEquals(new MethodPolicies.Policy(60_000, 0), policies.of("debug_traceCall"));
+        Assertions.assertEquals(new MethodPolicies.Policy(20_000, 3), policies.of("net_version"));
+        Assertions.assertEquals(new MethodPolicies.Policy(60_000, 0), policies.of(List.of("eth_call", "debug_x", "eth_getLogs")),
+                "a batch waits as long as its slowest entry and retries as little as its strictest");
+    }
+
+    @Test
+    void retry_budget_grows_with_traffic() {
+        var budget = new TrafficBudget(20, 2, 0);
+        Assertions.assertFalse(budget.trySpend());
+        for (int i = 0; i < 5; i++) budget.earn();
+        Assertions.assertTrue(budget.trySpend());
+        Assertions.assertFalse(budget.trySpend());
+        for (int i = 0; i < 100; i++) budget.earn();
+        Assertions.assertEquals(2, budget.available(), "capped");
+    }
+
+    @Test
+    @Tag("integration")
+    void deadline_cuts_a_slow_upstream_short(Vertx vertx, VertxTestContext tc) {
+        vertx.createHttpServer()
+                .requestHandler(req -> vertx.setTimer(3_000, t -> {
+                    if (!req.response().closed()) req.response().end("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":\"0x1\"}");
+                }))
+                .listen(0)
+                .onComplete(tc.succeeding(server -> {
+                    var client = new RpcClient(vertx, "http://localhost:" + server.actualPort(), 10_000);
+                    long start = System.nanoTime();
+                    var req = RpcRequest.of(CALL).deadlineNanos(start + 300_000_000L).maxRetries(3).build();
+                    client.forward(req).onComplete(tc.failing(err -> tc.verify(() -> {
+                        long ms = (System.nanoTime() - start) / 1_000_000;
+                        Assertions.assertInstanceOf(RpcClient.DeadlineExceededException.class, err);
+                        Assertions.assertTrue(ms < 1_500, "gave up after " + ms + " ms");
+                        tc.completeNow();
+                    })));
+                }));
+    }
+
+    @Test
+    @Tag("integration")
+    void spent_retry_budget_stops_retries(Vertx vertx, VertxTestContext tc) {
+        var received = new AtomicInteger();
+        vertx.createHttpServer()
+                .requestHandler(req -> {
+                    received.incrementAndGet();
+                    req.response().setStatusCode(503).end();
+                })
+                .listen(0)
+                .onComplete(tc.succeeding(server -> {
+                    var client = new RpcClient(vertx, "http://localhost:" + server.actualPort(), 10_000)
+                            .retryBudget(new TrafficBudget(0, 0, 0));
+                    Future<Buffer> sent = client.forward(RpcRequest.of(CALL).maxRetries(3).build());
+                    sent.onComplete(tc.failing(err -> tc.verify(() -> {
+                        Assertions.assertInstanceOf(RpcClient.UpstreamException.class, err);
+                        Assertions.assertEquals(1, received.get(), "no retry without budget");
+                        tc.completeNow();
+                    })));
+                }));
+    }
+
+    @Test
+    @Tag("integration")
+    void retry_dropped_for_its_backoff_leaves_the_node_and_budget_alone(Vertx vertx, VertxTestContext tc) {
+        vertx.createHttpServer()
+                .requestHandler(req -> req.response().setStatusCode(503).end())
+                .listen(0)
+                .onComplete(tc.succeeding(server -> {
+                    var budget = new TrafficBudget(20, 5, 5);
+                    var client = new RpcClient(vertx, "http://localhost:" + server.actualPort(), 10_000).retryBudget(budget);
+                    var node = client.pool().upstreams().get(0);
+                    // one node, so the retry would back off at least a second: more than is left
+                    var req = RpcRequest.of(CALL).deadlineNanos(System.nanoTime() + 500_000_000L).maxRetries(3).build();
+                    client.forward(req).onComplete(tc.failing(err -> tc.verify(() -> {
+                        Assertions.assertInstanceOf(RpcClient.UpstreamException.class, err);
+                        Assertions.assertEquals(0, node.inflight(), "nothing was in flight to cancel");
+                        Assertions.assertEquals(5, budget.available(), "no retry went out, none was paid for");
+                        tc.completeNow();
+                    })));
+                }));
+    }
+
+    @Test
+    @Tag("integration")
+    void long_method_deadline_outlasts_the_attempt_timeout(Vertx vertx, VertxTestContext tc) {
+        var trace = Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"debug_traceTransaction\",\"params\":[]}");
+        vertx.createHttpServer()
+                .requestHandler(req -> vertx.setTimer(11_000, t -> req.response().end("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{}}")))
+                .listen(0)
+                .onComplete(tc.succeeding(server -> {
+                    var client = new RpcClient(vertx, "http://localhost:" + server.actualPort(), 10_000);
+                    var policy = new MethodPolicies(List.of(MethodPolicies.DEFAULTS.split(",")), 20_000, 3).of("debug_traceTransaction");
+                    var req = RpcRequest.of(trace)
+                            .deadlineNanos(System.nanoTime() + policy.deadlineMs() * 1_000_000)
+                            .maxRetries(policy.maxRetries())
+                            .method("debug_traceTransaction")
+                            .build();
+                    client.forward(req).onComplete(tc.succeeding(b -> tc.verify(() -> {
+                        Assertions.assertTrue(b.toString().contains("\"result\""), b.toString());
+                        tc.completeNow();
+                    })));
+                }));
+    }
+}
@@ -0,0 +1,112 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.rpc.CachePolicy;
+import com.ilij4.gateway.rpc.DiskCache;
+import com.ilij4.gateway.rpc.ResponseCache;
+import com.ilij4.gateway.rpc.RpcCall;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+class DiskCacheTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void entries_survive_a_restart() throws Exception {
+        var disk = new DiskCache(dir, 16 << 20);
+        disk.put("eth_getBlockByHash:[\"0xaa\",false]", Buffer.buffer("{\"number\":\"0x1\"}"));
+        disk.put("eth_chainId:[]", Buffer.buffer("\"0x1\""));
+        disk.close();
+
+        var reopened = new DiskCache(dir, 16 << 20);
+        Assertions.assertEquals("\"0x1\"", reopened.get("eth_chainId:[]").toString());
+        Assertions.assertEquals("{\"number\":\"0x1\"}", reopened.get("eth_getBlockByHash:[\"0xaa\",false]").toString());
+        Assertions.assertNull(reopened.get("eth_getBlockByHash:[\"0xbb\",false]"));
+
+        reopened.put("net_version:[]", Buffer.buffer("\"1\"")); // appends after what was already there
+        Assertions.assertEquals("\"0x1\"", reopened.get("eth_chainId:[]").toString());
+        Assertions.assertEquals("\"1\"", reopened.get("net_version:[]").toString());
+    }
+
+    @Test
+    void entries_of_another_chain_are_dropped() throws Exception {
+        var disk = new DiskCache(dir, 16 << 20);
+        disk.bind(1);
+        disk.put("eth_chainId:[]", Buffer.buffer("\"0x1\""));
+        disk.close();
+
+        var sameChain = new DiskCache(dir, 16 << 20);
+        sameChain.bind(1);
+        Assertions.assertEquals("\"0x1\"", sameChain.get("eth_chainId:[]").toString());
+        sameChain.close();
+
+        var redeployed = new DiskCache(dir, 16 << 20); // same directory, RPC_URL now on chain 5
+        redeployed.bind(5);
+        Assertions.assertNull(redeployed.get("eth_chainId:[]"));
+        redeployed.put("eth_chainId:[]", Buffer.buffer("\"0x5\""));
+        redeployed.close();
+
+        var reopened = new DiskCache(dir, 16 << 20);
+        reopened.bind(5);
+        Assertions.assertEquals("\"0x5\"", reopened.get("eth_chainId:[]").toString());
+
+        Files.delete(dir.resolve("index.dat")); // rebuilt from the segments: the chain is unknown
+        var rebuilt = new DiskCache(dir, 16 << 20);
+        rebuilt.bind(5);
+        Assertions.assertNull(rebuilt.get("eth_chainId:[]"));
+    }
+
+    @Test
+    void corrupted_record_is_a_miss_and_index_is_rebuilt_without_it() throws Exception {
+        var disk = new DiskCache(dir, 16 << 20);
+        disk.put("a", Buffer.buffer("\"first\""));
+        disk.put("b", Buffer.buffer("\"second\""));
+        disk.close();
+
+        try (var raf = new RandomAccessFile(dir.resolve("segment-0000000001.dat").toFile(), "rw")) {
+            raf.seek(12 + 1 + 2); // inside the value of "a"
+            raf.write('X');
+        }
+        Assertions.assertNull(new DiskCache(dir, 16 << 20).get("a"), "checksum catches the flipped byte");
+
+        Files.delete(dir.resolve("index.dat"));
+        var rebuilt = new DiskCache(dir, 16 << 20);
+        Assertions.assertNull(rebuilt.get("a"));
+        Assertions.assertNull(rebuilt.get("b"), "the scan stops at the first bad record, like after a torn write");
+    }
+
+    @Test
+    void oldest_segment_is_dropped_at_the_cap() throws Exception {
+        var disk = new DiskCache(dir, 4 << 20); // 1 MB segments
+        String value = "\"" + "v".repeat(100_000) + "\"";
+        for (int i = 0; i < 50; i++) disk.put("k" + i, Buffer.buffer(value));
+
+        try (Stream<Path> files = Files.list(dir)) {
+            Assertions.assertEquals(4, files.filter(p -> p.getFileName().toString().startsWith("segment-")).count());
+        }
+        Assertions.assertNull(disk.get("k0"), "evicted with its segment");
+        Assertions.assertEquals(value, disk.get("k49").toString());
+    }
+
+    @Test
+    void response_cache_falls_back_to_disk_after_restart() throws Exception {
+        var call = new RpcCall(1, "eth_getBlockByHash", new JsonArray().add("0xaa").add(false));
+        var first = new ResponseCache(1 << 20, CachePolicy.withoutFinality()).disk(new DiskCache(dir, 16 << 20));
+        first.store(call, Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{\"hash\":\"0xaa\"}}"));
+        first.close();
+
+        var second = new ResponseCache(1 << 20, CachePolicy.withoutFinality()).disk(new DiskCache(dir, 16 << 20));
+        Buffer hit = second.lookup(new RpcCall("x", "eth_getBlockByHash", new JsonArray().add("0xAA").add(false)));
+        Assertions.assertNotNull(hit);
+        Assertions.assertEquals("x", hit.toJsonObject().getString("id"));
+        Assertions.assertEquals("0xaa", hit.toJsonObject().getJsonObject("result").getString("hash"));
+    }
+}
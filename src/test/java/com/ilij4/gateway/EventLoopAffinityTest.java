@@ -0,0 +1,76 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.rpc.MicroBatcher;
+import com.ilij4.gateway.rpc.RpcCall;
+import com.ilij4.gateway.rpc.RpcClient;
+import com.ilij4.gateway.rpc.SingleFlight;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.internal.VertxInternal;
+import io.vertx.core.json.JsonArray;
+import io.vertx.junit5.Checkpoint;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.concurrent.CompletableFuture;
+
+/** Services are shared by one verticle per core: answers must come back on the caller's own loop. */
+@ExtendWith(VertxExtension.class)
+class EventLoopAffinityTest {
+
+    private static Thread threadOf(Context ctx) throws Exception {
+        var t = new CompletableFuture<Thread>();
+        ctx.runOnContext(v -> t.complete(Thread.currentThread()));
+        return t.get();
+    }
+
+    private static void onLoop(VertxTestContext tc, Checkpoint done, Thread expected) {
+        tc.verify(() -> Assertions.assertSame(expected, Thread.currentThread(), "answered on the caller's loop"));
+        done.flag();
+    }
+
+    @Test
+    void single_flight_follower_is_answered_on_its_own_loop(Vertx vertx, VertxTestContext tc) throws Exception {
+        Context a = ((VertxInternal) vertx).createEventLoopContext(), b = ((VertxInternal) vertx).createEventLoopContext();
+        Thread ta = threadOf(a), tb = threadOf(b);
+        Assumptions.assumeTrue(ta != tb, "needs two event loops");
+
+        var flights = new SingleFlight();
+        var call = new RpcCall(1, "eth_blockNumber", new JsonArray());
+        Promise<Buffer> upstream = Promise.promise();
+        Checkpoint done = tc.checkpoint(2);
+        a.runOnContext(v -> {
+            flights.execute(call, upstream::future).onSuccess(r -> onLoop(tc, done, ta));
+            b.runOnContext(w -> {
+                flights.execute(new RpcCall(2, "eth_blockNumber", new JsonArray()), () -> Future.failedFuture("not the leader"))
+                        .onSuccess(r -> onLoop(tc, done, tb));
+                a.runOnContext(x -> upstream.complete(RpcCall.response(1, Buffer.buffer("\"0x1\""))));
+            });
+        });
+    }
+
+    @Test
+    void micro_batch_entries_are_answered_on_each_callers_loop(Vertx vertx, VertxTestContext tc) throws Exception {
+        Context a = ((VertxInternal) vertx).createEventLoopContext(), b = ((VertxInternal) vertx).createEventLoopContext();
+        Thread ta = threadOf(a), tb = threadOf(b);
+        Assumptions.assumeTrue(ta != tb, "needs two event loops");
+
+        var stub = new StubUpstream(0);
+        int port = stub.start(vertx).toCompletionStage().toCompletableFuture().get();
+        var batcher = new MicroBatcher(vertx, new RpcClient(vertx, "http://localhost:" + port, 1_000), 10_000, 2);
+        Checkpoint done = tc.checkpoint(2);
+        a.runOnContext(v -> {
+            batcher.submit(new RpcCall(1, "eth_gasPrice", new JsonArray()), null, 0).onSuccess(r -> onLoop(tc, done, ta));
+            // the second entry fills the batch, so it is sent from b
+            b.runOnContext(w -> batcher.submit(new RpcCall(2, "eth_chainId", new JsonArray()), null, 0)
+                    .onSuccess(r -> onLoop(tc, done, tb)));
+        });
+    }
+}
@@ -0,0 +1,42 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.rpc.RpcClient;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Round trip through {@link RpcClient#forward} to an in-process stub node (loopback HTTP, no delay). */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ForwardBenchmark {
+    private Vertx upstreamVertx;
+    private Vertx clientVertx;
+    private RpcClient client;
+    private final Buffer body = Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_blockNumber\",\"params\":[]}");
+
+    @Setup
+    public void setup() throws Exception {
+        upstreamVertx = Vertx.vertx();
+        clientVertx = Vertx.vertx();
+        int port = new StubUpstream(0).start(upstreamVertx).toCompletionStage().toCompletableFuture()
+                .get(10, TimeUnit.SECONDS);
+        client = new RpcClient(clientVertx, "http://localhost:" + port, 5_000);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        clientVertx.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        upstreamVertx.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public Buffer forward() throws Exception {
+        return client.forward(body).toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+}
@@ -50,7 +50,7 @@ public class GatewayTest {
                 .put("JWT_ISS", JWT_ISS)   // optional in your code; included here
                 .put("JWT_AUD", JWT_AUD);  // optional in your code; included here
 
-        vertx.deployVerticle(new HttpVerticle(), new DeploymentOptions().setConfig(cfg));
+        var deployed = vertx.deployVerticle(new HttpVerticle(), new DeploymentOptions().setConfig(cfg));
 
         // Create a matching JWT for test calls
         var jwt = JWTAuth.create(vertx, new JWTAuthOptions()
@@ -65,7 +65,7 @@ public class GatewayTest {
                 new JWTOptions().setAlgorithm("HS256").setExpiresInMinutes(30)
         );
 
-        tc.completeNow();
+        deployed.onComplete(tc.succeedingThenComplete());
     }
 
     private WebClient client(Vertx vertx) {
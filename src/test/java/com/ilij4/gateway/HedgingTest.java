@@ -0,0 +1,106 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.rpc.HedgePolicy;
+import com.ilij4.gateway.rpc.RpcClient;
+import com.ilij4.gateway.rpc.RpcRequest;
+import com.ilij4.gateway.services.MetricsService;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@ExtendWith(VertxExtension.class)
+class HedgingTest {
+
+    @Test
+    void state_changing_methods_are_never_hedged() {
+        var policy = new HedgePolicy(List.of("eth_call", "eth_sendRawTransaction", "personal_sign"), 95, 1, 100);
+        for (int i = 0; i < 64; i++) {
+            policy.record("eth_call", 1_000_000);
+            policy.record("eth_sendRawTransaction", 1_000_000);
+        }
+        Assertions.assertTrue(policy.admit("eth_call") > 0);
+        Assertions.assertEquals(-1, policy.admit("eth_sendRawTransaction"));
+        Assertions.assertEquals(-1, policy.admit("personal_sign"));
+        Assertions.assertEquals(-1, policy.admit("eth_getLogs"), "not listed");
+    }
+
+    @Test
+    void no_delay_until_enough_samples() {
+        var policy = new HedgePolicy(HedgePolicy.DEFAULT_METHODS, 95, 1, 5);
+        for (int i = 0; i < 63; i++) policy.record("eth_call", 1_000_000);
+        Assertions.assertEquals(-1, policy.admit("eth_call"));
+        policy.record("eth_call", 1_000_000);
+        Assertions.assertEquals(2, policy.admit("eth_call"), "p95 of 1 ms, rounded up to the bucket bound");
+    }
+
+    @Test
+    void budget_caps_extra_requests() {
+        var policy = new HedgePolicy(HedgePolicy.DEFAULT_METHODS, 95, 1, 5);
+        for (int i = 0; i < 19; i++) policy.admit("eth_call");
+        Assertions.assertFalse(policy.tryHedge());
+        policy.admit("eth_call");
+        Assertions.assertTrue(policy.tryHedge(), "20 calls at 5% earn one hedge");
+        Assertions.assertFalse(policy.tryHedge());
+    }
+
+    @Test
+    @Tag("integration")
+    void slow_first_answer_loses_to_the_hedge(Vertx vertx, VertxTestContext tc) {
+        var slowNext = new AtomicBoolean();
+        var received = new AtomicInteger();
+        vertx.createHttpServer()
+                .requestHandler(req -> req.body().onSuccess(body -> {
+                    received.incrementAndGet();
+                    var call = body.toJsonObject();
+                    var out = new JsonObject().put("jsonrpc", "2.0").put("id", call.getValue("id")).put("result", "0x1");
+                    // the first copy of the slow call hangs, the hedged one answers at once
+                    long delay = slowNext.compareAndSet(true, false) ? 3_000 : 0;
+                    Runnable reply = () -> {
+                        if (!req.response().closed()) req.response().putHeader("Content-Type", "application/json").end(out.encode());
+                    };
+                    if (delay > 0) vertx.setTimer(delay, t -> reply.run());
+                    else reply.run();
+                }))
+                .listen(0)
+                .onComplete(tc.succeeding(server -> {
+                    var metrics = new MetricsService();
+                    var client = new RpcClient(vertx, "http://localhost:" + server.actualPort(), 10_000)
+                            .hedging(new HedgePolicy(HedgePolicy.DEFAULT_METHODS, 95, 20, 5));
+                    client.registerMetrics(metrics);
+
+                    Future<Buffer> warmUp = Future.succeededFuture();
+                    for (int i = 0; i < 64; i++) warmUp = warmUp.compose(b -> client.forward(call()));
+
+                    warmUp.compose(b -> {
+                        slowNext.set(true);
+                        received.set(0);
+                        long start = System.nanoTime();
+                        return client.forward(call()).map(r -> (System.nanoTime() - start) / 1_000_000);
+                    }).onComplete(tc.succeeding(ms -> tc.verify(() -> {
+                        Assertions.assertTrue(ms < 1_000, "answered by the hedge, took " + ms + " ms");
+                        Assertions.assertEquals(2, received.get());
+                        var counters = metrics.asJson().getJsonObject("counters");
+                        Assertions.assertEquals(1L, counters.getLong("upstream_hedges_total"));
+                        Assertions.assertEquals(1L, counters.getLong("upstream_hedge_wins_total"));
+                        tc.completeNow();
+                    })));
+                }));
+    }
+
+    private static RpcRequest call() {
+        return RpcRequest.of(Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_call\",\"params\":[]}"))
+                .method("eth_call")
+                .build();
+    }
+}
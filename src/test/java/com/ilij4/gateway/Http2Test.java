@@ -0,0 +1,108 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.api.HttpVerticle;
+import com.ilij4.gateway.rpc.RpcClient;
+import com.ilij4.gateway.rpc.UpstreamPool;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.JWTOptions;
+import io.vertx.ext.auth.PubSecKeyOptions;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@ExtendWith(VertxExtension.class)
+@Tag("integration")
+class Http2Test {
+    private static final int PORT = 18087;
+    private static final String JWT_SECRET = "http2-test-secret-1234567890abcdef";
+    private static final Buffer CALL = Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_blockNumber\",\"params\":[]}");
+
+    /** Node that answers every call with 0x1 and remembers which protocol each request came in on. */
+    private static Future<Integer> node(Vertx vertx, boolean h2c, List<HttpVersion> seen) {
+        return vertx.createHttpServer(new HttpServerOptions().setHttp2ClearTextEnabled(h2c))
+                .requestHandler(req -> req.body().onSuccess(b -> {
+                    seen.add(req.version());
+                    req.response().end("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":\"0x1\"}");
+                }))
+                .listen(0)
+                .map(s -> s.actualPort());
+    }
+
+    private static RpcClient http2Client(Vertx vertx, int port) {
+        return new RpcClient(vertx, UpstreamPool.parse("http://localhost:" + port), 5_000,
+                new RpcClient.Transport(true, 4, 1, 0, true));
+    }
+
+    @Test
+    void gateway_speaks_h2c_to_clients_and_upstream(Vertx vertx, VertxTestContext tc) {
+        var seen = new CopyOnWriteArrayList<HttpVersion>();
+        String token = JWTAuth.create(vertx, new JWTAuthOptions()
+                        .addPubSecKey(new PubSecKeyOptions().setAlgorithm("HS256").setBuffer(JWT_SECRET)))
+                .generateToken(new JsonObject().put("sub", "h2"), new JWTOptions().setAlgorithm("HS256"));
+        var h2 = vertx.createHttpClient(new HttpClientOptions()
+                .setProtocolVersion(HttpVersion.HTTP_2).setHttp2ClearTextUpgrade(false)); // prior knowledge
+        var h1 = vertx.createHttpClient();
+        var rpc = new RequestOptions().setMethod(HttpMethod.POST).setAbsoluteURI("http://localhost:" + PORT + "/rpc")
+                .putHeader("Authorization", "Bearer " + token).putHeader("Content-Type", "application/json");
+
+        node(vertx, true, seen)
+                .compose(nodePort -> vertx.deployVerticle(new HttpVerticle(), new DeploymentOptions().setConfig(new JsonObject()
+                        .put("TLS_ENABLED", "false")
+                        .put("PORT", PORT)
+                        .put("RPC_URL", "http://localhost:" + nodePort)
+                        .put("UPSTREAM_HTTP2", "true")
+                        .put("CACHE_MAX_BYTES", 0L)
+                        .put("JWT_SECRET", JWT_SECRET))))
+                .compose(id -> h2.request(rpc).compose(r -> r.send(CALL)).compose(r -> r.body().map(b -> {
+                    tc.verify(() -> {
+                        Assertions.assertEquals(200, r.statusCode());
+                        Assertions.assertEquals(HttpVersion.HTTP_2, r.version());
+                    });
+                    return b;
+                })))
+                .compose(b -> h1.request(rpc).compose(r -> r.send(CALL)).map(r -> {
+                    tc.verify(() -> {
+                        Assertions.assertEquals(200, r.statusCode(), "HTTP/1.1 clients still served");
+                        Assertions.assertEquals(HttpVersion.HTTP_1_1, r.version());
+                    });
+                    return r;
+                }))
+                .onComplete(tc.succeeding(r -> tc.verify(() -> {
+                    Assertions.assertFalse(seen.isEmpty());
+                    Assertions.assertTrue(seen.stream().allMatch(v -> v == HttpVersion.HTTP_2), "upstream calls over h2c: " + seen);
+                    tc.completeNow();
+                })));
+    }
+
+    @Test
+    void http2_client_falls_back_to_http1_nodes(Vertx vertx, VertxTestContext tc) {
+        var seen = new CopyOnWriteArrayList<HttpVersion>();
+        node(vertx, false, seen)
+                .compose(port -> {
+                    var client = http2Client(vertx, port);
+                    return client.forward(CALL).compose(b -> client.forward(CALL));
+                })
+                .onComplete(tc.succeeding(body -> tc.verify(() -> {
+                    Assertions.assertEquals("0x1", new JsonObject(body).getString("result"));
+                    Assertions.assertEquals(List.of(HttpVersion.HTTP_1_1, HttpVersion.HTTP_1_1), seen);
+                    tc.completeNow();
+                })));
+    }
+}
@@ -0,0 +1,147 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.services.Histogram;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.PoolOptions;
+import io.vertx.core.http.RequestOptions;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Open-loop load: requests are scheduled at a fixed rate whatever the gateway does, and latency
+ * is measured from each request's <em>intended</em> start. A closed-loop client that waits for
+ * answers before sending more would hide stalls (coordinated omission); the report keeps both
+ * views, so a large gap between them shows where that would have happened.
+ */
+final class LoadGenerator {
+    private final Vertx vertx;
+    private final RequestOptions target;
+    private final List<Buffer> bodies;
+    private final int ratePerSec;
+    private final long durationMs;
+    private final int maxConnections;
+
+    LoadGenerator(Vertx vertx, String url, String token, List<Buffer> bodies, int ratePerSec, long durationMs,
+                  int maxConnections) {
+        this.vertx = vertx;
+        this.target = new RequestOptions()
+                .setMethod(HttpMethod.POST)
+                .setAbsoluteURI(url)
+                .putHeader("Authorization", "Bearer " + token)
+                .putHeader("Content-Type", "application/json");
+        this.bodies = bodies;
+        this.ratePerSec = ratePerSec;
+        this.durationMs = durationMs;
+        this.maxConnections = maxConnections;
+    }
+
+    /** {@code seconds} is the send schedule; {@code drainSeconds} runs until the last answer. */
+    record Report(long sent, long ok, long failed, Map<Integer, Long> statuses, double seconds, double drainSeconds,
+                  Histogram corrected, Histogram serviceTime, Histogram sendLag) {
+
+        double throughput() { return ok / seconds; }
+
+        /** The gateway stalled long enough that a closed-loop client would have under-reported latency. */
+        boolean coordinatedOmission() {
+            long c = corrected.quantile(0.99), s = serviceTime.quantile(0.99);
+            return c > 1_000 && c > 2 * s;
+        }
+
+        String format() {
+            var sb = new StringBuilder();
+            sb.append(String.format("sent %d, ok %d, failed %d over %.1fs (last answer at %.1fs) -> %.0f ok/s, statuses %s%n",
+                    sent, ok, failed, seconds, drainSeconds, throughput(), statuses));
+            line(sb, "latency (from intended start)", corrected);
+            line(sb, "service time (from send)     ", serviceTime);
+            line(sb, "generator send lag           ", sendLag);
+            if (coordinatedOmission()) {
+                sb.append("coordinated omission: requests queued behind stalls; closed-loop numbers would understate p99 by ")
+                        .append(String.format("%.1fx", (double) corrected.quantile(0.99) / Math.max(1, serviceTime.quantile(0.99))))
+                        .append('\n');
+            }
+            return sb.toString();
+        }
+
+        private static void line(StringBuilder sb, String name, Histogram h) {
+            sb.append(String.format("%s p50 %8.2fms  p99 %8.2fms  p999 %8.2fms%n", name,
+                    h.quantile(0.5) / 1000.0, h.quantile(0.99) / 1000.0, h.quantile(0.999) / 1000.0));
+        }
+    }
+
+    Future<Report> run() {
+        Promise<Report> done = Promise.promise();
+        vertx.runOnContext(v -> start(done));
+        return done.future();
+    }
+
+    private void start(Promise<Report> done) {
+        HttpClient http = vertx.createHttpClient(new HttpClientOptions().setKeepAlive(true).setTcpNoDelay(true),
+                new PoolOptions().setHttp1MaxSize(maxConnections).setMaxWaitQueueSize(-1));
+        var corrected = new Histogram();
+        var serviceTime = new Histogram();
+        var sendLag = new Histogram();
+        var statuses = new ConcurrentHashMap<Integer, LongAdder>();
+        var ok = new LongAdder();
+        var failed = new LongAdder();
+        var completed = new AtomicLong();
+
+        long total = ratePerSec * durationMs / 1000;
+        double periodNanos = 1e9 / ratePerSec;
+        long start = System.nanoTime();
+        long[] next = {0};
+
+        Runnable finish = () -> {
+            double drainSeconds = (System.nanoTime() - start) / 1e9;
+            var counts = new TreeMap<Integer, Long>();
+            statuses.forEach((k, v) -> counts.put(k, v.sum()));
+            http.close();
+            done.complete(new Report(total, ok.sum(), failed.sum(), counts, durationMs / 1000.0, drainSeconds,
+                    corrected, serviceTime, sendLag));
+        };
+
+        // a 1 ms tick catches up on everything that is due, so a late tick never thins out the schedule
+        vertx.setPeriodic(1, id -> {
+            long now = System.nanoTime();
+            long due = Math.min(total, (long) ((now - start) / periodNanos) + 1);
+            while (next[0] < due) {
+                long intended = start + (long) (next[0] * periodNanos);
+                Buffer body = bodies.get((int) (next[0] % bodies.size()));
+                next[0]++;
+                sendLag.recordNanos(now - intended);
+
+                http.request(target)
+                        .compose(req -> {
+                            long sentAt = System.nanoTime();
+                            return req.send(body).compose(resp -> resp.body().map(b -> {
+                                serviceTime.recordNanos(System.nanoTime() - sentAt);
+                                return resp.statusCode();
+                            }));
+                        })
+                        .onComplete(ar -> {
+                            corrected.recordNanos(System.nanoTime() - intended);
+                            if (ar.succeeded()) {
+                                statuses.computeIfAbsent(ar.result(), k -> new LongAdder()).increment();
+                                if (ar.result() == 200) ok.increment();
+                                else failed.increment();
+                            } else {
+                                statuses.computeIfAbsent(-1, k -> new LongAdder()).increment(); // no HTTP answer
+                                failed.increment();
+                            }
+                            if (completed.incrementAndGet() == total) finish.run();
+                        });
+            }
+            if (next[0] >= total) vertx.cancelTimer(id);
+        });
+    }
+}
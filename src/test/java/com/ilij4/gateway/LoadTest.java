@@ -0,0 +1,120 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.api.HttpVerticle;
+import com.ilij4.gateway.services.GatewayServices;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.JWTOptions;
+import io.vertx.ext.auth.PubSecKeyOptions;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.ilij4.gateway.MockEthNode.fixed;
+import static com.ilij4.gateway.MockEthNode.logNormal;
+import static com.ilij4.gateway.MockEthNode.uniform;
+
+/**
+ * Offline end-to-end load test: open-loop JWT traffic through the real HttpVerticle stack to a
+ * mock node with realistic latencies and injected failures. Run with {@code mvn test -Pperf};
+ * rate, duration and warm-up can be set with {@code -Dload.rate}, {@code -Dload.seconds}, {@code -Dload.warmup}.
+ */
+@Tag("perf")
+class LoadTest {
+    private static final int PORT = 18092;
+    private static final String JWT_SECRET = "load-test-secret-1234567890abcdef";
+
+    @Test
+    void mixed_traffic_against_mock_node() throws Exception {
+        int rate = Integer.getInteger("load.rate", 200);
+        int seconds = Integer.getInteger("load.seconds", 10);
+        int warmup = Integer.getInteger("load.warmup", 5);
+
+        Vertx nodeVertx = Vertx.vertx();
+        Vertx gatewayVertx = Vertx.vertx();
+        Vertx clientVertx = Vertx.vertx();
+        try {
+            var node = new MockEthNode()
+                    .method("eth_blockNumber", logNormal(2, 0.5), 16)
+                    .method("eth_getBalance", logNormal(5, 0.6), 32)
+                    .method("eth_call", uniform(5, 30), 512)
+                    .method("eth_getLogs", logNormal(60, 0.8), 200_000)
+                    .otherMethods(fixed(1), 16)
+                    .errors(0.005, 0.01, 0.005, 0.001);
+            int nodePort = await(node.start(nodeVertx));
+
+            var cfg = new JsonObject()
+                    .put("TLS_ENABLED", "false")
+                    .put("PORT", PORT)
+                    .put("RPC_URL", "http://localhost:" + nodePort)
+                    .put("JWT_SECRET", JWT_SECRET)
+                    .put("ACCESS_LOG_FORMAT", "off");
+            var services = GatewayServices.create(gatewayVertx, cfg);
+            await(gatewayVertx.deployVerticle(() -> new HttpVerticle(services),
+                    new DeploymentOptions().setConfig(cfg).setInstances(Runtime.getRuntime().availableProcessors())));
+
+            String token = JWTAuth.create(clientVertx, new JWTAuthOptions()
+                            .addPubSecKey(new PubSecKeyOptions().setAlgorithm("HS256").setBuffer(JWT_SECRET)))
+                    .generateToken(new JsonObject().put("sub", "load"),
+                            new JWTOptions().setAlgorithm("HS256").setExpiresInMinutes(30));
+
+            String url = "http://localhost:" + PORT + "/rpc";
+            // same load, unmeasured: JIT and connection setup would otherwise own the tail
+            new LoadGenerator(clientVertx, url, token, mix(1000), rate, warmup * 1000L, 256)
+                    .run().toCompletionStage().toCompletableFuture().get(warmup + 60L, TimeUnit.SECONDS);
+            long nodeBefore = node.httpRequests.get(), injectedBefore = node.injected.get();
+
+            var report = new LoadGenerator(clientVertx, url, token, mix(1000), rate, seconds * 1000L, 256)
+                    .run().toCompletionStage().toCompletableFuture().get(seconds + 60L, TimeUnit.SECONDS);
+
+            System.out.printf("load: %d req/s for %ds, node saw %d HTTP requests (%d injected failures)%n%s",
+                    rate, seconds, node.httpRequests.get() - nodeBefore, node.injected.get() - injectedBefore, report.format());
+            Assertions.assertEquals(report.sent(), report.ok() + report.failed());
+            Assertions.assertTrue(report.ok() > report.sent() * 0.9, "most requests succeed despite injected errors");
+        } finally {
+            await(clientVertx.close());
+            await(gatewayVertx.close());
+            await(nodeVertx.close());
+        }
+    }
+
+    /** Mostly cheap reads, some eth_call, a few heavy eth_getLogs; distinct params so little is shared. */
+    private static List<Buffer> mix(int n) {
+        var bodies = new ArrayList<Buffer>(n);
+        for (int i = 0; i < n; i++) {
+            String method;
+            JsonArray params;
+            int bucket = i % 20;
+            if (bucket < 8) {
+                method = "eth_blockNumber";
+                params = new JsonArray();
+            } else if (bucket < 14) {
+                method = "eth_getBalance";
+                params = new JsonArray().add(String.format("0x%040x", i)).add("latest");
+            } else if (bucket < 19) {
+                method = "eth_call";
+                params = new JsonArray().add(new JsonObject().put("to", String.format("0x%040x", i)).put("data", "0x70a08231"))
+                        .add("latest");
+            } else {
+                method = "eth_getLogs";
+                params = new JsonArray().add(new JsonObject().put("fromBlock", "0x" + Integer.toHexString(i)).put("toBlock", "latest"));
+            }
+            bodies.add(new JsonObject().put("jsonrpc", "2.0").put("id", i).put("method", method).put("params", params).toBuffer());
+        }
+        return bodies;
+    }
+
+    private static <T> T await(Future<T> f) throws Exception {
+        return f.toCompletionStage().toCompletableFuture().get(60, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,202 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.api.HttpVerticle;
+import com.ilij4.gateway.rpc.LogRangeSplitter;
+import com.ilij4.gateway.rpc.RpcCall;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.JWTOptions;
+import io.vertx.ext.auth.PubSecKeyOptions;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(VertxExtension.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class LogRangeSplitterTest {
+    private static final int PORT = 18094;
+    private static final String JWT_SECRET = "logs-test-secret-1234567890abcdefg";
+    private static final long HEAD = 10_000, FINALIZED = 8_000;
+
+    // fake node: one log every 100 blocks, refuses ranges over maxRange like a provider would
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile long maxRange = 1_500;
+    private String token;
+    private WebClient client;
+
+    private static JsonObject block(long n) {
+        return new JsonObject().put("number", "0x" + Long.toHexString(n)).put("hash", "0x" + Long.toHexString(n + 0xabc))
+                .put("parentHash", "0x" + Long.toHexString(n - 1 + 0xabc));
+    }
+
+    private JsonObject answer(JsonObject call) {
+        var resp = new JsonObject().put("jsonrpc", "2.0").put("id", call.getValue("id"));
+        var params = call.getJsonArray("params");
+        if (call.getString("method").equals("eth_getBlockByNumber")) {
+            return resp.put("result", block("finalized".equals(params.getValue(0)) ? FINALIZED : HEAD));
+        }
+        var filter = params.getJsonObject(0);
+        long from = Long.decode(filter.getString("fromBlock"));
+        long to = "latest".equals(filter.getString("toBlock")) ? HEAD : Long.decode(filter.getString("toBlock"));
+        ranges.add(filter.getString("fromBlock") + "-" + filter.getString("toBlock"));
+        if (to - from + 1 > maxRange) {
+            return resp.put("error", new JsonObject().put("code", -32005).put("message", "query exceeds max block range 1500"));
+        }
+        var logs = new JsonArray();
+        for (long b = (from + 99) / 100 * 100; b <= to; b += 100) {
+            logs.add(new JsonObject().put("address", filter.getString("address")).put("blockNumber", "0x" + Long.toHexString(b))
+                    .put("logIndex", "0x0").put("data", "0x" + "ab".repeat(16)));
+        }
+        return resp.put("result", logs);
+    }
+
+    @BeforeAll
+    void boot(Vertx vertx, VertxTestContext tc) {
+        client = WebClient.create(vertx);
+        token = JWTAuth.create(vertx, new JWTAuthOptions()
+                        .addPubSecKey(new PubSecKeyOptions().setAlgorithm("HS256").setBuffer(JWT_SECRET)))
+                .generateToken(new JsonObject().put("sub", "logs"), new JWTOptions().setAlgorithm("HS256"));
+        vertx.createHttpServer()
+                .requestHandler(req -> req.body().onSuccess(b -> {
+                    Object parsed = Json.decodeValue(b);
+                    if (parsed instanceof JsonArray batch) {
+                        var res = new JsonArray();
+                        batch.forEach(o -> res.add(answer((JsonObject) o)));
+                        req.response().putHeader("Content-Type", "application/json").end(res.encode());
+                        return;
+                    }
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    var out = answer((JsonObject) parsed);
+                    vertx.setTimer(10, t -> {
+                        inFlight.decrementAndGet();
+                        req.response().putHeader("Content-Type", "application/json").end(out.encode());
+                    });
+                }))
+                .listen(0)
+                .compose(node -> vertx.deployVerticle(new HttpVerticle(), new DeploymentOptions().setConfig(new JsonObject()
+                        .put("TLS_ENABLED", "false")
+                        .put("PORT", PORT)
+                        .put("RPC_URL", "http://localhost:" + node.actualPort())
+                        .put("JWT_SECRET", JWT_SECRET)
+                        .put("HEAD_POLL_MS", 50L)
+                        .put("STREAM_MIN_BYTES", 2_048L))))
+                .compose(id -> {
+                    Promise<Void> headKnown = Promise.promise();
+                    vertx.setTimer(300, t -> headKnown.complete());
+                    return headKnown.future();
+                })
+                .onComplete(tc.succeedingThenComplete());
+    }
+
+    private Future<HttpResponse<Buffer>> getLogs(Object id, String from, String to) {
+        var filter = new JsonObject().put("address", "0x00000000000000000000000000000000000000aa").put("fromBlock", from);
+        if (to != null) filter.put("toBlock", to);
+        var call = new JsonObject().put("jsonrpc", "2.0").put("id", id).put("method", "eth_getLogs")
+                .put("params", new JsonArray().add(filter));
+        return client.post(PORT, "localhost", "/rpc")
+                .putHeader("Authorization", "Bearer " + token)
+                .putHeader("Content-Type", "application/json")
+                .sendBuffer(call.toBuffer());
+    }
+
+    private static void assertLogs(JsonArray logs, long from, long to) {
+        long expected = (to / 100) - ((from + 99) / 100) + 1;
+        Assertions.assertEquals(expected, logs.size());
+        long prev = -1;
+        for (int i = 0; i < logs.size(); i++) {
+            long n = Long.decode(logs.getJsonObject(i).getString("blockNumber"));
+            Assertions.assertTrue(n > prev, "in block order");
+            prev = n;
+        }
+    }
+
+    @Test
+    @Order(1)
+    void only_wide_ranges_are_planned() {
+        var splitter = new LogRangeSplitter(2_000, 4, 65_536, null, null);
+        Assertions.assertNull(splitter.plan(call(new JsonObject().put("fromBlock", "0x0").put("toBlock", "0x7cf"))), "one chunk");
+        Assertions.assertNotNull(splitter.plan(call(new JsonObject().put("fromBlock", "0x0").put("toBlock", "0x7d0"))));
+        Assertions.assertNull(splitter.plan(call(new JsonObject().put("fromBlock", "0x0").put("toBlock", "latest"))),
+                "no head tracker, no idea where latest is");
+        Assertions.assertNull(splitter.plan(call(new JsonObject().put("blockHash", "0xaa"))));
+        Assertions.assertNull(splitter.plan(call(new JsonObject().put("fromBlock", "0x0").put("toBlock", "0xffffffff"))),
+                "too many chunks: left to the node");
+    }
+
+    private static RpcCall call(JsonObject filter) {
+        return new RpcCall(1, "eth_getLogs", new JsonArray().add(filter));
+    }
+
+    @Test
+    @Order(2)
+    @Tag("integration")
+    void wide_range_is_split_merged_in_order_then_served_from_finalized_chunks(VertxTestContext tc) {
+        ranges.clear();
+        getLogs("first", "0x1f4", "0x1b58") // 500..7000
+                .compose(resp -> {
+                    tc.verify(() -> {
+                        Assertions.assertEquals(200, resp.statusCode());
+                        Assertions.assertEquals("chunked", resp.getHeader("Transfer-Encoding"), "large answers are streamed");
+                        var json = resp.bodyAsJsonObject();
+                        Assertions.assertEquals("first", json.getString("id"));
+                        assertLogs(json.getJsonArray("result"), 500, 7000);
+                        // 500-1999 and 6000-7000 fit, 2000-3999 and 4000-5999 are refused once and halved
+                        Assertions.assertEquals(8, ranges.size(), ranges.toString());
+                        Assertions.assertTrue(ranges.contains("0x7d0-0xf9f"), "chunks are cut at multiples of 2000");
+                    });
+                    ranges.clear();
+                    return getLogs(2, "0x7d0", "0x1770"); // 2000..6000, all finalized and seen before except 6000
+                })
+                .onComplete(tc.succeeding(resp -> tc.verify(() -> {
+                    assertLogs(resp.bodyAsJsonObject().getJsonArray("result"), 2000, 6000);
+                    Assertions.assertEquals(List.of("0x1770-0x1770"), ranges, "only the new tail went to the node");
+                    tc.completeNow();
+                })));
+    }
+
+    @Test
+    @Order(3)
+    @Tag("integration")
+    void range_to_latest_keeps_the_tag_on_its_last_chunk(VertxTestContext tc) {
+        ranges.clear();
+        getLogs(3, "0x1770", null).onComplete(tc.succeeding(resp -> tc.verify(() -> {
+            assertLogs(resp.bodyAsJsonObject().getJsonArray("result"), 6000, HEAD);
+            Assertions.assertTrue(ranges.contains("0x2710-latest"), ranges.toString());
+            tc.completeNow();
+        })));
+    }
+
+    @Test
+    @Order(4)
+    @Tag("integration")
+    void halves_of_refused_chunks_stay_within_the_parallelism_limit(VertxTestContext tc) {
+        ranges.clear();
+        maxInFlight.set(0);
+        maxRange = 300; // 6000-7999 is cached by now; 8000-9999 is halved three times, into 8 pieces
+        getLogs(4, "0x1770", "0x270f").onComplete(tc.succeeding(resp -> tc.verify(() -> { // 6000..9999
+            maxRange = 1_500;
+            assertLogs(resp.bodyAsJsonObject().getJsonArray("result"), 6000, 9999);
+            Assertions.assertEquals(1 + 2 + 4 + 8, ranges.size(), ranges.toString());
+            Assertions.assertTrue(maxInFlight.get() <= 4, "LOGS_PARALLELISM calls at most, saw " + maxInFlight.get());
+            tc.completeNow();
+        })));
+    }
+}
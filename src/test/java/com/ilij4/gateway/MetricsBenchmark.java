@@ -0,0 +1,28 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.services.MetricsService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Hot-path recording under contention: every thread hits the same series. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+    private final MetricsService metrics = new MetricsService();
+
+    @Benchmark
+    public void inc() {
+        metrics.inc("eth_call");
+    }
+
+    @Benchmark
+    public void observe() {
+        metrics.observe("eth_call", 1_234_567);
+    }
+}
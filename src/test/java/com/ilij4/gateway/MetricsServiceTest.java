@@ -0,0 +1,81 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.rpc.CachePolicy;
+import com.ilij4.gateway.rpc.ResponseCache;
+import com.ilij4.gateway.rpc.RpcCall;
+import com.ilij4.gateway.rpc.SingleFlight;
+import com.ilij4.gateway.services.Histogram;
+import com.ilij4.gateway.services.LabeledCounter;
+import com.ilij4.gateway.services.MetricsService;
+import io.vertx.core.json.JsonArray;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class MetricsServiceTest {
+
+    @Test
+    void histogram_quantiles_are_within_bucket_precision() {
+        var h = new Histogram();
+        for (int i = 1; i <= 1000; i++) h.record(i * 100L); // 100 us .. 100 ms
+
+        Assertions.assertEquals(1000, h.count());
+        long p50 = h.quantile(0.5), p99 = h.quantile(0.99);
+        Assertions.assertTrue(p50 >= 50_000 && p50 <= 50_000 * 1.125, "p50 " + p50);
+        Assertions.assertTrue(p99 >= 99_000 && p99 <= 99_000 * 1.125, "p99 " + p99);
+        Assertions.assertEquals(10, h.countBelowPowerOfTwo(10)); // < 1024 us: 100 .. 1000
+    }
+
+    @Test
+    void prometheus_text_has_counters_and_histograms() {
+        var metrics = new MetricsService();
+        metrics.inc("eth_call");
+        metrics.observe("eth_call", 3_000_000); // 3 ms
+        var statuses = new LabeledCounter("status");
+        statuses.inc(200);
+        statuses.inc(200);
+        metrics.counter("upstream_responses_total", statuses);
+
+        String text = metrics.asPrometheus();
+        Assertions.assertTrue(text.contains("gateway_rpc_requests_total{method=\"eth_call\"} 1\n"), text);
+        Assertions.assertTrue(text.contains("gateway_upstream_responses_total{status=\"200\"} 2\n"), text);
+        Assertions.assertTrue(text.contains("gateway_rpc_latency_seconds_bucket{method=\"eth_call\",le=\"0.004096\"} 1\n"), text);
+        Assertions.assertTrue(text.contains("gateway_rpc_latency_seconds_bucket{method=\"eth_call\",le=\"0.002048\"} 0\n"), text);
+        Assertions.assertTrue(text.contains("gateway_rpc_latency_seconds_count{method=\"eth_call\"} 1\n"), text);
+    }
+
+    @Test
+    void monotonic_totals_are_exported_as_counters() {
+        var metrics = new MetricsService();
+        var cache = new ResponseCache(1 << 20, CachePolicy.withoutFinality());
+        cache.registerMetrics(metrics);
+        new SingleFlight().registerMetrics(metrics);
+        cache.lookup(new RpcCall(1, "eth_chainId", new JsonArray()));
+
+        String text = metrics.asPrometheus();
+        Assertions.assertTrue(text.contains("# TYPE gateway_cache_misses_total counter\ngateway_cache_misses_total 1\n"), text);
+        Assertions.assertTrue(text.contains("# TYPE gateway_singleflight_shared_calls_total counter\n"), text);
+        Assertions.assertFalse(text.contains("gateway_cache_hits "), "no gauge left under the old name");
+    }
+
+    @Test
+    void labelled_views_share_one_family() {
+        var metrics = new MetricsService();
+        metrics.counter("upstream_retries_total", () -> 3);
+        metrics.labelled("route", "archive").counter("upstream_retries_total", () -> 1);
+        var statuses = new LabeledCounter("status");
+        statuses.inc(502);
+        metrics.labelled("route", "archive").counter("upstream_responses_total", statuses);
+
+        String text = metrics.asPrometheus();
+        Assertions.assertTrue(text.contains("# TYPE gateway_upstream_retries_total counter\n"), text);
+        Assertions.assertEquals(1, text.split("# TYPE gateway_upstream_retries_total ", -1).length - 1, text);
+        Assertions.assertTrue(text.contains("gateway_upstream_retries_total 3\n"), text);
+        Assertions.assertTrue(text.contains("gateway_upstream_retries_total{route=\"archive\"} 1\n"), text);
+        Assertions.assertTrue(text.contains("gateway_upstream_responses_total{route=\"archive\",status=\"502\"} 1\n"), text);
+
+        var json = metrics.asJson();
+        Assertions.assertEquals(3L, json.getJsonObject("counters").getLong("upstream_retries_total"));
+        Assertions.assertEquals(1L, json.getJsonObject("by_route").getJsonObject("archive")
+                .getJsonObject("counters").getLong("upstream_retries_total"));
+    }
+}
@@ -0,0 +1,147 @@
+package com.ilij4.gateway;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Offline stand-in for an Ethereum node, for load tests: per-method latency distributions and
+ * response sizes, plus injected 429/502/503 answers and timeouts (requests never answered).
+ * A batch waits for its slowest entry; errors are injected per HTTP request.
+ */
+class MockEthNode {
+    /** Latency in microseconds. */
+    interface Latency {
+        long sampleMicros(ThreadLocalRandom rnd);
+    }
+
+    static Latency fixed(double ms) {
+        long us = (long) (ms * 1000);
+        return rnd -> us;
+    }
+
+    static Latency uniform(double minMs, double maxMs) {
+        return rnd -> (long) (1000 * (minMs + rnd.nextDouble() * (maxMs - minMs)));
+    }
+
+    /** Long-tailed, like real nodes: {@code median * e^(sigma * N(0,1))}. */
+    static Latency logNormal(double medianMs, double sigma) {
+        return rnd -> (long) (1000 * medianMs * Math.exp(sigma * rnd.nextGaussian()));
+    }
+
+    private record Profile(Latency latency, String result) {
+        Profile(Latency latency, int resultBytes) {
+            this(latency, "0x" + "a".repeat(Math.max(1, resultBytes - 4))); // quoted hex string of ~resultBytes
+        }
+    }
+
+    final AtomicLong httpRequests = new AtomicLong();
+    final AtomicLong calls = new AtomicLong();
+    final AtomicLong injected = new AtomicLong();
+
+    private final Map<String, Profile> methods = new HashMap<>();
+    private Profile fallback = new Profile(fixed(1), 8);
+    private double p429, p502, p503, pTimeout;
+    private HttpServer server;
+
+    MockEthNode method(String name, Latency latency, int resultBytes) {
+        methods.put(name, new Profile(latency, resultBytes));
+        return this;
+    }
+
+    MockEthNode otherMethods(Latency latency, int resultBytes) {
+        fallback = new Profile(latency, resultBytes);
+        return this;
+    }
+
+    /** Probabilities per HTTP request. */
+    MockEthNode errors(double p429, double p502, double p503, double pTimeout) {
+        this.p429 = p429;
+        this.p502 = p502;
+        this.p503 = p503;
+        this.pTimeout = pTimeout;
+        return this;
+    }
+
+    Future<Integer> start(Vertx vertx) {
+        return vertx.createHttpServer(new HttpServerOptions().setTcpNoDelay(true))
+                .requestHandler(req -> req.body().onSuccess(body -> {
+                    httpRequests.incrementAndGet();
+                    var rnd = ThreadLocalRandom.current();
+
+                    double roll = rnd.nextDouble();
+                    int status = 200;
+                    if (roll < pTimeout) {
+                        injected.incrementAndGet();
+                        return; // hold it; the gateway's timeout has to deal with it
+                    } else if ((roll -= pTimeout) < p429) {
+                        status = 429;
+                    } else if ((roll -= p429) < p502) {
+                        status = 502;
+                    } else if (roll - p502 < p503) {
+                        status = 503;
+                    }
+
+                    Object parsed = Json.decodeValue(body);
+                    long delayUs = 0;
+                    Buffer out;
+                    if (parsed instanceof JsonArray arr) {
+                        var res = new JsonArray();
+                        for (Object o : arr) {
+                            var call = (JsonObject) o;
+                            Profile p = profile(call);
+                            delayUs = Math.max(delayUs, p.latency().sampleMicros(rnd));
+                            res.add(answer(call, p));
+                        }
+                        out = res.toBuffer();
+                    } else {
+                        var call = (JsonObject) parsed;
+                        Profile p = profile(call);
+                        delayUs = p.latency().sampleMicros(rnd);
+                        out = answer(call, p).toBuffer();
+                    }
+
+                    int sc = status;
+                    if (sc != 200) {
+                        injected.incrementAndGet();
+                        out = Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":null,\"error\":{\"code\":-32000,\"message\":\"injected " + sc + "\"}}");
+                    }
+                    Buffer reply = out;
+                    Runnable send = () -> req.response().setStatusCode(sc).putHeader("Content-Type", "application/json").end(reply);
+                    long delayMs = delayUs / 1000;
+                    if (delayMs > 0) vertx.setTimer(delayMs, t -> send.run());
+                    else send.run();
+                }))
+                .listen(0)
+                .map(s -> {
+                    server = s;
+                    return s.actualPort();
+                });
+    }
+
+    Future<Void> stop() {
+        return server != null ? server.close() : Future.succeededFuture();
+    }
+
+    private Profile profile(JsonObject call) {
+        return methods.getOrDefault(call.getString("method"), fallback);
+    }
+
+    private JsonObject answer(JsonObject call, Profile p) {
+        calls.incrementAndGet();
+        return new JsonObject()
+                .put("jsonrpc", "2.0")
+                .put("id", call.getValue("id"))
+                .put("result", p.result());
+    }
+}
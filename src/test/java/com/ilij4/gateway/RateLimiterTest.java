@@ -0,0 +1,88 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.api.HttpVerticle;
+import com.ilij4.gateway.services.ComputeUnits;
+import com.ilij4.gateway.services.RateLimiter;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.JWTOptions;
+import io.vertx.ext.auth.PubSecKeyOptions;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+@ExtendWith(VertxExtension.class)
+class RateLimiterTest {
+    private static final int PORT = 18085;
+    private static final String JWT_SECRET = "ratelimit-test-secret-1234567890ab";
+
+    @Test
+    void weights_match_exact_names_then_longest_prefix() {
+        var units = new ComputeUnits(List.of("eth_getLogs=75", "debug_=500", "debug_traceCall=900"), 10);
+        Assertions.assertEquals(75, units.of("eth_getLogs"));
+        Assertions.assertEquals(500, units.of("debug_traceTransaction"));
+        Assertions.assertEquals(900, units.of("debug_traceCall"));
+        Assertions.assertEquals(10, units.of("eth_somethingElse"));
+        Assertions.assertEquals(85, units.of(List.of("eth_getLogs", "eth_other")));
+    }
+
+    @Test
+    void bucket_allows_burst_then_reports_wait() {
+        var limiter = new RateLimiter(10, 20, 100); // 10 units/s, burst 20
+        Assertions.assertEquals(0, limiter.tryAcquire("a", 15));
+        Assertions.assertEquals(0, limiter.tryAcquire("a", 5));
+        long wait = limiter.tryAcquire("a", 5);
+        Assertions.assertTrue(wait > 400_000_000L && wait <= 500_000_000L, "about 0.5 s for 5 units, was " + wait);
+        Assertions.assertEquals(0, limiter.tryAcquire("b", 20), "subjects are independent");
+    }
+
+    @Test
+    @Tag("integration")
+    void over_limit_gets_429_with_retry_after(Vertx vertx, VertxTestContext tc) {
+        var cfg = new JsonObject()
+                .put("TLS_ENABLED", "false")
+                .put("PORT", PORT)
+                .put("RPC_URL", "http://localhost:1")
+                .put("JWT_SECRET", JWT_SECRET)
+                .put("RATE_LIMIT_CU_PER_SEC", 1L)
+                .put("RATE_LIMIT_BURST_CU", 100L);
+        String token = JWTAuth.create(vertx, new JWTAuthOptions()
+                        .addPubSecKey(new PubSecKeyOptions().setAlgorithm("HS256").setBuffer(JWT_SECRET)))
+                .generateToken(new JsonObject().put("sub", "greedy"),
+                        new JWTOptions().setAlgorithm("HS256").setExpiresInMinutes(30));
+        // eth_getLogs costs 75: the first fits the 100-unit bucket, the second does not
+        var call = new JsonObject().put("jsonrpc", "2.0").put("id", 1).put("method", "eth_getLogs").put("params", new JsonArray());
+        var client = WebClient.create(vertx);
+        Supplier<Future<HttpResponse<Buffer>>> send = () -> client.post(PORT, "localhost", "/rpc")
+                .putHeader("Authorization", "Bearer " + token)
+                .putHeader("Content-Type", "application/json")
+                .sendBuffer(call.toBuffer());
+
+        vertx.deployVerticle(new HttpVerticle(), new DeploymentOptions().setConfig(cfg))
+                .compose(id -> send.get())
+                .compose(first -> {
+                    tc.verify(() -> Assertions.assertNotEquals(429, first.statusCode()));
+                    return send.get();
+                })
+                .onComplete(tc.succeeding(resp -> tc.verify(() -> {
+                    Assertions.assertEquals(429, resp.statusCode());
+                    Assertions.assertEquals("50", resp.getHeader("Retry-After"));
+                    Assertions.assertEquals(-32005, resp.bodyAsJsonObject().getJsonObject("error").getInteger("code"));
+                    tc.completeNow();
+                })));
+    }
+}
@@ -0,0 +1,50 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.rpc.ParsedRequest;
+import com.ilij4.gateway.rpc.RpcRequestParser;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** One-pass body parsing (what used to be {@code countMethods}) on single calls and batches. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestParseBenchmark {
+    /** 0 = a single call, otherwise the batch size. */
+    @Param({"0", "10", "100", "1000"})
+    int entries;
+
+    private Buffer body;
+
+    @Setup
+    public void setup() {
+        if (entries == 0) {
+            body = call(1).toBuffer();
+        } else {
+            var batch = new JsonArray();
+            for (int i = 0; i < entries; i++) batch.add(call(i));
+            body = batch.toBuffer();
+        }
+    }
+
+    private static JsonObject call(int id) {
+        return new JsonObject().put("jsonrpc", "2.0").put("id", id).put("method", "eth_call")
+                .put("params", new JsonArray()
+                        .add(new JsonObject().put("to", "0x6b175474e89094c44da98b954eedeac495271d0f").put("data", "0x70a08231"))
+                        .add("latest"));
+    }
+
+    @Benchmark
+    public ParsedRequest parse() throws RpcRequestParser.RejectedException {
+        var parser = new RpcRequestParser(10 * 1024 * 1024, 1000);
+        parser.feed(body);
+        return parser.finish();
+    }
+}
@@ -0,0 +1,69 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.rpc.CachePolicy;
+import com.ilij4.gateway.rpc.ResponseCache;
+import com.ilij4.gateway.rpc.RpcCall;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ResponseCacheTest {
+
+    private static RpcCall call(Object id, String method, JsonArray params) {
+        return new RpcCall(id, method, params);
+    }
+
+    @Test
+    void hit_is_rebuilt_with_callers_id() {
+        var cache = new ResponseCache(1 << 20, CachePolicy.withoutFinality());
+        cache.store(call(1, "eth_chainId", null), Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":\"0x1\"}"));
+
+        Buffer hit = cache.lookup(call("abc", "eth_chainId", null));
+        Assertions.assertNotNull(hit);
+        JsonObject resp = hit.toJsonObject();
+        Assertions.assertEquals("abc", resp.getString("id"));
+        Assertions.assertEquals("0x1", resp.getString("result"));
+    }
+
+    @Test
+    void key_ignores_object_key_order_and_hex_case() {
+        var a = call(1, "eth_call", new JsonArray()
+                .add(new JsonObject().put("to", "0xAB").put("data", "0x01"))
+                .add(new JsonObject().put("blockHash", "0xFF")));
+        var b = call(2, "eth_call", new JsonArray()
+                .add(new JsonObject().put("data", "0x01").put("to", "0xab"))
+                .add(new JsonObject().put("blockHash", "0xff")));
+        Assertions.assertEquals(a.key(), b.key());
+    }
+
+    @Test
+    void mutable_and_empty_answers_are_not_cached() {
+        var cache = new ResponseCache(1 << 20, CachePolicy.withoutFinality());
+
+        var latest = call(1, "eth_call", new JsonArray().add(new JsonObject()).add("latest"));
+        cache.store(latest, Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":\"0x\"}"));
+        Assertions.assertNull(cache.lookup(latest));
+
+        var pending = call(1, "eth_getTransactionByHash", new JsonArray().add("0xaa"));
+        cache.store(pending, Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{\"blockHash\":null}}"));
+        Assertions.assertNull(cache.lookup(pending));
+
+        var unknown = call(1, "eth_getBlockByHash", new JsonArray().add("0xbb").add(false));
+        cache.store(unknown, Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":null}"));
+        Assertions.assertNull(cache.lookup(unknown));
+    }
+
+    @Test
+    void transactions_are_cached_once_their_block_is_final() {
+        var cache = new ResponseCache(1 << 20, new CachePolicy(() -> 100L));
+        var mined = call(1, "eth_getTransactionByHash", new JsonArray().add("0xaa"));
+        cache.store(mined, Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{\"blockHash\":\"0x01\",\"blockNumber\":\"0x65\"}}"));
+        Assertions.assertNull(cache.lookup(mined), "block 101 can still be reorged away");
+
+        var fin = call(1, "eth_getTransactionByHash", new JsonArray().add("0xbb"));
+        cache.store(fin, Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{\"blockHash\":\"0x02\",\"blockNumber\":\"0x64\"}}"));
+        Assertions.assertNotNull(cache.lookup(fin));
+    }
+}
@@ -0,0 +1,145 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.api.HttpVerticle;
+import com.ilij4.gateway.rpc.BatchForwarder;
+import com.ilij4.gateway.rpc.MethodRouter;
+import com.ilij4.gateway.rpc.RpcClient;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.JWTOptions;
+import io.vertx.ext.auth.PubSecKeyOptions;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(VertxExtension.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class RoutingTest {
+    private static final int PORT = 18093;
+    private static final String JWT_SECRET = "routing-test-secret-1234567890abcd";
+
+    private final StubUpstream full = new StubUpstream(0);
+    private final StubUpstream archive = new StubUpstream(0);
+    private String token;
+    private WebClient client;
+
+    @Test
+    @Order(1)
+    void rules_pick_exact_names_then_longest_prefix(Vertx vertx) {
+        var a = new RpcClient(vertx, "http://localhost:1", 1_000);
+        var b = new RpcClient(vertx, "http://localhost:2", 1_000);
+        var router = new MethodRouter(
+                List.of(new MethodRouter.Route(MethodRouter.DEFAULT, a, new BatchForwarder(a, 10)),
+                        new MethodRouter.Route("archive", b, new BatchForwarder(b, 10))),
+                List.of("debug_=archive", "debug_traceCall=default", "eth_getLogs=archive"), Map.of("archive", 4));
+        Assertions.assertEquals("archive", router.of("debug_traceTransaction").name());
+        Assertions.assertEquals("default", router.of("debug_traceCall").name());
+        Assertions.assertEquals("archive", router.of("eth_getLogs").name());
+        Assertions.assertEquals("default", router.of("eth_chainId").name());
+        Assertions.assertEquals("default", router.of(null).name());
+        Assertions.assertEquals(4, b.bulkhead().maxInFlight());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new MethodRouter(
+                List.of(new MethodRouter.Route(MethodRouter.DEFAULT, a, new BatchForwarder(a, 10))),
+                List.of("trace_=missing"), Map.of()), "a rule must name a configured group");
+    }
+
+    @BeforeAll
+    void boot(Vertx vertx, VertxTestContext tc) {
+        client = WebClient.create(vertx);
+        token = JWTAuth.create(vertx, new JWTAuthOptions()
+                        .addPubSecKey(new PubSecKeyOptions().setAlgorithm("HS256").setBuffer(JWT_SECRET)))
+                .generateToken(new JsonObject().put("sub", "router"), new JWTOptions().setAlgorithm("HS256"));
+        Future.all(full.start(vertx), archive.start(vertx))
+                .compose(ports -> vertx.deployVerticle(new HttpVerticle(), new DeploymentOptions().setConfig(new JsonObject()
+                        .put("TLS_ENABLED", "false")
+                        .put("PORT", PORT)
+                        .put("RPC_URL", "http://localhost:" + ports.<Integer>resultAt(0))
+                        .put("UPSTREAM_GROUPS", "archive=http://localhost:" + ports.<Integer>resultAt(1))
+                        .put("ROUTE_RULES", "debug_=archive,trace_=archive")
+                        .put("BULKHEAD_LIMITS", "archive=1")
+                        .put("JWT_SECRET", JWT_SECRET))))
+                .onComplete(tc.succeedingThenComplete());
+    }
+
+    private Future<HttpResponse<Buffer>> post(Object body) {
+        return client.post(PORT, "localhost", "/rpc")
+                .putHeader("Authorization", "Bearer " + token)
+                .putHeader("Content-Type", "application/json")
+                .sendBuffer(Buffer.buffer(body.toString()));
+    }
+
+    private static JsonObject call(int id, String method) {
+        return new JsonObject().put("jsonrpc", "2.0").put("id", id).put("method", method).put("params", new JsonArray().add(id));
+    }
+
+    @Test
+    @Order(2)
+    @Tag("integration")
+    void mixed_batch_is_split_per_group_and_merged_in_order(VertxTestContext tc) {
+        int fullBefore = full.httpRequests.get(), archiveBefore = archive.httpRequests.get();
+        var batch = new JsonArray().add(call(1, "eth_blockNumber")).add(call(2, "debug_traceTransaction"))
+                .add(call(3, "eth_gasPrice")).add(call(4, "trace_block"));
+        post(batch).onComplete(tc.succeeding(resp -> tc.verify(() -> {
+            Assertions.assertEquals(200, resp.statusCode());
+            var out = resp.bodyAsJsonArray();
+            Assertions.assertEquals(4, out.size());
+            for (int i = 0; i < 4; i++) {
+                var entry = out.getJsonObject(i);
+                String method = batch.getJsonObject(i).getString("method");
+                Assertions.assertEquals(i + 1, entry.getInteger("id"));
+                Assertions.assertEquals("0x" + Integer.toHexString(method.length()), entry.getString("result"));
+            }
+            Assertions.assertEquals(1, full.httpRequests.get() - fullBefore, "one sub-batch for the full nodes");
+            Assertions.assertEquals(1, archive.httpRequests.get() - archiveBefore, "one for the archive group");
+            tc.completeNow();
+        })));
+    }
+
+    @Test
+    @Order(3)
+    @Tag("integration")
+    void full_bulkhead_refuses_its_route_only(VertxTestContext tc) {
+        archive.delayMs = 300;
+        var traces = new ArrayList<Future<HttpResponse<Buffer>>>();
+        for (int i = 0; i < 3; i++) traces.add(post(call(10 + i, "debug_traceTransaction")));
+        post(call(20, "eth_chainId"))
+                .compose(cheap -> {
+                    tc.verify(() -> Assertions.assertEquals(200, cheap.statusCode(), "the default route is unaffected"));
+                    return Future.join(traces);
+                })
+                .compose(done -> client.get(PORT, "localhost", "/metrics").putHeader("Authorization", "Bearer " + token).send())
+                .onComplete(tc.succeeding(m -> tc.verify(() -> {
+                    archive.delayMs = 0;
+                    long ok = traces.stream().filter(f -> f.result().statusCode() == 200).count();
+                    Assertions.assertEquals(1, ok, "one slot on the archive group");
+                    for (var f : traces) {
+                        if (f.result().statusCode() == 200) continue;
+                        Assertions.assertEquals(503, f.result().statusCode());
+                        Assertions.assertEquals(-32005, f.result().bodyAsJsonObject().getJsonObject("error").getInteger("code"));
+                    }
+                    var counters = m.bodyAsJsonObject().getJsonObject("counters");
+                    Assertions.assertEquals(2L, counters.getJsonObject("route_bulkhead_rejected_total").getLong("archive"));
+                    Assertions.assertTrue(counters.getJsonObject("route_calls_total").getLong("default") >= 3);
+                    var archiveSeries = m.bodyAsJsonObject().getJsonObject("by_route").getJsonObject("archive");
+                    Assertions.assertEquals(0L, archiveSeries.getJsonObject("gauges").getLong("route_in_flight"));
+                    Assertions.assertTrue(archiveSeries.getJsonObject("counters")
+                            .getJsonObject("upstream_responses_total").getLong("200") >= 1, "the group's own client is exported");
+                    tc.completeNow();
+                })));
+    }
+}
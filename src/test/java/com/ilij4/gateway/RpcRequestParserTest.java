@@ -0,0 +1,71 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.rpc.ParsedRequest;
+import com.ilij4.gateway.rpc.RpcRequestParser;
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class RpcRequestParserTest {
+
+    private static ParsedRequest parse(String body, int chunk) throws Exception {
+        var p = new RpcRequestParser(1024, 10);
+        for (int i = 0; i < body.length(); i += chunk) {
+            p.feed(Buffer.buffer(body.substring(i, Math.min(body.length(), i + chunk))));
+        }
+        return p.finish();
+    }
+
+    @Test
+    void batch_split_across_chunks() throws Exception {
+        String body = """
+          [{"jsonrpc":"2.0","method":"eth_call","params":[{"to":"0x1","data":"0x"},"latest"],"id":1},
+           {"jsonrpc":"2.0","method":"eth_chainId","params":[],"id":"two"}]
+          """;
+        ParsedRequest r = parse(body, 7);
+        Assertions.assertTrue(r.batch());
+        Assertions.assertEquals(2, r.size());
+        Assertions.assertEquals("eth_call", r.methods().get(0));
+        Assertions.assertEquals("0x1", r.calls().get(0).params().getJsonObject(0).getString("to"));
+        Assertions.assertEquals("two", r.calls().get(1).id());
+        Assertions.assertEquals(body, r.body().toString(), "raw body kept for forwarding");
+    }
+
+    @Test
+    void notification_is_counted_but_not_modelled() throws Exception {
+        ParsedRequest r = parse("{\"jsonrpc\":\"2.0\",\"method\":\"eth_blockNumber\"}", 100);
+        Assertions.assertEquals("eth_blockNumber", r.singleMethod());
+        Assertions.assertNull(r.single());
+    }
+
+    @Test
+    void params_by_name_are_not_modelled() throws Exception {
+        ParsedRequest r = parse("{\"jsonrpc\":\"2.0\",\"method\":\"m\",\"params\":{\"a\":1},\"id\":1}", 100);
+        Assertions.assertEquals("m", r.singleMethod());
+        Assertions.assertNull(r.calls(), "forwarded as sent, not rebuilt with empty params");
+    }
+
+    @Test
+    void rejects_while_arriving() {
+        var tooBig = new RpcRequestParser(16, 10);
+        var e = Assertions.assertThrows(RpcRequestParser.RejectedException.class,
+                () -> tooBig.feed(Buffer.buffer("[" + " ".repeat(20))));
+        Assertions.assertEquals(413, e.status());
+
+        var malformed = new RpcRequestParser(1024, 10);
+        e = Assertions.assertThrows(RpcRequestParser.RejectedException.class,
+                () -> malformed.feed(Buffer.buffer("{\"method\": ]")));
+        Assertions.assertEquals(-32700, e.code());
+
+        var trailing = new RpcRequestParser(1024, 10);
+        Assertions.assertThrows(RpcRequestParser.RejectedException.class, () -> {
+            trailing.feed(Buffer.buffer("{\"method\":\"a\",\"id\":1}{"));
+            trailing.finish();
+        });
+
+        var wide = new RpcRequestParser(1024, 1);
+        e = Assertions.assertThrows(RpcRequestParser.RejectedException.class,
+                () -> wide.feed(Buffer.buffer("[{\"method\":\"a\",\"id\":1},{\"method\":\"b\",\"id\":2}")));
+        Assertions.assertEquals(-32600, e.code());
+    }
+}
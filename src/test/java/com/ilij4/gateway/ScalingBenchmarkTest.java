@@ -0,0 +1,115 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.api.HttpVerticle;
+import com.ilij4.gateway.services.GatewayServices;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.PoolOptions;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.JWTOptions;
+import io.vertx.ext.auth.PubSecKeyOptions;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of the full /rpc stack (JWT, parse, cache) with 1 vs. N HttpVerticle instances.
+ * Run with {@code mvn test -Pperf}; numbers only mean something on a multi-core box.
+ */
+@Tag("perf")
+class ScalingBenchmarkTest {
+    private static final String JWT_SECRET = "scaling-benchmark-secret-1234567890";
+    private static final int CONNECTIONS = 64;
+    private static final long WARMUP_MS = 2_000;
+    private static final long MEASURE_MS = 5_000;
+
+    @Test
+    void throughput_scales_with_instances() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        long single = run(1, 18090);
+        long multi = run(cores, 18091);
+        System.out.printf("scaling: 1 instance %d req/s, %d instances %d req/s (x%.2f)%n",
+                single, cores, multi, (double) multi / Math.max(1, single));
+        Assertions.assertTrue(single > 0 && multi > 0);
+    }
+
+    private long run(int instances, int port) throws Exception {
+        Vertx upstreamVertx = Vertx.vertx();
+        Vertx gatewayVertx = Vertx.vertx();
+        Vertx clientVertx = Vertx.vertx();
+        try {
+            var stub = new StubUpstream(0);
+            int upstreamPort = await(stub.start(upstreamVertx));
+
+            var cfg = new JsonObject()
+                    .put("TLS_ENABLED", "false")
+                    .put("PORT", port)
+                    .put("RPC_URL", "http://localhost:" + upstreamPort)
+                    .put("JWT_SECRET", JWT_SECRET);
+            var services = GatewayServices.create(gatewayVertx, cfg);
+            await(gatewayVertx.deployVerticle(() -> new HttpVerticle(services),
+                    new DeploymentOptions().setConfig(cfg).setInstances(instances)));
+
+            String token = JWTAuth.create(clientVertx, new JWTAuthOptions()
+                            .addPubSecKey(new PubSecKeyOptions().setAlgorithm("HS256").setBuffer(JWT_SECRET)))
+                    .generateToken(new JsonObject().put("sub", "bench"),
+                            new JWTOptions().setAlgorithm("HS256").setExpiresInMinutes(30));
+
+            var client = clientVertx.createHttpClient(new HttpClientOptions().setKeepAlive(true),
+                    new PoolOptions().setHttp1MaxSize(CONNECTIONS));
+            var opts = new RequestOptions()
+                    .setMethod(HttpMethod.POST)
+                    .setAbsoluteURI("http://localhost:" + port + "/rpc")
+                    .putHeader("Authorization", "Bearer " + token)
+                    .putHeader("Content-Type", "application/json");
+            Buffer body = Buffer.buffer("{\"jsonrpc\":\"2.0\",\"method\":\"eth_chainId\",\"params\":[],\"id\":1}");
+
+            var done = new AtomicLong();
+            long warmEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WARMUP_MS);
+            long end = warmEnd + TimeUnit.MILLISECONDS.toNanos(MEASURE_MS);
+            Promise<Void> finished = Promise.promise();
+            var running = new AtomicLong(CONNECTIONS);
+            for (int i = 0; i < CONNECTIONS; i++) {
+                // closed loop: each worker keeps exactly one request in flight
+                loop(client, opts, body, warmEnd, end, done, running, finished);
+            }
+            await(finished.future());
+            return done.get() * 1000 / MEASURE_MS;
+        } finally {
+            await(clientVertx.close());
+            await(gatewayVertx.close());
+            await(upstreamVertx.close());
+        }
+    }
+
+    private void loop(io.vertx.core.http.HttpClient client, RequestOptions opts, Buffer body, long warmEnd, long end,
+                      AtomicLong done, AtomicLong running, Promise<Void> finished) {
+        long now = System.nanoTime();
+        if (now >= end) {
+            if (running.decrementAndGet() == 0) finished.tryComplete();
+            return;
+        }
+        client.request(opts)
+                .compose(r -> r.send(body))
+                .compose(r -> r.body())
+                .onComplete(ar -> {
+                    if (ar.succeeded() && System.nanoTime() > warmEnd) done.incrementAndGet();
+                    loop(client, opts, body, warmEnd, end, done, running, finished);
+                });
+    }
+
+    private static <T> T await(Future<T> f) throws Exception {
+        return f.toCompletionStage().toCompletableFuture().get(60, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,65 @@
+package com.ilij4.gateway;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal local JSON-RPC node: answers every call with {@code "0x" + method.length()} after a fixed delay
+ * (by-name params are echoed back instead).
+ */
+class StubUpstream {
+    final AtomicInteger httpRequests = new AtomicInteger();
+    final AtomicInteger calls = new AtomicInteger();
+    final AtomicInteger connections = new AtomicInteger();
+    volatile long delayMs;
+    private HttpServer server;
+
+    StubUpstream(long delayMs) {
+        this.delayMs = delayMs;
+    }
+
+    Future<Integer> start(Vertx vertx) {
+        return vertx.createHttpServer()
+                .connectionHandler(c -> connections.incrementAndGet())
+                .requestHandler(req -> req.body().onSuccess(body -> {
+                    httpRequests.incrementAndGet();
+                    Object parsed = Json.decodeValue(body);
+                    Buffer out;
+                    if (parsed instanceof JsonArray arr) {
+                        var res = new JsonArray();
+                        arr.forEach(o -> res.add(answer((JsonObject) o)));
+                        out = res.toBuffer();
+                    } else {
+                        out = answer((JsonObject) parsed).toBuffer();
+                    }
+                    Runnable reply = () -> req.response().putHeader("Content-Type", "application/json").end(out);
+                    if (delayMs > 0) vertx.setTimer(delayMs, t -> reply.run());
+                    else reply.run();
+                }))
+                .listen(0)
+                .map(s -> {
+                    server = s;
+                    return s.actualPort();
+                });
+    }
+
+    private JsonObject answer(JsonObject call) {
+        calls.incrementAndGet();
+        return new JsonObject()
+                .put("jsonrpc", "2.0")
+                .put("id", call.getValue("id"))
+                .put("result", call.getValue("params") instanceof JsonObject named
+                        ? named : "0x" + Integer.toHexString(call.getString("method").length()));
+    }
+
+    Future<Void> stop() {
+        return server != null ? server.close() : Future.succeededFuture();
+    }
+}
@@ -0,0 +1,262 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.api.HttpVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.http.WebSocket;
+import io.vertx.core.http.WebSocketClient;
+import io.vertx.core.http.WebSocketConnectOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.JWTOptions;
+import io.vertx.ext.auth.PubSecKeyOptions;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(VertxExtension.class)
+@Tag("integration")
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class SubscriptionTest {
+    private static final int PORT = 18086;
+    private static final String JWT_SECRET = "subscription-test-secret-1234567890";
+
+    // fake node: every eth_subscribe gets a fresh id, notifications are pushed by the tests
+    private final AtomicInteger upstreamSubscribes = new AtomicInteger();
+    private final AtomicInteger upstreamUnsubscribes = new AtomicInteger();
+    private final List<ServerWebSocket> nodeSockets = new CopyOnWriteArrayList<>();
+    private volatile boolean refuseSubscribes;
+    private final StubUpstream http = new StubUpstream(300); // answers the calls /ws forwards
+    private String token;
+    private WebSocketClient wsClient; // kept: an unreachable client gets closed, connections and all
+
+    @BeforeAll
+    void boot(Vertx vertx, VertxTestContext tc) {
+        vertx.createHttpServer()
+                .webSocketHandler(ws -> {
+                    nodeSockets.add(ws);
+                    ws.textMessageHandler(text -> {
+                        var req = new JsonObject(text);
+                        if (refuseSubscribes && "eth_subscribe".equals(req.getString("method"))) {
+                            ws.writeTextMessage(new JsonObject().put("jsonrpc", "2.0").put("id", req.getValue("id"))
+                                    .put("error", new JsonObject().put("code", -32000).put("message", "subscriptions disabled")).encode());
+                            return;
+                        }
+                        Object result = switch (req.getString("method")) {
+                            case "eth_subscribe" -> "0xup" + upstreamSubscribes.incrementAndGet();
+                            case "eth_unsubscribe" -> {
+                                upstreamUnsubscribes.incrementAndGet();
+                                yield true;
+                            }
+                            default -> null;
+                        };
+                        ws.writeTextMessage(new JsonObject().put("jsonrpc", "2.0").put("id", req.getValue("id"))
+                                .put("result", result).encode());
+                    });
+                })
+                .listen(0)
+                .compose(node -> http.start(vertx).compose(httpPort -> {
+                    var cfg = new JsonObject()
+                            .put("TLS_ENABLED", "false")
+                            .put("PORT", PORT)
+                            .put("RPC_URL", "http://localhost:" + httpPort)
+                            .put("RPC_WS_URL", "ws://localhost:" + node.actualPort())
+                            .put("WS_QUEUE_SIZE", 8)
+                            .put("WS_MAX_IN_FLIGHT", 4)
+                            .put("MAX_BATCH_SIZE", 5)
+                            .put("RATE_LIMIT_CU_PER_SEC", 100L)
+                            .put("JWT_SECRET", JWT_SECRET);
+                    return vertx.deployVerticle(new HttpVerticle(), new DeploymentOptions().setConfig(cfg));
+                }))
+                .onComplete(tc.succeedingThenComplete());
+
+        wsClient = vertx.createWebSocketClient();
+        token = JWTAuth.create(vertx, new JWTAuthOptions()
+                        .addPubSecKey(new PubSecKeyOptions().setAlgorithm("HS256").setBuffer(JWT_SECRET)))
+                .generateToken(new JsonObject().put("sub", "tester"),
+                        new JWTOptions().setAlgorithm("HS256").setExpiresInMinutes(30));
+    }
+
+    private Future<WebSocket> connect(Vertx vertx) {
+        return wsClient.connect(new WebSocketConnectOptions()
+                .setPort(PORT).setHost("localhost").setURI("/ws")
+                .addHeader("Authorization", "Bearer " + token));
+    }
+
+    /** Sends eth_subscribe and completes with the subscription id the gateway handed out. */
+    private static Future<String> subscribe(WebSocket ws, List<JsonObject> inbox) {
+        Promise<String> id = Promise.promise();
+        ws.textMessageHandler(text -> {
+            var msg = new JsonObject(text);
+            if (Integer.valueOf(1).equals(msg.getInteger("id"))) id.tryComplete(msg.getString("result"));
+            else inbox.add(msg);
+        });
+        ws.writeTextMessage("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_subscribe\",\"params\":[\"newHeads\"]}");
+        return id.future();
+    }
+
+    private void notifyAll(String upstreamId, Object result) {
+        var msg = new JsonObject().put("jsonrpc", "2.0").put("method", "eth_subscription")
+                .put("params", new JsonObject().put("subscription", upstreamId).put("result", result)).encode();
+        nodeSockets.forEach(s -> s.writeTextMessage(msg));
+    }
+
+    @Test
+    @Order(1)
+    void identical_subscriptions_share_one_upstream_subscription(Vertx vertx, VertxTestContext tc) {
+        var inboxA = new CopyOnWriteArrayList<JsonObject>();
+        var inboxB = new CopyOnWriteArrayList<JsonObject>();
+        int before = upstreamSubscribes.get();
+
+        connect(vertx).compose(a -> subscribe(a, inboxA).compose(idA -> connect(vertx)
+                .compose(b -> subscribe(b, inboxB).map(idB -> {
+                    Assertions.assertNotEquals(idA, idB);
+                    Assertions.assertEquals(1, upstreamSubscribes.get() - before, "one upstream subscription");
+                    notifyAll("0xup" + upstreamSubscribes.get(), new JsonObject().put("number", "0x10"));
+                    vertx.setPeriodic(20, t -> {
+                        if (inboxA.isEmpty() || inboxB.isEmpty()) return;
+                        vertx.cancelTimer(t);
+                        tc.verify(() -> {
+                            var na = inboxA.get(0).getJsonObject("params");
+                            var nb = inboxB.get(0).getJsonObject("params");
+                            Assertions.assertEquals(idA, na.getString("subscription"));
+                            Assertions.assertEquals(idB, nb.getString("subscription"));
+                            Assertions.assertEquals("0x10", nb.getJsonObject("result").getString("number"));
+                            a.close();
+                            b.close();
+                            tc.completeNow();
+                        });
+                    });
+                    return null;
+                }))))
+                .onFailure(tc::failNow);
+    }
+
+    @Test
+    @Order(2)
+    void last_unsubscribe_releases_the_upstream_subscription(Vertx vertx, VertxTestContext tc) {
+        var inbox = new CopyOnWriteArrayList<JsonObject>();
+        int before = upstreamUnsubscribes.get();
+        connect(vertx).compose(ws -> subscribe(ws, inbox).onSuccess(id -> {
+            ws.writeTextMessage(new JsonObject().put("jsonrpc", "2.0").put("id", 2).put("method", "eth_unsubscribe")
+                    .put("params", new JsonArray().add(id)).encode());
+            vertx.setPeriodic(20, t -> {
+                if (inbox.isEmpty() || upstreamUnsubscribes.get() == before) return;
+                vertx.cancelTimer(t);
+                tc.verify(() -> {
+                    Assertions.assertTrue(inbox.get(0).getBoolean("result"));
+                    ws.close();
+                    tc.completeNow();
+                });
+            });
+        })).onFailure(tc::failNow);
+    }
+
+    @Test
+    @Order(3)
+    void slow_consumer_is_disconnected(Vertx vertx, VertxTestContext tc) {
+        connect(vertx).compose(ws -> subscribe(ws, new CopyOnWriteArrayList<>()).onSuccess(id -> {
+            ws.closeHandler(v -> tc.verify(() -> {
+                Assertions.assertEquals((short) 1013, ws.closeStatusCode());
+                tc.completeNow();
+            }));
+            ws.pause(); // stop reading: the gateway's socket buffers fill, then its queue
+            String big = "x".repeat(64 * 1024);
+            for (int i = 0; i < 2_000; i++) notifyAll("0xup" + upstreamSubscribes.get(), big);
+            vertx.setTimer(500, t -> ws.resume()); // let the close frame through
+        })).onFailure(tc::failNow);
+    }
+
+    /** Sends {@code frames} and completes with the {@code expected} answers, by id. */
+    private static Future<Map<Object, JsonObject>> exchange(WebSocket ws, List<String> frames, int expected) {
+        Promise<Map<Object, JsonObject>> done = Promise.promise();
+        var answers = new ConcurrentHashMap<Object, JsonObject>();
+        ws.textMessageHandler(text -> {
+            var msg = new JsonObject(text);
+            answers.put(String.valueOf(msg.getValue("id")), msg);
+            if (answers.size() == expected) done.tryComplete(answers);
+        });
+        frames.forEach(ws::writeTextMessage);
+        return done.future();
+    }
+
+    private static String call(Object id, String method) {
+        return new JsonObject().put("jsonrpc", "2.0").put("id", id).put("method", method).put("params", new JsonArray()).encode();
+    }
+
+    @Test
+    @Order(4)
+    void pending_calls_and_batch_size_are_capped_per_connection(Vertx vertx, VertxTestContext tc) {
+        var frames = new ArrayList<String>();
+        for (int i = 0; i < 6; i++) frames.add(call(100 + i, "eth_chainId"));
+        var batch = new JsonArray();
+        for (int i = 0; i < 6; i++) batch.add(new JsonObject(call(200 + i, "eth_chainId")));
+        frames.add(batch.encode());
+        connect(vertx).compose(ws -> exchange(ws, frames, 7).onComplete(ar -> ws.close()))
+                .onComplete(tc.succeeding(answers -> tc.verify(() -> {
+                    long answered = answers.values().stream().filter(m -> m.containsKey("result")).count();
+                    Assertions.assertEquals(4, answered, "WS_MAX_IN_FLIGHT calls went upstream");
+                    Assertions.assertEquals(-32005, answers.get("105").getJsonObject("error").getInteger("code"));
+                    Assertions.assertEquals(-32600, answers.get("null").getJsonObject("error").getInteger("code"),
+                            "batch over MAX_BATCH_SIZE");
+                    tc.completeNow();
+                })));
+    }
+
+    @Test
+    @Order(5)
+    void messages_are_charged_to_the_subjects_rate_limit(Vertx vertx, VertxTestContext tc) {
+        var frames = new ArrayList<String>();
+        for (int i = 0; i < 4; i++) frames.add(call(300 + i, "eth_getLogs")); // 75 CU each, burst is 200
+        connect(vertx).compose(ws -> exchange(ws, frames, 4).onComplete(ar -> ws.close()))
+                .onComplete(tc.succeeding(answers -> tc.verify(() -> {
+                    var limited = answers.values().stream()
+                            .filter(m -> m.containsKey("error") && m.getJsonObject("error").getString("message").contains("rate limit"))
+                            .toList();
+                    Assertions.assertTrue(limited.size() >= 2, answers.toString());
+                    Assertions.assertEquals(-32005, limited.get(0).getJsonObject("error").getInteger("code"));
+                    tc.completeNow();
+                })));
+    }
+
+    @Test
+    @Order(6)
+    void subscription_the_node_refuses_after_a_reconnect_disconnects_its_clients(Vertx vertx, VertxTestContext tc) {
+        connect(vertx).compose(ws -> subscribe(ws, new CopyOnWriteArrayList<>()).onSuccess(id -> {
+            ws.closeHandler(v -> {
+                refuseSubscribes = false;
+                tc.verify(() -> Assertions.assertEquals((short) 1012, ws.closeStatusCode()));
+                int before = upstreamSubscribes.get();
+                // the topic is gone: the next subscriber gets a fresh upstream subscription, not a stale ready
+                connect(vertx).compose(again -> subscribe(again, new CopyOnWriteArrayList<>())
+                                .onComplete(ar -> again.close()))
+                        .onComplete(tc.succeeding(again -> tc.verify(() -> {
+                            Assertions.assertNotNull(again);
+                            Assertions.assertTrue(upstreamSubscribes.get() > before);
+                            tc.completeNow();
+                        })));
+            });
+            refuseSubscribes = true;
+            nodeSockets.forEach(s -> s.close()); // the hub reconnects and tries to subscribe again
+        })).onFailure(tc::failNow);
+    }
+
+    @AfterAll
+    void shutdown(VertxTestContext tc) {
+        http.stop().onComplete(tc.succeedingThenComplete());
+    }
+}
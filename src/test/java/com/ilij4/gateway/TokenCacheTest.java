@@ -0,0 +1,87 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.services.TokenCache;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.JWTOptions;
+import io.vertx.ext.auth.PubSecKeyOptions;
+import io.vertx.ext.auth.User;
+import io.vertx.ext.auth.authentication.TokenCredentials;
+import io.vertx.ext.auth.jwt.JWTAuth;
+import io.vertx.ext.auth.jwt.JWTAuthOptions;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+class TokenCacheTest {
+
+    private static long inSeconds(long s) {
+        return System.currentTimeMillis() / 1000 + s;
+    }
+
+    @Test
+    void hit_returns_stored_user_and_claims_result() {
+        var cache = new TokenCache(100);
+        var user = User.fromName("alice");
+        cache.store(TokenCache.digest("token-a"), user, null, inSeconds(60));
+        cache.store(TokenCache.digest("token-b"), user, "invalid audience", inSeconds(60));
+
+        Assertions.assertSame(user, cache.lookup(TokenCache.digest("token-a")).user());
+        Assertions.assertNull(cache.lookup(TokenCache.digest("token-a")).claimsError());
+        Assertions.assertEquals("invalid audience", cache.lookup(TokenCache.digest("token-b")).claimsError());
+        Assertions.assertNull(cache.lookup(TokenCache.digest("token-c")));
+    }
+
+    @Test
+    void expired_or_exp_less_tokens_are_not_cached() {
+        var cache = new TokenCache(100);
+        cache.store(TokenCache.digest("old"), User.fromName("a"), null, inSeconds(-1));
+        cache.store(TokenCache.digest("forever"), User.fromName("b"), null, null);
+
+        Assertions.assertNull(cache.lookup(TokenCache.digest("old")));
+        Assertions.assertNull(cache.lookup(TokenCache.digest("forever")));
+    }
+
+    @Test
+    @Tag("perf")
+    void cached_path_vs_full_verification() throws Exception {
+        var vertx = Vertx.vertx();
+        try {
+            var jwt = JWTAuth.create(vertx, new JWTAuthOptions()
+                    .addPubSecKey(new PubSecKeyOptions().setAlgorithm("HS256").setBuffer("benchmark-secret-0123456789")));
+            String token = jwt.generateToken(new JsonObject().put("sub", "bench").put("iss", "gw").put("aud", "clients"),
+                    new JWTOptions().setAlgorithm("HS256").setExpiresInMinutes(60));
+            var cache = new TokenCache(100);
+            User user = jwt.authenticate(new TokenCredentials(token)).toCompletionStage().toCompletableFuture()
+                    .get(5, TimeUnit.SECONDS);
+            cache.store(TokenCache.digest(token), user, null, user.attributes().getLong("exp"));
+
+            int n = 200_000;
+            for (int round = 0; round < 2; round++) { // first round is warm-up
+                long t0 = System.nanoTime();
+                for (int i = 0; i < n; i++) {
+                    var f = jwt.authenticate(new TokenCredentials(token));
+                    if (!f.isComplete()) f.toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+                    if (f.failed()) throw new AssertionError(f.cause());
+                }
+                long full = System.nanoTime() - t0;
+
+                t0 = System.nanoTime();
+                for (int i = 0; i < n; i++) {
+                    if (cache.lookup(TokenCache.digest(token)) == null) throw new AssertionError();
+                }
+                long cached = System.nanoTime() - t0;
+
+                if (round == 1) {
+                    System.out.printf("jwt: full verification %d ns/op, cached %d ns/op (x%.1f)%n",
+                            full / n, cached / n, (double) full / cached);
+                    Assertions.assertTrue(cached < full);
+                }
+            }
+        } finally {
+            vertx.close();
+        }
+    }
+}
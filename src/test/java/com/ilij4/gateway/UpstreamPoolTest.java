@@ -0,0 +1,48 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.rpc.CircuitBreaker;
+import com.ilij4.gateway.rpc.UpstreamPool;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class UpstreamPoolTest {
+
+    @Test
+    void parses_comma_separated_urls() {
+        var pool = UpstreamPool.parse(" http://a:8545, http://b:8545 ,,http://c:8545");
+        Assertions.assertEquals(3, pool.size());
+        Assertions.assertEquals("http://b:8545", pool.upstreams().get(1).url());
+    }
+
+    @Test
+    void empty_list_is_rejected() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> UpstreamPool.parse(" , "));
+    }
+
+    @Test
+    void pick_skips_tried_nodes_while_others_remain() {
+        var pool = UpstreamPool.parse("http://a,http://b");
+        var a = pool.upstreams().get(0);
+        var b = pool.upstreams().get(1);
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertSame(b, pool.pick(List.of(a)));
+        }
+        Assertions.assertNotNull(pool.pick(List.of(a, b)), "falls back to the full set");
+    }
+
+    @Test
+    void pick_skips_open_circuits_and_returns_null_when_all_are_open() {
+        var pool = UpstreamPool.parse("http://a,http://b", new CircuitBreaker.Settings(50, 1_000, 80, 1, 10, 60_000, 1));
+        var a = pool.upstreams().get(0);
+        var b = pool.upstreams().get(1);
+        a.breaker().onResult(1_000, false);
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertSame(b, pool.pick(List.of()));
+            b.breaker().onResult(1_000, true);
+        }
+        for (int i = 0; i < 10; i++) b.breaker().onResult(1_000, false);
+        Assertions.assertNull(pool.pick(List.of()));
+    }
+}
@@ -0,0 +1,92 @@
+package com.ilij4.gateway;
+
+import com.ilij4.gateway.rpc.RpcClient;
+import com.ilij4.gateway.rpc.UpstreamPool;
+import com.ilij4.gateway.services.Histogram;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link RpcClient} to a node with 5 ms of latency, {@value #IN_FLIGHT} calls in flight:
+ * HTTP/1.1 with a pool of {@value #POOL} connections vs. HTTP/2 (h2c) over one connection.
+ * Reports throughput, latency and how many connections the node saw. Run with {@code mvn test -Pperf}.
+ */
+@Tag("perf")
+class UpstreamProtocolBenchmarkTest {
+    private static final int IN_FLIGHT = 256;
+    private static final int POOL = 32;
+    private static final long WARMUP_MS = 2_000;
+    private static final long MEASURE_MS = 5_000;
+    private static final Buffer CALL = Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_blockNumber\",\"params\":[]}");
+
+    private record Result(long perSec, Histogram latency, int connections) {
+        String format(String name) {
+            return String.format("%-8s %6d req/s  p50 %6.2fms  p99 %6.2fms  %3d upstream connections",
+                    name, perSec, latency.quantile(0.5) / 1000.0, latency.quantile(0.99) / 1000.0, connections);
+        }
+    }
+
+    @Test
+    void http2_multiplexes_over_fewer_connections() throws Exception {
+        var http1 = run(new RpcClient.Transport(false, POOL, 1, 0, true));
+        var http2 = run(new RpcClient.Transport(true, POOL, 1, 0, true));
+        System.out.println(http1.format("HTTP/1.1"));
+        System.out.println(http2.format("HTTP/2"));
+        Assertions.assertTrue(http1.perSec() > 0 && http2.perSec() > 0);
+        Assertions.assertTrue(http2.connections() < http1.connections());
+    }
+
+    private Result run(RpcClient.Transport transport) throws Exception {
+        Vertx upstreamVertx = Vertx.vertx();
+        Vertx clientVertx = Vertx.vertx();
+        try {
+            var stub = new StubUpstream(5);
+            int port = await(stub.start(upstreamVertx));
+            var client = new RpcClient(clientVertx, UpstreamPool.parse("http://localhost:" + port), 5_000, transport);
+
+            var latency = new Histogram();
+            var done = new AtomicLong();
+            long warmEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WARMUP_MS);
+            long end = warmEnd + TimeUnit.MILLISECONDS.toNanos(MEASURE_MS);
+            Promise<Void> finished = Promise.promise();
+            var running = new AtomicLong(IN_FLIGHT);
+            clientVertx.runOnContext(v -> {
+                for (int i = 0; i < IN_FLIGHT; i++) loop(client, warmEnd, end, latency, done, running, finished);
+            });
+            await(finished.future());
+            return new Result(done.get() * 1000 / MEASURE_MS, latency, stub.connections.get());
+        } finally {
+            await(clientVertx.close());
+            await(upstreamVertx.close());
+        }
+    }
+
+    // closed loop: each worker keeps exactly one call in flight
+    private void loop(RpcClient client, long warmEnd, long end, Histogram latency, AtomicLong done,
+                      AtomicLong running, Promise<Void> finished) {
+        long start = System.nanoTime();
+        if (start >= end) {
+            if (running.decrementAndGet() == 0) finished.tryComplete();
+            return;
+        }
+        client.forward(CALL).onComplete(ar -> {
+            if (ar.succeeded() && start > warmEnd) {
+                latency.recordNanos(System.nanoTime() - start);
+                done.incrementAndGet();
+            }
+            loop(client, warmEnd, end, latency, done, running, finished);
+        });
+    }
+
+    private static <T> T await(Future<T> f) throws Exception {
+        return f.toCompletionStage().toCompletableFuture().get(60, TimeUnit.SECONDS);
+    }
+}